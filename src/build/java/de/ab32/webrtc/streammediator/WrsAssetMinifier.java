@@ -0,0 +1,318 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Line-based minifier of the JavaScript-assets, called by the build (maven-antrun-plugin).
+ * Comments, indentation and blank lines are removed, line-breaks are kept (ASI).
+ * <p>The source is scanned token by token: strings, template-literals and regular expressions
+ * are copied unchanged, so a line starting with * or // is removed only inside a real comment.
+ * The build fails if the source ends inside a token or its brackets aren't balanced.</p>
+ */
+public class WrsAssetMinifier {
+
+	/** keywords after which a slash starts a regular expression */
+	private static final Set<String> KEYWORDS_BEFORE_REGEXP = new HashSet<>(Arrays.asList(
+			"return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw",
+			"case", "do", "else", "yield", "await"));
+
+	/** characters after which a slash starts a regular expression */
+	private static final String CHARS_BEFORE_REGEXP = "(,=:[!&|?{};+-*%<>~^";
+
+	/** marker of the expression of a template-literal in the stack of brackets */
+	private static final char TEMPLATE_EXPRESSION = '$';
+
+	/** source */
+	private final String fSrc;
+
+	/** minified output */
+	private final StringBuilder fOut;
+
+	/** open brackets (and expressions of template-literals) */
+	private final Deque<Character> fBrackets = new ArrayDeque<>();
+
+	/** current position in the source */
+	private int fPos;
+
+	/** current line in the source (messages) */
+	private int fLine = 1;
+
+	/** <code>true</code> if no code has been written in the current line */
+	private boolean fIsLineStart = true;
+
+	/**
+	 * Constructor
+	 * @param src JavaScript-source
+	 */
+	WrsAssetMinifier(final String src) {
+		fSrc = src;
+		fOut = new StringBuilder(src.length());
+	}
+
+	/**
+	 * Minifies a JavaScript-file.
+	 * @param args source-file and output-file
+	 * @throws IOException in case of an IO-error
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 2) {
+			throw new IllegalArgumentException("Usage: WrsAssetMinifier <source.js> <output.js>");
+		}
+		final Path pathSrc = Paths.get(args[0]);
+		final String src = new String(Files.readAllBytes(pathSrc), StandardCharsets.UTF_8);
+		final String minified;
+		try {
+			minified = new WrsAssetMinifier(src).minify();
+		}
+		catch (IllegalStateException e) {
+			throw new IllegalStateException(pathSrc + ": " + e.getMessage(), e);
+		}
+		Files.write(Paths.get(args[1]), minified.getBytes(StandardCharsets.UTF_8));
+		System.out.println(String.format("Minified %s: %d -> %d bytes",
+				pathSrc.getFileName(), Integer.valueOf(src.length()), Integer.valueOf(minified.length())));
+	}
+
+	/**
+	 * Minifies the source.
+	 * @return minified source
+	 * @throws IllegalStateException if the source ends inside a token or its brackets aren't balanced
+	 */
+	String minify() {
+		while (fPos < fSrc.length()) {
+			final char c = fSrc.charAt(fPos);
+			final char cNext = (fPos + 1 < fSrc.length()) ? fSrc.charAt(fPos + 1) : 0;
+			if (c == '\n') {
+				endLine();
+				fPos++;
+			}
+			else if (c == ' ' || c == '\t' || c == '\r') {
+				if (!fIsLineStart) {
+					fOut.append(c);
+				}
+				fPos++;
+			}
+			else if (c == '/' && cNext == '*') {
+				skipBlockComment();
+			}
+			else if (c == '/' && cNext == '/') {
+				while (fPos < fSrc.length() && fSrc.charAt(fPos) != '\n') {
+					fPos++;
+				}
+			}
+			else if (c == '\'' || c == '"') {
+				copyString(c);
+			}
+			else if (c == '`') {
+				fPos++;
+				append(c);
+				copyTemplate();
+			}
+			else if (c == '/' && isRegExpAllowed()) {
+				copyRegExp();
+			}
+			else if (c == '}' && !fBrackets.isEmpty() && fBrackets.peek().charValue() == TEMPLATE_EXPRESSION) {
+				// The closing brace of an expression continues its template-literal.
+				fBrackets.pop();
+				append(c);
+				fPos++;
+				copyTemplate();
+			}
+			else {
+				checkBracket(c);
+				append(c);
+				fPos++;
+			}
+		}
+		endLine();
+		if (!fBrackets.isEmpty()) {
+			throw new IllegalStateException("Unclosed bracket(s) at the end: " + fBrackets);
+		}
+		return fOut.toString();
+	}
+
+	/**
+	 * Appends a character of code.
+	 * @param c character
+	 */
+	private void append(final char c) {
+		fOut.append(c);
+		fIsLineStart = false;
+	}
+
+	/**
+	 * Ends the current line: Trailing whitespace is removed, a blank line isn't written.
+	 */
+	private void endLine() {
+		int len = fOut.length();
+		while (len > 0 && (fOut.charAt(len - 1) == ' ' || fOut.charAt(len - 1) == '\t' || fOut.charAt(len - 1) == '\r')) {
+			len--;
+		}
+		fOut.setLength(len);
+		if (!fIsLineStart) {
+			fOut.append('\n');
+		}
+		fIsLineStart = true;
+		fLine++;
+	}
+
+	/**
+	 * Skips a block-comment. A comment containing a line-break ends the line (ASI).
+	 */
+	private void skipBlockComment() {
+		final int lineStart = fLine;
+		final int end = fSrc.indexOf("*/", fPos + 2);
+		if (end < 0) {
+			throw new IllegalStateException("Unclosed comment starting in line " + lineStart);
+		}
+		boolean isMultiLine = false;
+		for (int i = fPos; i < end; i++) {
+			if (fSrc.charAt(i) == '\n') {
+				isMultiLine = true;
+				fLine++;
+			}
+		}
+		fPos = end + 2;
+		if (isMultiLine) {
+			// endLine() counts the line-break itself.
+			fLine--;
+			endLine();
+		}
+	}
+
+	/**
+	 * Copies a string-literal.
+	 * @param quote quote of the string
+	 */
+	private void copyString(final char quote) {
+		final int lineStart = fLine;
+		append(quote);
+		fPos++;
+		while (true) {
+			if (fPos >= fSrc.length() || fSrc.charAt(fPos) == '\n') {
+				throw new IllegalStateException("Unclosed string starting in line " + lineStart);
+			}
+			final char c = fSrc.charAt(fPos++);
+			fOut.append(c);
+			if (c == '\\' && fPos < fSrc.length()) {
+				fOut.append(fSrc.charAt(fPos++));
+			}
+			else if (c == quote) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies the text of a template-literal (after the backtick) unchanged, including its line-breaks and indentation.
+	 * The copy stops after the closing backtick or at the start of an expression.
+	 */
+	private void copyTemplate() {
+		final int lineStart = fLine;
+		while (true) {
+			if (fPos >= fSrc.length()) {
+				throw new IllegalStateException("Unclosed template-literal starting in line " + lineStart);
+			}
+			final char c = fSrc.charAt(fPos++);
+			fOut.append(c);
+			if (c == '\n') {
+				fLine++;
+			}
+			else if (c == '\\' && fPos < fSrc.length()) {
+				fOut.append(fSrc.charAt(fPos++));
+			}
+			else if (c == '`') {
+				return;
+			}
+			else if (c == '$' && fPos < fSrc.length() && fSrc.charAt(fPos) == '{') {
+				// The expression is code, its closing brace continues the template.
+				fOut.append('{');
+				fPos++;
+				fBrackets.push(Character.valueOf(TEMPLATE_EXPRESSION));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies a regular expression including its character-classes.
+	 */
+	private void copyRegExp() {
+		final int lineStart = fLine;
+		append('/');
+		fPos++;
+		boolean isClass = false;
+		while (true) {
+			if (fPos >= fSrc.length() || fSrc.charAt(fPos) == '\n') {
+				throw new IllegalStateException("Unclosed regular expression starting in line " + lineStart);
+			}
+			final char c = fSrc.charAt(fPos++);
+			fOut.append(c);
+			if (c == '\\' && fPos < fSrc.length()) {
+				fOut.append(fSrc.charAt(fPos++));
+			}
+			else if (c == '[') {
+				isClass = true;
+			}
+			else if (c == ']') {
+				isClass = false;
+			}
+			else if (c == '/' && !isClass) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Tracks the brackets of the code.
+	 * @param c current character
+	 * @throws IllegalStateException if a closing bracket doesn't match the open one
+	 */
+	private void checkBracket(final char c) {
+		if (c == '(' || c == '[' || c == '{') {
+			fBrackets.push(Character.valueOf(c));
+		}
+		else if (c == ')' || c == ']' || c == '}') {
+			final char cOpen = (c == ')') ? '(' : (c == ']') ? '[' : '{';
+			final Character cTop = fBrackets.poll();
+			if (cTop == null || cTop.charValue() != cOpen) {
+				throw new IllegalStateException(String.format("Unbalanced '%c' in line %d", Character.valueOf(c), Integer.valueOf(fLine)));
+			}
+		}
+	}
+
+	/**
+	 * Checks if a slash at the current position starts a regular expression (and isn't a division).
+	 * @return <code>true</code> if the previous token doesn't end an operand
+	 */
+	private boolean isRegExpAllowed() {
+		int i = fOut.length() - 1;
+		while (i >= 0 && Character.isWhitespace(fOut.charAt(i))) {
+			i--;
+		}
+		if (i < 0) {
+			return true;
+		}
+		final char cPrev = fOut.charAt(i);
+		if (CHARS_BEFORE_REGEXP.indexOf(cPrev) >= 0 || cPrev == '}') {
+			return true;
+		}
+		if (!Character.isJavaIdentifierPart(cPrev)) {
+			return false;
+		}
+		final int end = i + 1;
+		while (i >= 0 && Character.isJavaIdentifierPart(fOut.charAt(i))) {
+			i--;
+		}
+		return KEYWORDS_BEFORE_REGEXP.contains(fOut.substring(i + 1, end));
+	}
+
+}
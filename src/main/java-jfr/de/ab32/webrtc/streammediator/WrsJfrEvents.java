@@ -0,0 +1,231 @@
+package de.ab32.webrtc.streammediator;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight-recorder-events of the server.
+ * This class is loaded by {@link WrsEvents} only if the JVM supports JFR.
+ * It's compiled for Java 11 (jdk.jfr) separately from the rest of the server, which targets Java 8.
+ */
+final class WrsJfrEvents implements WrsEvents.Recorder {
+
+	/** category of the events */
+	private static final String CATEGORY = "WebRTC Signaling";
+
+	/**
+	 * Constructor, called by reflection.
+	 */
+	WrsJfrEvents() {
+		// no state, the events are the state
+	}
+
+	/**
+	 * Receive, parse and handling of a message.
+	 */
+	@Name("de.ab32.wrs.Message")
+	@Label("WRS Message")
+	@Category(CATEGORY)
+	@Description("Receive, parse and handling of a signaling-message")
+	@StackTrace(false)
+	static class MessageEvent extends Event {
+		@Label("Type")
+		String type;
+		@Label("Payload Size")
+		@DataAmount
+		int payloadSize;
+		@Label("Binary")
+		boolean binary;
+		@Label("Parse Duration (ns)")
+		long parseNanos;
+		@Label("Room")
+		@Description("anonymized session-id")
+		String room;
+	}
+
+	/**
+	 * Lookup of the peer of a routed message.
+	 */
+	@Name("de.ab32.wrs.Routing")
+	@Label("WRS Routing")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class RoutingEvent extends Event {
+		@Label("Type")
+		String type;
+		@Label("Room")
+		String room;
+		@Label("Peer Found")
+		boolean found;
+	}
+
+	/**
+	 * Send of a message from enqueue to completion.
+	 */
+	@Name("de.ab32.wrs.Send")
+	@Label("WRS Send")
+	@Category(CATEGORY)
+	@Description("Send of a message from enqueue to completion of the write")
+	@StackTrace(false)
+	static class SendEvent extends Event {
+		@Label("Payload Size")
+		@DataAmount
+		int payloadSize;
+		@Label("Binary")
+		boolean binary;
+		@Label("Success")
+		boolean success;
+	}
+
+	/**
+	 * Run of the clean-up.
+	 */
+	@Name("de.ab32.wrs.Cleanup")
+	@Label("WRS Cleanup")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class CleanupEvent extends Event {
+		@Label("Sessions")
+		int sessions;
+		@Label("Removed Sessions")
+		int removedSessions;
+		@Label("Websocket-Sessions")
+		int websocketSessions;
+		@Label("Removed Websocket-Sessions")
+		int removedWebsocketSessions;
+	}
+
+	/**
+	 * Login or relogin of a user.
+	 */
+	@Name("de.ab32.wrs.Login")
+	@Label("WRS Login")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class LoginEvent extends Event {
+		@Label("Type")
+		String type;
+		@Label("Room")
+		String room;
+		@Label("Replaced Session")
+		boolean replaced;
+	}
+
+	/**
+	 * Starts an event if it is enabled.
+	 * @param event new event
+	 * @return started event or <code>null</code>
+	 */
+	static Event begin(final Event event) {
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object beginMessage() {
+		return begin(new MessageEvent());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void commitMessage(final Object token, final String type, final int payloadSize, final boolean binary,
+			final long parseNanos, final String room) {
+		final MessageEvent event = (MessageEvent) token;
+		event.end();
+		if (event.shouldCommit()) {
+			event.type = type;
+			event.payloadSize = payloadSize;
+			event.binary = binary;
+			event.parseNanos = parseNanos;
+			event.room = WrsEvents.anonymize(room);
+			event.commit();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object beginRouting() {
+		return begin(new RoutingEvent());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void commitRouting(final Object token, final String type, final String room, final boolean found) {
+		final RoutingEvent event = (RoutingEvent) token;
+		event.end();
+		if (event.shouldCommit()) {
+			event.type = type;
+			event.room = WrsEvents.anonymize(room);
+			event.found = found;
+			event.commit();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object beginSend() {
+		return begin(new SendEvent());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void commitSend(final Object token, final int payloadSize, final boolean binary, final boolean success) {
+		final SendEvent event = (SendEvent) token;
+		event.end();
+		if (event.shouldCommit()) {
+			event.payloadSize = payloadSize;
+			event.binary = binary;
+			event.success = success;
+			event.commit();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object beginCleanup() {
+		return begin(new CleanupEvent());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void commitCleanup(final Object token, final int sessions, final int removedSessions,
+			final int websocketSessions, final int removedWebsocketSessions) {
+		final CleanupEvent event = (CleanupEvent) token;
+		event.end();
+		if (event.shouldCommit()) {
+			event.sessions = sessions;
+			event.removedSessions = removedSessions;
+			event.websocketSessions = websocketSessions;
+			event.removedWebsocketSessions = removedWebsocketSessions;
+			event.commit();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object beginLogin() {
+		return begin(new LoginEvent());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void commitLogin(final Object token, final String type, final String room, final boolean replaced) {
+		final LoginEvent event = (LoginEvent) token;
+		event.end();
+		if (event.shouldCommit()) {
+			event.type = type;
+			event.room = WrsEvents.anonymize(room);
+			event.replaced = replaced;
+			event.commit();
+		}
+	}
+}
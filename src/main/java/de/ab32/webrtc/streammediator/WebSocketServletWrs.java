@@ -1,18 +1,38 @@
 package de.ab32.webrtc.streammediator;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.websocket.api.extensions.Extension;
 import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 
 /**
  * Servlet to serve WebRTC-WebSocket.
+ * The tenant of a connection is resolved by host or path (/WebSocketServlet/&lt;path&gt;) at the upgrade, see {@link WrsTenant}.
  */
 public class WebSocketServletWrs extends WebSocketServlet {
 
 	/** Serialization-Id */
 	private static final long serialVersionUID = 20200418L;
+
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WebSocketServletWrs.class.getName());
+
+	/** name of the extension permessage-deflate */
+	private static final String EXTENSION_PERMESSAGE_DEFLATE = "permessage-deflate";
+
+	/** names of the compression-extensions */
+	private static final String[] EXTENSIONS_DEFLATE = { EXTENSION_PERMESSAGE_DEFLATE, "deflate-frame", "x-webkit-deflate-frame" };
+
+	/** class-name of the own permessage-deflate-extension */
+	private static final String CLASS_DEFLATE_EXTENSION = "de.ab32.webrtc.streammediator.WrsPerMessageDeflateExtension";
 	
 	/** {@inheritDoc} */
 	@Override
@@ -25,8 +45,113 @@ public class WebSocketServletWrs extends WebSocketServlet {
 			handlers[0].setFormatter(formatter);
 		}
 		
+		WrsConfiguration.startWatching();
+		configureCompression(factory);
+
 		// Register web-socket.
 		factory.register(WebSocketWrs.class);
+		WebSocketWrs.startHeartbeat();
+		WrsStunServer.start(WrsConfiguration.getInstance());
+		WrsMemoryBudget.register();
+
+		// The counts of the heavy hitters are halved at the end of each window.
+		final long windowMillis = Duration.from(WrsConfiguration.getInstance().getHeavyHitterWindow()).toMillis();
+		WrsDispatcher.getInstance().scheduleHousekeeping(WrsHeavyHitters::decayAll, windowMillis);
+
+		// The client chooses the encoding by subprotocol, JSON-text is the fallback.
+		factory.setCreator((request, response) -> {
+			if (!WrsMemoryBudget.admitConnect()) {
+				// The node is short of memory, the client may try later or another node.
+				try {
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Memory budget exhausted");
+				}
+				catch (IOException e) {
+					LOGGER.log(Level.FINE, "Rejection of a connect failed", e);
+				}
+				return null;
+			}
+			if (!WrsAdmissionControl.admitConnect()) {
+				// There is a standing queue of messages, the connections in progress are preferred.
+				try {
+					response.setHeader("Retry-After", Integer.toString(WrsAdmissionControl.getRetryAfterSeconds()));
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server overloaded");
+				}
+				catch (IOException e) {
+					LOGGER.log(Level.FINE, "Rejection of a connect failed", e);
+				}
+				return null;
+			}
+			final HttpServletRequest httpRequest = request.getHttpServletRequest();
+			final WrsTenant tenant = WrsTenant.resolve(WrsConfiguration.getInstance(),
+					httpRequest.getServerName(), httpRequest.getPathInfo());
+			if (!tenant.reserveConnect(WrsConfiguration.getInstance())) {
+				// The quota of the tenant is exhausted, the other tenants aren't affected.
+				try {
+					response.setHeader("Retry-After", Integer.toString(WrsAdmissionControl.getRetryAfterSeconds()));
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Connection quota exhausted");
+				}
+				catch (IOException e) {
+					LOGGER.log(Level.FINE, "Rejection of a connect failed", e);
+				}
+				return null;
+			}
+			// The reservation is handed to the connection, it's released at its close.
+			try {
+				if (WrsConfiguration.getInstance().isBinaryProtocol() && request.hasSubProtocol(WrsMsgPack.PROTOCOL_MSGPACK)) {
+					response.setAcceptedSubProtocol(WrsMsgPack.PROTOCOL_MSGPACK);
+				}
+				else if (request.hasSubProtocol(WrsMsgPack.PROTOCOL_JSON)) {
+					response.setAcceptedSubProtocol(WrsMsgPack.PROTOCOL_JSON);
+				}
+				return new WebSocketWrs(tenant, true);
+			}
+			catch (RuntimeException e) {
+				tenant.disconnected();
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Configures the compression of messages (permessage-deflate).
+	 * The extension of the container is replaced by {@link WrsPerMessageDeflateExtension}.
+	 * @param factory websocket-factory
+	 */
+	// Jetty 9.4 has no replacement of the deprecated extension-registry (the type is fully qualified, an import would warn on Java 8).
+	@SuppressWarnings("deprecation")
+	private static void configureCompression(final WebSocketServletFactory factory) {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		final org.eclipse.jetty.websocket.api.extensions.ExtensionFactory extensionFactory = factory.getExtensionFactory();
+		if (!config.isDeflate()) {
+			for (final String extensionName : EXTENSIONS_DEFLATE) {
+				extensionFactory.unregister(extensionName);
+			}
+			LOGGER.info("Compression of websocket-messages is disabled");
+			return;
+		}
+		try {
+			// The extension is loaded by name: The container may hide its implementation-classes.
+			final Class<? extends Extension> classExtension = Class.forName(CLASS_DEFLATE_EXTENSION)
+					.asSubclass(Extension.class);
+			extensionFactory.register(EXTENSION_PERMESSAGE_DEFLATE, classExtension);
+			LOGGER.info(String.format("Compression of websocket-messages: level=%d, contextTakeover=%s, minSize=%d",
+					Integer.valueOf(config.getDeflateLevel()), Boolean.toString(config.isDeflateContextTakeover()),
+					Integer.valueOf(config.getDeflateMinSize())));
+		}
+		catch (ClassNotFoundException | LinkageError | ClassCastException e) {
+			LOGGER.log(Level.WARNING, "The compression-policy isn't supported by the container, using its defaults", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void destroy() {
+		WrsDispatcher.shutdown();
+		WrsTraceRecorder.shutdown();
+		WrsStunServer.shutdown();
+		WrsMemoryBudget.unregister();
+		WrsConfiguration.stopWatching();
+		super.destroy();
 	}
 
 }
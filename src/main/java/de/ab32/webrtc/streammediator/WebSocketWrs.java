@@ -3,17 +3,29 @@ package de.ab32.webrtc.streammediator;
 import java.io.IOException;
 import java.io.StringReader;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -21,6 +33,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
@@ -30,9 +44,14 @@ import javax.json.JsonValue;
 
 import org.eclipse.jetty.websocket.api.CloseException;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.UpgradeResponse;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketFrame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 
@@ -56,35 +75,113 @@ public class WebSocketWrs {
 	/** Pattern User-Id (non-whitespace characters) */
 	private static final Pattern PATTERN_NAME = Pattern.compile("[^\u0000-\u001f\u0085'\"„“]{1,40}");
 
+	/** maximal length of a received message */
+	private static final int MAX_MESSAGE_LENGTH = 16384;
+
+	/** maximal number of reports in a message of type stats */
+	private static final int MAX_STATS_REPORTS = 16;
+
 	/** statistic-keys */
-	private static final String[] STATISTIC_KEYS = { "connect", "close", "error", "message",
-			"login", "relogin", "requestCall", "rejectCall", "offer", "answer", "candidate", "dictionary", "leave", "logout" };
+	static final String[] STATISTIC_KEYS = { "connect", "close", "error", "message",
+			"login", "relogin", "requestCall", "rejectCall", "offer", "answer", "candidate", "dictionary", "leave", "logout", "broadcast", "evicted", "candidateDropped", "throttled",
+			"resumed", "resumeRejected", "queued", "queueDropped", "flushed", "duplicate", "connected", "stats", "candidateShed", "callDeferred", "loginRejected", "queueOverflow", "budgetRefused" };
 	
-	/** Map User#Session-Id to WebSocket-Session */	
-	private static final ConcurrentMap<String, WrsWebsocketSession> MAP_WEBSOCKET_SESSIONS = new ConcurrentHashMap<String, WrsWebsocketSession>(200);
+	/** time in which a reserved connection has to be opened, otherwise its upgrade has failed */
+	private static final long UPGRADE_TIMEOUT_MILLIS = 30000;
+
+	/** random-generator of session-ids */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** Map websocket-session to its heartbeat (pings without pong, queue of the connection) */
+	private static final ConcurrentMap<Session, Heartbeat> MAP_HEARTBEAT = new ConcurrentHashMap<>(200);
+
+	/** current heartbeat-task */
+	private static final AtomicReference<ScheduledFuture<?>> HEARTBEAT_TASK = new AtomicReference<>();
+
+	/** <code>true</code> if the heartbeat listens to changes of the configuration */
+	private static final AtomicBoolean IS_HEARTBEAT_LISTENER = new AtomicBoolean();
 
-	/** Map Session-Id to WRS-Session */
-	private static final ConcurrentMap<String, WrsSession> MAP_SESSIONS = new ConcurrentHashMap<>(100);
-	
-	/** Map from message-type to count */
-	private static final ConcurrentMap<String, AtomicLong> MAP_STATISTICS = new ConcurrentHashMap<>(5);
-	
-	/** time of last cleanup */
-	private static final AtomicReference<Instant> TS_LAST_CLEANUP = new AtomicReference<>(Instant.now());
-	
 	/** time of last statistics-dump */
 	private static final AtomicReference<Instant> TS_LAST_STATISTICS = new AtomicReference<>(Instant.now());
 	
-	/** current server-configuration */
-	private final WrsConfiguration fConfig = WrsConfiguration.getInstance();
+	/** tenant of this connection (registries, statistics and quotas) */
+	private final WrsTenant fTenant;
+
+	/** <code>true</code> while this connection is counted as open (or reserved) connection of its tenant */
+	private final AtomicBoolean fIsConnected;
+
+	/** <code>true</code> if the websocket-session has been opened */
+	private volatile boolean fIsOpened;
+
+	/** current server-configuration, refreshed at each event of the connection */
+	private WrsConfiguration fConfig = WrsConfiguration.getInstance();
+
+	/** session-id (room) of the last login of this connection */
+	private volatile String fRoomId;
+
+	/** users registered by this connection, they are released at a clean close */
+	private final Set<WrsWebsocketSession> fUsers = ConcurrentHashMap.newKeySet();
+
+	/** queue of the events of this connection, they are handled outside of jetty's I/O-thread */
+	private final WrsDispatcher.ConnectionQueue fQueue = WrsDispatcher.getInstance().createConnectionQueue(() -> fRoomId);
+
+	/** anonymized remote-address of this connection (heavy-hitter-tracking) */
+	private String fAddressKey;
 
-	static {
-		LOGGER.info("init statistics");
-		for (final String statKey : STATISTIC_KEYS) {
-			MAP_STATISTICS.put(statKey, new AtomicLong());
+	/** <code>true</code> while messages of this connection are throttled */
+	private boolean fIsThrottled;
+
+	/** sequence-numbers received in this connection (duplicate resends of the client) */
+	private final WrsSeqWindow fSeqWindow = new WrsSeqWindow();
+
+	/** recorder of inbound messages (null if disabled) */
+	private final WrsTraceRecorder fTraceRecorder = WrsTraceRecorder.getInstance();
+
+	/** in-memory ring of recent signaling-events (null if disabled) */
+	private final WrsEventRing fEventRing = WrsEventRing.getInstance();
+
+	/** anonymous id of this connection in trace-files and the event-ring */
+	private final int fTraceId = (fTraceRecorder != null || fEventRing != null) ? WrsTraceRecorder.nextConnectionId() : 0;
+
+	/**
+	 * Constructor of a connection of the default-tenant.
+	 */
+	public WebSocketWrs() {
+		this(WrsTenant.getDefault());
+	}
+
+	/**
+	 * Constructor
+	 * @param tenant tenant of the connection
+	 */
+	public WebSocketWrs(final WrsTenant tenant) {
+		this(tenant, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param tenant tenant of the connection
+	 * @param isReserved <code>true</code> if the connection has been reserved at the upgrade, see {@link WrsTenant#reserveConnect(WrsConfiguration)}
+	 */
+	WebSocketWrs(final WrsTenant tenant, final boolean isReserved) {
+		fTenant = tenant;
+		fIsConnected = new AtomicBoolean(isReserved);
+		if (isReserved) {
+			// A failed upgrade doesn't open or close the connection.
+			WrsDispatcher.getInstance().scheduleHousekeepingOnce(this::releaseUnopened, UPGRADE_TIMEOUT_MILLIS);
 		}
 	}
-	
+
+	/**
+	 * Releases the reservation of a connection which hasn't been opened after its upgrade.
+	 */
+	private void releaseUnopened() {
+		if (!fIsOpened && fIsConnected.compareAndSet(true, false)) {
+			fTenant.disconnected();
+			LOGGER.info(String.format("Released the reservation of an unopened connection of tenant %s", fTenant.getName()));
+		}
+	}
+
 	/**
 	 * Key and JSON-Value.
 	 */
@@ -105,10 +202,63 @@ public class WebSocketWrs {
 
 	@OnWebSocketClose
 	public void onClose(final Session session, final int statusCode, final String reason) {
+		if (fTraceRecorder != null) {
+			fTraceRecorder.recordClose(fTraceId);
+		}
+		if (fIsConnected.compareAndSet(true, false)) {
+			fTenant.disconnected();
+		}
+		if (statusCode == StatusCode.NORMAL || statusCode == StatusCode.SHUTDOWN) {
+			// Messages to the users of this connection aren't kept any more until their release.
+			for (final WrsWebsocketSession wrsSession : fUsers) {
+				wrsSession.markClosedByClient(session);
+			}
+		}
+		// The close is handled after the pending messages of the connection.
+		fQueue.execute(() -> handleClose(session, statusCode, reason));
+	}
+
+	/**
+	 * Handles the close of a websocket-session.
+	 * @param session WebSocket-session
+	 * @param statusCode status-code
+	 * @param reason reason
+	 */
+	private void handleClose(final Session session, final int statusCode, final String reason) {
 		updateStatistics("close");
+		recordEvent(WrsEventRing.KIND_CLOSE, null, WrsEventRing.OUTCOME_OK, null, statusCode);
+		MAP_HEARTBEAT.remove(session);
 		LOGGER.info(String.format("onClose: session=%s, rc=%d, reason=%s",
 				printSession(session),
 				Integer.valueOf(statusCode), reason));
+		if (statusCode == StatusCode.NORMAL || statusCode == StatusCode.SHUTDOWN) {
+			// The client has closed on purpose (e.g. a reload of the page), it doesn't reconnect.
+			releaseUsers(session);
+		}
+	}
+
+	/**
+	 * Releases the names of the users registered by a closed websocket-session.
+	 * A user bound to an other websocket-session in between (resume or login with token) is kept.
+	 * @param session closed websocket-session
+	 */
+	private void releaseUsers(final Session session) {
+		for (final WrsWebsocketSession wrsSession : fUsers) {
+			final String userKey = wrsSession.getUserKey();
+			final String key = (userKey + "#" + wrsSession.getRoomId());
+			// Like putSession under the lock of the room's entry, an emptied room is removed.
+			fTenant.fMapSessions.computeIfPresent(wrsSession.getRoomId(), (k, wrsSessionRoom) -> {
+				if (wrsSession.getSession() == session && fTenant.fMapWebsocketSessions.remove(key, wrsSession)) {
+					wrsSessionRoom.removeMember(userKey, wrsSession);
+					if (LOGGER.isLoggable(Level.FINE)) {
+						LOGGER.fine(String.format("Released user %s after close of %s",
+								getShortName(userKey), printSession(session)));
+					}
+				}
+				return wrsSessionRoom.getMembers().isEmpty() ? null : wrsSessionRoom;
+			});
+		}
+		fUsers.clear();
 	}
 
 	@OnWebSocketError
@@ -128,27 +278,69 @@ public class WebSocketWrs {
 					eCause.getMessage()));
 		}
 		else {
-			LOGGER.log(Level.SEVERE,
-					String.format("WebSocketError in Session %s",
-							printSession(session)), t);
+			WrsErrorLog.error("websocket", null, t, () -> "in session " + printSession(session));
 		}
 	}
 	
+	/**
+	 * Receives control-frames, a pong is the answer of the client to the heartbeat.
+	 * @param session WebSocket-session
+	 * @param frame frame
+	 */
+	@OnWebSocketFrame
+	public void onFrame(final Session session, final Frame frame) {
+		if (frame.getType() == Frame.Type.PONG) {
+			final Heartbeat heartbeat = MAP_HEARTBEAT.get(session);
+			if (heartbeat != null) {
+				heartbeat.fMissed.set(0);
+			}
+		}
+	}
+
 	@OnWebSocketConnect
 	public void onConnect(final Session session) {
+		if (fTraceRecorder != null) {
+			final UpgradeResponse response = session.getUpgradeResponse();
+			fTraceRecorder.recordConnect(fTraceId, (response != null) ? response.getAcceptedSubProtocol() : null);
+		}
+		fIsOpened = true;
+		if (fIsConnected.compareAndSet(false, true)) {
+			fTenant.connected();
+		}
+		recordEvent(WrsEventRing.KIND_CONNECT, null, WrsEventRing.OUTCOME_OK, null, 0);
+		// The pings of the heartbeat are sent via the queue of this connection.
+		MAP_HEARTBEAT.put(session, new Heartbeat(fQueue));
+		fQueue.execute(() -> handleConnect(session));
+	}
+
+	/**
+	 * Handles a new websocket-session.
+	 * @param session WebSocket-session
+	 */
+	private void handleConnect(final Session session) {
+		fConfig = WrsConfiguration.getInstance();
 		updateStatistics("connect");
 		LOGGER.info(String.format("onConnect: session=%s", printSession(session)));
-		String sessionId = searchFreeSession();
+		// The node may have become overloaded since the upgrade of the connection.
+		String sessionId = WrsAdmissionControl.admitConnect() ? searchFreeSession() : null;
 		if (sessionId != null) {
-			sendeAntwort(session, "connect", true, "session", sessionId,
-					"msg", ct("Anmeldung mit einem Namen oder Pseudonym zusammen mit gemeinsamen Session-Namen."));
+			final JsonArrayBuilder iceServers = Json.createArrayBuilder();
+			for (final String url : fConfig.getIceServers()) {
+				iceServers.add(url);
+			}
+			sendeAntwort(session, "connect", true,
+					new JsonKeyValue("session", sessionId),
+					new JsonKeyValue("msg", ct("Anmeldung mit einem Namen oder Pseudonym zusammen mit gemeinsamen Session-Namen.")),
+					new JsonKeyValue("iceServers", iceServers.build()));
 			
 			// Sets the idle-timeout of the websocket-session.
 			long idleTimeoutSecs = fConfig.getWebSocketIdleTimeout().get(ChronoUnit.SECONDS);
 			session.setIdleTimeout(idleTimeoutSecs * 1000);
 		}
 		else {
-			sendeAntwort(session, "connect", false, "msg", "Der Server ist derzeitig überlastet. Bitte versuche es später nochmal.");
+			sendeAntwort(session, "connect", false,
+					new JsonKeyValue("msg", ct("Der Server ist derzeitig überlastet. Bitte versuche es später nochmal.")),
+					new JsonKeyValue("retryAfter", Integer.valueOf(WrsAdmissionControl.getRetryAfterSeconds())));
 			session.close();
 		}
 		doCleanup();
@@ -156,7 +348,45 @@ public class WebSocketWrs {
 
 	@OnWebSocketMessage
 	public void onMessage(final Session session, final String msg) {
+		if (fTraceRecorder != null) {
+			fTraceRecorder.recordText(fTraceId, msg);
+		}
+		// The message is in-flight until it has been handled.
+		if (!WrsMemoryBudget.acquireReceive(msg.length())) {
+			handleBudgetExhausted(session, WrsEventRing.KIND_IN_TEXT, msg.length());
+			return;
+		}
+		final long tsQueued = System.nanoTime();
+		final boolean isQueued = fQueue.offer(() -> {
+			final long tsStart = System.nanoTime();
+			try {
+				handleTextMessage(session, msg);
+			}
+			finally {
+				WrsMemoryBudget.release(msg.length());
+				final long handlingNanos = System.nanoTime() - tsStart;
+				WrsAdmissionControl.record(tsStart - tsQueued, handlingNanos);
+				fTenant.recordHandling(handlingNanos);
+			}
+		}, msg.length());
+		if (!isQueued) {
+			WrsMemoryBudget.release(msg.length());
+			handleQueueOverflow(session, WrsEventRing.KIND_IN_TEXT, msg.length());
+		}
+	}
+
+	/**
+	 * Handles a text-message (JSON).
+	 * @param session WebSocket-session
+	 * @param msg message
+	 */
+	private void handleTextMessage(final Session session, final String msg) {
+		refreshConfig(session);
 		updateStatistics("message");
+		if (isThrottled(session, msg.length())) {
+			recordEvent(WrsEventRing.KIND_IN_TEXT, null, WrsEventRing.OUTCOME_THROTTLED, null, msg.length());
+			return;
+		}
 		// Bsp.: {"type":"login","name":"SR1"}
 		// Bsp.: {"type":"offer","offer":{"type":"offer","sdp":"v=0\r\no=mozilla...THIS_IS_SDPARTA-68.7.0 4645867096550263642 0 IN IP4 0.0.0.0\r\ns=-\r\nt=0 0\r\na=fingerprint:sha-256 6D:E7:B1:53:9C:A1:A0:19:C4:49:3C:8C:7A:27:36:97:33:C4:3F:6F:F4:17:5C:CF:FD:F5:D9:EF:B2:93:E6:51\r\na=ice-options:trickle\r\na=msid-semantic:WMS *\r\n"},"name":"VR1","session":"SR1"}
 		//
@@ -169,154 +399,397 @@ public class WebSocketWrs {
 		// * a=msid-semantic:WMS *
 		//
 		// o=<username> <sess-id> <sess-version> <nettype> <addrtype> <unicast-address>
+		final Object event = WrsEvents.beginMessage();
+		final long tsStart = (event != null) ? System.nanoTime() : 0;
+		long parseNanos = 0;
+		JsonObject json = null;
+		boolean isError = false;
 		try {
-			if (msg.length() > 16384) {
+			if (msg.length() > MAX_MESSAGE_LENGTH) {
 				throw new IllegalArgumentException("Message too long: " + msg.length());
 			}
-			final JsonObject json;
 			try (final JsonReader reader = Json.createReader(new StringReader(msg))) {
 				json = reader.readObject();
 			}
-			final String type = json.getString("type");
-			updateStatistics("type");
-			final String name = getJsonName(json, "name");
-			if (name == null && !"dictionary".equals(type)) {
-				throw new IllegalArgumentException("The necessary attribute 'name' is missing.");
-			}
-			final String peerName = getJsonName(json, "peer");
-			final String sessionId;
-			{
-				// We want a lower-case session-id.
-				final String rawSessionId = getJsonName(json, "session");
-				sessionId = (rawSessionId != null) ? rawSessionId.toLowerCase(fConfig.getLocale()) : null;
-			}
-			final Integer boxType = getJsonInteger(json, "boxType");
-			final Integer localNr = getJsonInteger(json, "localNr");
-			final Integer peerNr = getJsonInteger(json, "peerNr");
-			if (LOGGER.isLoggable(Level.INFO)) {
-				LOGGER.info(String.format("onMessage: session=%s, type=%s, session=%s, name=%s, nr=%s, peer=%s, peerNr=%s, boxType=%s",
-						printSession(session), type,
-						sessionId, getShortName(name), localNr, getShortName(peerName), peerNr,
-						boxType));
-			}
-			if ("login".equals(type)) {
-				handleLogin(session, type, name, sessionId, boxType, localNr);
-			}
-			else if ("relogin".equals(type)) {
-				handleRelogin(session, type, name, sessionId);
-			}
-			else if ("requestCall".equals(type)) {
-				final JsonObject nullObj = null;
-				handleRouting(session, type, nullObj, name, localNr, peerName, peerNr, sessionId, boxType);
-			}
-			else if ("rejectCall".equals(type)) {
-				final JsonObject nullObj = null;
-				handleRouting(session, type, nullObj, name, localNr, peerName, peerNr, sessionId, boxType);
-			}
-			else if ("offer".equals(type)) {
-				final JsonObject offer = json.getJsonObject("offer");
-				handleRouting(session, type, offer, name, localNr, peerName, peerNr, sessionId, boxType);
-			}
-			else if ("answer".equals(type)) {
-				final JsonObject answer = json.getJsonObject("answer");
-				handleRouting(session, type, answer, name, localNr, peerName, peerNr, sessionId, boxType);
-			}
-			else if ("candidate".equals(type)) {
-				final JsonObject candidate = json.getJsonObject("candidate");
-				handleRouting(session, type, candidate, name, localNr, peerName, peerNr, sessionId, boxType);
-			}
-			else if ("dictionary".equals(type)) {
-				final String lang = getJsonName(json, "lang");
-				handleSendDictionary(session, type, name, lang, sessionId);
-			}
-			else if ("leave".equals(type)) {
-				final JsonObject nullObj = null;
-				handleRouting(session, type, nullObj, name, localNr, peerName, peerNr, sessionId, boxType);
-			}
-			else if ("logout".equals(type)) {
-				handleLogout(session, type, name, sessionId);
+			parseNanos = (event != null) ? System.nanoTime() - tsStart : 0;
+			handleMessage(session, json);
+		}
+		catch (final Throwable e) {
+			isError = true;
+			handleMessageError(session, e, (json != null) ? json.getString("type", null) : null, msg, msg.length());
+		}
+		final String type = (json != null) ? json.getString("type", null) : null;
+		recordEvent(WrsEventRing.KIND_IN_TEXT, type, isError ? WrsEventRing.OUTCOME_ERROR : WrsEventRing.OUTCOME_OK,
+				(json != null) ? json.getString("name", null) : null, msg.length());
+		if (event != null) {
+			WrsEvents.commitMessage(event, type, msg.length(), false, parseNanos, fRoomId);
+		}
+		doCleanup();
+		doStatistics();
+	}
+
+	/**
+	 * Receives a binary message (see {@link WrsMsgPack}).
+	 * @param session WebSocket-session
+	 * @param buf buffer
+	 * @param offset offset of the message
+	 * @param length length of the message
+	 */
+	@OnWebSocketMessage
+	public void onMessage(final Session session, final byte[] buf, final int offset, final int length) {
+		if (fTraceRecorder != null) {
+			fTraceRecorder.recordBinary(fTraceId, buf, offset, length);
+		}
+		if (!WrsMemoryBudget.acquireReceive(length)) {
+			handleBudgetExhausted(session, WrsEventRing.KIND_IN_BINARY, length);
+			return;
+		}
+		// jetty may reuse the buffer after the return of this method.
+		final byte[] message = Arrays.copyOfRange(buf, offset, offset + length);
+		final long tsQueued = System.nanoTime();
+		final boolean isQueued = fQueue.offer(() -> {
+			final long tsStart = System.nanoTime();
+			try {
+				handleBinaryMessage(session, message, 0, length);
 			}
-			else {
-				LOGGER.severe("Unexpected type: " + type);
-				sendeAntwort(session, type, false, "msg", ct("Unerwarteter Typ"));
+			finally {
+				WrsMemoryBudget.release(length);
+				final long handlingNanos = System.nanoTime() - tsStart;
+				WrsAdmissionControl.record(tsStart - tsQueued, handlingNanos);
+				fTenant.recordHandling(handlingNanos);
 			}
+		}, length);
+		if (!isQueued) {
+			WrsMemoryBudget.release(length);
+			handleQueueOverflow(session, WrsEventRing.KIND_IN_BINARY, length);
 		}
-		catch (final IllegalArgumentException e) {
-			String msgAnzeige;
-			if (msg.length() > 1024) {
-				msgAnzeige = msg.substring(0, 1024) + "[...]";
-			}
-			else {
-				msgAnzeige = msg;
+	}
+
+	/**
+	 * Closes a connection asking for a buffer when the memory-budget is exhausted.
+	 * The message is dropped, the client may reconnect later. Called in jetty's thread.
+	 * @param session WebSocket-session
+	 * @param kind kind of the refused message in the event-ring
+	 * @param length length of the refused message
+	 */
+	private void handleBudgetExhausted(final Session session, final byte kind, final int length) {
+		updateStatistics("budgetRefused");
+		recordEvent(kind, null, WrsEventRing.OUTCOME_THROTTLED, null, length);
+		if (session.isOpen()) {
+			LOGGER.warning(String.format("Memory-budget exhausted, the connection of session %s is closed", printSession(session)));
+			session.close(StatusCode.TRY_AGAIN_LATER, "Server short of memory");
+		}
+	}
+
+	/**
+	 * Closes a connection whose queue of received messages is full.
+	 * Without jetty's read-backpressure a flooding client would queue an unlimited number of messages.
+	 * Called in jetty's thread.
+	 * @param session WebSocket-session
+	 * @param kind kind of the refused message in the event-ring
+	 * @param length length of the refused message
+	 */
+	private void handleQueueOverflow(final Session session, final byte kind, final int length) {
+		updateStatistics("queueOverflow");
+		recordEvent(kind, null, WrsEventRing.OUTCOME_THROTTLED, null, length);
+		if (session.isOpen()) {
+			LOGGER.warning(String.format("Queue of session %s is full, the connection is closed", printSession(session)));
+			session.close(StatusCode.POLICY_VIOLATION, "Too many pending messages");
+		}
+	}
+
+	/**
+	 * Handles a binary message.
+	 * @param session WebSocket-session
+	 * @param buf buffer
+	 * @param offset offset of the message
+	 * @param length length of the message
+	 */
+	private void handleBinaryMessage(final Session session, final byte[] buf, final int offset, final int length) {
+		refreshConfig(session);
+		updateStatistics("message");
+		if (isThrottled(session, length)) {
+			recordEvent(WrsEventRing.KIND_IN_BINARY, null, WrsEventRing.OUTCOME_THROTTLED, null, length);
+			return;
+		}
+		final Object event = WrsEvents.beginMessage();
+		final long tsStart = (event != null) ? System.nanoTime() : 0;
+		long parseNanos = 0;
+		JsonObject json = null;
+		boolean isError = false;
+		try {
+			if (length > MAX_MESSAGE_LENGTH) {
+				throw new IllegalArgumentException("Binary message too long: " + length);
 			}
-			LOGGER.log(Level.SEVERE, String.format("Illegal argument while processing message \"%s\" with length %d",
-					msgAnzeige, Integer.valueOf(msg.length())), e);
-			sendeAntwort(session, "error", false, "msg", ct("Der Server konnte Argumente des Requests nicht erfolgreich verarbeiten."));
+			json = WrsMsgPack.decode(buf, offset, length);
+			parseNanos = (event != null) ? System.nanoTime() - tsStart : 0;
+			handleMessage(session, json);
 		}
 		catch (final Throwable e) {
-			String msgAnzeige;
-			if (msg.length() > 1024) {
-				msgAnzeige = msg.substring(0, 1024) + "[...]";
+			isError = true;
+			handleMessageError(session, e, (json != null) ? json.getString("type", null) : null,
+					(json != null) ? json.toString() : "#binary#", length);
+		}
+		final String type = (json != null) ? json.getString("type", null) : null;
+		recordEvent(WrsEventRing.KIND_IN_BINARY, type, isError ? WrsEventRing.OUTCOME_ERROR : WrsEventRing.OUTCOME_OK,
+				(json != null) ? json.getString("name", null) : null, length);
+		if (event != null) {
+			WrsEvents.commitMessage(event, type, length, true, parseNanos, fRoomId);
+		}
+		doCleanup();
+		doStatistics();
+	}
+
+	/**
+	 * Takes over a changed server-configuration before handling a message.
+	 * @param session WebSocket-session
+	 */
+	private void refreshConfig(final Session session) {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		if (config != fConfig) {
+			fConfig = config;
+			final long idleTimeoutSecs = config.getWebSocketIdleTimeout().get(ChronoUnit.SECONDS);
+			session.setIdleTimeout(idleTimeoutSecs * 1000);
+		}
+	}
+
+	/**
+	 * Counts a message in the heavy-hitter-trackers and checks the throttling-limits and the quotas of the tenant.
+	 * The client gets a response when the throttling starts, the following messages are dropped silently.
+	 * @param session WebSocket-session
+	 * @param length length of the message
+	 * @return <code>true</code> if the message should be dropped
+	 */
+	private boolean isThrottled(final Session session, final int length) {
+		if (fAddressKey == null) {
+			final InetSocketAddress isa = session.getRemoteAddress();
+			fAddressKey = WrsEvents.anonymize((isa != null && isa.getAddress() != null)
+					? isa.getAddress().getHostAddress() : "?");
+		}
+		final long numAddress = WrsHeavyHitters.ADDRESS_MESSAGES.add(fAddressKey, 1);
+		WrsHeavyHitters.ADDRESS_BYTES.add(fAddressKey, length);
+		final String roomId = fRoomId;
+		long numRoom = 0;
+		if (roomId != null) {
+			numRoom = WrsHeavyHitters.ROOM_MESSAGES.add(roomId, 1);
+			WrsHeavyHitters.ROOM_BYTES.add(roomId, length);
+		}
+		final int maxAddress = fConfig.getThrottleAddressMessages();
+		final int maxRoom = fConfig.getThrottleRoomMessages();
+		// The quotas of the tenant are checked last, a message throttled already isn't counted.
+		final boolean isThrottled = (maxAddress > 0 && numAddress > maxAddress) || (maxRoom > 0 && numRoom > maxRoom)
+				|| !fTenant.admitMessage(fConfig);
+		if (isThrottled) {
+			updateStatistics("throttled");
+			if (!fIsThrottled) {
+				LOGGER.warning(String.format("Throttling session %s: #messagesAddress=%d, #messagesRoom=%d, tenant=%s",
+						printSession(session), Long.valueOf(numAddress), Long.valueOf(numRoom), fTenant.getName()));
+				sendeAntwort(session, "throttled", false, "msg", ct("Zu viele Nachrichten. Bitte etwas später nochmal versuchen."));
+			}
+		}
+		fIsThrottled = isThrottled;
+		return isThrottled;
+	}
+
+	/**
+	 * Handles a message of a client.
+	 * @param session WebSocket-session
+	 * @param json message
+	 */
+	private void handleMessage(final Session session, final JsonObject json) {
+		final String type = json.getString("type");
+		updateStatistics("type");
+		final Integer seq = getJsonInteger(json, "seq");
+		if (seq != null && !fSeqWindow.mark(seq.longValue())) {
+			// The client has sent this message again after a reconnect.
+			updateStatistics("duplicate");
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(String.format("Duplicate message: session=%s, type=%s, seq=%s", printSession(session), type, seq));
+			}
+			sendeAntwort(session, "ack", true, new JsonKeyValue("ackType", type), new JsonKeyValue("seq", seq));
+			return;
+		}
+		final String name = getJsonName(json, "name");
+		if (name == null && !"dictionary".equals(type)) {
+			throw new IllegalArgumentException("The necessary attribute 'name' is missing.");
+		}
+		final String peerName = getJsonName(json, "peer");
+		final String sessionId;
+		{
+			// We want a lower-case session-id.
+			final String rawSessionId = getJsonName(json, "session");
+			sessionId = (rawSessionId != null) ? rawSessionId.toLowerCase(fConfig.getLocale()) : null;
+		}
+		final Integer boxType = getJsonInteger(json, "boxType");
+		final Integer localNr = getJsonInteger(json, "localNr");
+		final Integer peerNr = getJsonInteger(json, "peerNr");
+		final String callId = getJsonName(json, "callId");
+		if (LOGGER.isLoggable(Level.INFO)) {
+			LOGGER.info(String.format("onMessage: session=%s, type=%s, session=%s, name=%s, nr=%s, peer=%s, peerNr=%s, boxType=%s",
+					printSession(session), type,
+					sessionId, getShortName(name), localNr, getShortName(peerName), peerNr,
+					boxType));
+		}
+		if ("login".equals(type)) {
+			handleLogin(session, type, name, sessionId, boxType, localNr, getJsonName(json, "resumeToken"));
+		}
+		else if ("relogin".equals(type)) {
+			handleRelogin(session, type, name, sessionId, getJsonName(json, "resumeToken"));
+		}
+		else if ("requestCall".equals(type) && !WrsAdmissionControl.admitCall()) {
+			// The node is saturated: The calls in progress are preferred to new calls.
+			updateStatistics("callDeferred");
+			sendeAntwort(session, type, false,
+					new JsonKeyValue("msg", ct("Der Server ist derzeitig überlastet. Bitte versuche es später nochmal.")),
+					new JsonKeyValue("peer", peerName),
+					new JsonKeyValue("retryAfter", Integer.valueOf(WrsAdmissionControl.getRetryAfterSeconds())));
+		}
+		else if ("requestCall".equals(type)) {
+			final JsonObject nullObj = null;
+			clearCandidates(session, name, localNr, peerName, peerNr, sessionId);
+			handleRouting(session, type, nullObj, name, localNr, peerName, peerNr, sessionId, boxType, callId);
+		}
+		else if ("rejectCall".equals(type)) {
+			final JsonObject nullObj = null;
+			handleRouting(session, type, nullObj, name, localNr, peerName, peerNr, sessionId, boxType, callId);
+		}
+		else if ("offer".equals(type)) {
+			final JsonObject offer = json.getJsonObject("offer");
+			handleRouting(session, type, offer, name, localNr, peerName, peerNr, sessionId, boxType, callId);
+		}
+		else if ("answer".equals(type)) {
+			final JsonObject answer = json.getJsonObject("answer");
+			handleRouting(session, type, answer, name, localNr, peerName, peerNr, sessionId, boxType, callId);
+		}
+		else if ("candidate".equals(type)) {
+			final JsonObject candidate = json.getJsonObject("candidate");
+			if (WrsMemoryBudget.shedCandidate()) {
+				// Graceful degradation: The node is short of memory.
+				updateStatistics("candidateShed");
+			}
+			else if (isCandidateRelayed(session, name, localNr, peerName, peerNr, sessionId, candidate)) {
+				handleRouting(session, type, candidate, name, localNr, peerName, peerNr, sessionId, boxType, callId);
 			}
 			else {
-				msgAnzeige = msg;
+				updateStatistics("candidateDropped");
 			}
-			LOGGER.log(Level.SEVERE, String.format("Exception while processing the message \"%s\" with length %d",
-					msgAnzeige, Integer.valueOf(msg.length())), e);
+		}
+		else if ("dictionary".equals(type)) {
+			final String lang = getJsonName(json, "lang");
+			handleSendDictionary(session, type, name, lang, sessionId);
+		}
+		else if ("leave".equals(type)) {
+			final JsonObject nullObj = null;
+			clearCandidates(session, name, localNr, peerName, peerNr, sessionId);
+			handleRouting(session, type, nullObj, name, localNr, peerName, peerNr, sessionId, boxType, callId);
+		}
+		else if ("logout".equals(type)) {
+			handleLogout(session, type, name, sessionId);
+		}
+		else if ("broadcast".equals(type)) {
+			final JsonObject data = json.getJsonObject("data");
+			handleBroadcast(session, type, data, name, sessionId);
+		}
+		else if ("stats".equals(type)) {
+			handleStats(session, name, sessionId, json.get("reports"));
+		}
+		else if ("connected".equals(type)) {
+			// Report of the client after the establishment of the RTC-connection, there is no response.
+			if (WrsCallTracker.recordConnected(callId)) {
+				updateStatistics("connected");
+			}
+		}
+		else {
+			WrsErrorLog.error("message", type, null, () -> "unexpected type in session " + printSession(session));
+			sendeAntwort(session, type, false, "msg", ct("Unerwarteter Typ"));
+		}
+	}
+
+	/**
+	 * Logs an error while processing a message and sends an error-response.
+	 * The error is logged rate-limited, see {@link WrsErrorLog}.
+	 * @param session WebSocket-session
+	 * @param e exception
+	 * @param type type of the message or <code>null</code> if the message couldn't be parsed
+	 * @param msg message (text or decoded binary message)
+	 * @param length length of the received message
+	 */
+	private void handleMessageError(final Session session, final Throwable e, final String type, final String msg, final int length) {
+		WrsErrorLog.error("message", type, e, () -> String.format("while processing the message \"%s\" with length %d",
+				WrsErrorLog.shorten(msg), Integer.valueOf(length)));
+		if (e instanceof IllegalArgumentException) {
+			sendeAntwort(session, "error", false, "msg", ct("Der Server konnte Argumente des Requests nicht erfolgreich verarbeiten."));
+		}
+		else {
 			sendeAntwort(session, "error", false, "msg", ct("Der Server konnte den Request nicht erfolgreich verarbeiten."));
 		}
-		doCleanup();
-		doStatistics();
 	}
 
 	/**
 	 * Removes old entries.
 	 */
 	private void doCleanup() {
+		final Instant tsNow = Instant.now();
+		final Instant tsMaxCleanfree = tsNow.minus(fConfig.getCleanupInterval());
+		// If tsLastUpdate ist before tsMaxCleanfree we should do an clean-up.
+		final Instant tsLastUpdate = fTenant.fTsLastCleanup.getAndUpdate(tsLast ->
+			(tsLast.isBefore(tsMaxCleanfree)) ? tsNow : tsLast);
+		if (tsLastUpdate.isBefore(tsMaxCleanfree)) {
+			// The clean-up mustn't delay the handling of messages.
+			final WrsConfiguration config = fConfig;
+			final WrsTenant tenant = fTenant;
+			WrsDispatcher.getInstance().executeHousekeeping(() -> cleanup(tenant, config, tsNow, tsLastUpdate));
+		}
+	}
+
+	/**
+	 * Removes old entries of a tenant, called in the housekeeping-thread (and by the stress-test).
+	 * @param tenant tenant
+	 * @param config current configuration
+	 * @param tsNow start of the clean-up
+	 * @param tsLastUpdate time of the previous clean-up
+	 */
+	static void cleanup(final WrsTenant tenant, final WrsConfiguration config, final Instant tsNow, final Instant tsLastUpdate) {
+		final Object event = WrsEvents.beginCleanup();
 		try {
-			final Instant tsNow = Instant.now();
-			final Instant tsMaxCleanfree = tsNow.minus(fConfig.getCleanupInterval());
-			// If tsLastUpdate ist before tsMaxCleanfree we should do an clean-up.
-			final Instant tsLastUpdate = TS_LAST_CLEANUP.getAndUpdate(tsLast ->
-				(tsLast.isBefore(tsMaxCleanfree)) ? tsNow : tsLast);
-			if (tsLastUpdate.isBefore(tsMaxCleanfree)) {
-				final Instant tsMin = tsNow.minus(fConfig.getMaxAgeWebsocket());
-
-				final Set<String> setKeysToDelete = new HashSet<>();
-				for (Entry<String, WrsSession> entry : MAP_SESSIONS.entrySet()) {
-					final String key = entry.getKey();
-					final Instant tsStart = entry.getValue().getTsStart();
-					if (tsStart.isBefore(tsMin)) {
-						setKeysToDelete.add(key);
-					}
-				}
+			final Instant tsMin = tsNow.minus(config.getMaxAgeWebsocket());
 
-				final Set<String> setKeysWssToDelete = new HashSet<>();
-				for (Entry<String, WrsWebsocketSession> entry : MAP_WEBSOCKET_SESSIONS.entrySet()) {
-					final String key = entry.getKey();
-					final Instant tsStart = entry.getValue().getTsStart();
-					if (tsStart.isBefore(tsMin)) {
-						setKeysWssToDelete.add(key);
+			// A room and its members are removed under the lock of the room's entry (see putSession),
+			// a concurrent login can't add a member to a removed room or lose its registration.
+			final AtomicInteger numOldSessions = new AtomicInteger();
+			final AtomicInteger numOldWebSocketSessions = new AtomicInteger();
+			for (final String key : tenant.fMapSessions.keySet()) {
+				tenant.fMapSessions.computeIfPresent(key, (k, wrsSession) -> {
+					for (final Entry<String, WrsWebsocketSession> member : wrsSession.removeMembersBefore(tsMin).entrySet()) {
+						tenant.fMapWebsocketSessions.remove(member.getKey() + "#" + k, member.getValue());
+						numOldWebSocketSessions.incrementAndGet();
 					}
-				}
+					// A session is kept as long as it has members.
+					if (wrsSession.getTsStart().isBefore(tsMin) && wrsSession.getMembers().isEmpty()) {
+						numOldSessions.incrementAndGet();
+						return null;
+					}
+					return wrsSession;
+				});
+			}
 
-				final DateTimeFormatter dtf = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-				final ZonedDateTime zdtLastUpdate = ZonedDateTime.ofInstant(tsLastUpdate, fConfig.getTimeZone());
-				LOGGER.info(String.format("cleanup: #tsLastCleanup=%s, #sessions=%d, #oldSessions=%d, #webSocketSessions=%d, #oldWebSocketSessions=%d",
-						dtf.format(zdtLastUpdate),
-						Integer.valueOf(MAP_SESSIONS.size()), Integer.valueOf(setKeysToDelete.size()),
-						Integer.valueOf(MAP_WEBSOCKET_SESSIONS.size()), Integer.valueOf(setKeysWssToDelete.size())));
+			final DateTimeFormatter dtf = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+			final ZonedDateTime zdtLastUpdate = ZonedDateTime.ofInstant(tsLastUpdate, config.getTimeZone());
+			LOGGER.info(String.format("cleanup: tenant=%s, #tsLastCleanup=%s, #sessions=%d, #oldSessions=%d, #webSocketSessions=%d, #oldWebSocketSessions=%d",
+					tenant.getName(), dtf.format(zdtLastUpdate),
+					Integer.valueOf(tenant.fMapSessions.size()), Integer.valueOf(numOldSessions.get()),
+					Integer.valueOf(tenant.fMapWebsocketSessions.size()), Integer.valueOf(numOldWebSocketSessions.get())));
 
-				for (String key : setKeysToDelete) {
-					MAP_SESSIONS.remove(key);
-				}
-				for (String key : setKeysWssToDelete) {
-					MAP_WEBSOCKET_SESSIONS.remove(key);
-				}
+			WrsMediaStats.expire();
+			final int numExpiredCalls = WrsCallTracker.expire();
+			if (numExpiredCalls > 0) {
+				LOGGER.info(String.format("cleanup: #incompleteCallSetups=%d", Integer.valueOf(numExpiredCalls)));
 			}
+			WrsEvents.commitCleanup(event, tenant.fMapSessions.size(), numOldSessions.get(),
+					tenant.fMapWebsocketSessions.size(), numOldWebSocketSessions.get());
 		} catch (Exception e) {
 			LOGGER.log(Level.SEVERE, String.format("Error while doing clean-up, #sessions=%d",
-					MAP_WEBSOCKET_SESSIONS.size()), e);
+					tenant.fMapWebsocketSessions.size()), e);
 		}
 	}
 
@@ -329,9 +802,210 @@ public class WebSocketWrs {
 		final Instant tsLastStatistics = TS_LAST_STATISTICS.getAndUpdate(tsLast ->
 			(tsLast.isBefore(tsStatistics)) ? tsNow : tsLast);
 		if (tsLastStatistics.isBefore(tsStatistics)) {
+			WrsDispatcher.getInstance().executeHousekeeping(WebSocketWrs::dumpStatistics);
+		}
+	}
+
+	/**
+	 * Starts the heartbeat: One timer pings the websocket-sessions of all logged-in users.
+	 */
+	static void startHeartbeat() {
+		if (!IS_HEARTBEAT_LISTENER.getAndSet(true)) {
+			WrsConfiguration.addListener((oldConfig, newConfig) -> {
+				if (!oldConfig.getHeartbeatInterval().equals(newConfig.getHeartbeatInterval())
+						|| oldConfig.getHeartbeatMaxMissed() != newConfig.getHeartbeatMaxMissed()) {
+					scheduleHeartbeat(newConfig);
+				}
+			});
+		}
+		scheduleHeartbeat(WrsConfiguration.getInstance());
+	}
+
+	/**
+	 * (Re-)Schedules the heartbeat-task.
+	 * @param config configuration
+	 */
+	private static synchronized void scheduleHeartbeat(final WrsConfiguration config) {
+		final ScheduledFuture<?> taskOld = HEARTBEAT_TASK.getAndSet(null);
+		if (taskOld != null) {
+			taskOld.cancel(false);
+		}
+		final long intervalMillis = Duration.from(config.getHeartbeatInterval()).toMillis();
+		if (intervalMillis > 0) {
+			final int maxMissed = config.getHeartbeatMaxMissed();
+			HEARTBEAT_TASK.set(WrsDispatcher.getInstance().scheduleHousekeeping(() -> doHeartbeat(maxMissed), intervalMillis));
+			LOGGER.info(String.format("Heartbeat: interval=%d ms, maxMissed=%d",
+					Long.valueOf(intervalMillis), Integer.valueOf(maxMissed)));
+		}
+	}
+
+	/**
+	 * Sends a ping to each logged-in websocket-session.
+	 * A session which missed too many pongs is disconnected, its user is marked as disconnected
+	 * and evicted after the time messages are kept for it (grace-period for a relogin).
+	 * Called in the housekeeping-thread, the pings are sent by the queues of the connections.
+	 * @param maxMissed maximal number of pings without pong
+	 */
+	private static void doHeartbeat(final int maxMissed) {
+		try {
+			final Set<Session> setAlive = Collections.newSetFromMap(new IdentityHashMap<>());
+			final Set<Session> setDead = Collections.newSetFromMap(new IdentityHashMap<>());
+			final Map<WrsTenant, Set<String>> mapDeadRooms = new HashMap<>();
+			for (final WrsTenant tenant : WrsTenant.getTenants()) {
+				final Set<String> setRooms = pingSessions(tenant, maxMissed, setAlive, setDead);
+				if (!setRooms.isEmpty()) {
+					mapDeadRooms.put(tenant, setRooms);
+				}
+			}
+			// Logged out sessions don't need a heartbeat.
+			for (final Entry<Session, Heartbeat> entry : MAP_HEARTBEAT.entrySet()) {
+				if (!setAlive.contains(entry.getKey())) {
+					entry.getValue().fMissed.set(0);
+				}
+			}
+			if (!setDead.isEmpty()) {
+				for (final Entry<WrsTenant, Set<String>> entry : mapDeadRooms.entrySet()) {
+					evictSessions(entry.getKey(), entry.getValue(), setDead);
+				}
+				disconnectSessions(setDead);
+			}
+		} catch (Exception e) {
+			LOGGER.log(Level.SEVERE, "Error while doing heartbeat", e);
+		}
+	}
+
+	/**
+	 * Sends a ping to each logged-in websocket-session of a tenant.
+	 * @param tenant tenant
+	 * @param maxMissed maximal number of pings without pong
+	 * @param setAlive sessions which have been pinged
+	 * @param setDead unresponsive or closed sessions
+	 * @return session-ids of the rooms of users with an unresponsive or closed session
+	 */
+	private static Set<String> pingSessions(final WrsTenant tenant, final int maxMissed,
+			final Set<Session> setAlive, final Set<Session> setDead) {
+		final Set<String> setDeadRooms = new HashSet<>();
+		for (final WrsWebsocketSession wrsSession : tenant.fMapWebsocketSessions.values()) {
+			final Session session = wrsSession.getSession();
+			// A session may be registered for several users, it's pinged once.
+			if (!setAlive.contains(session) && !setDead.contains(session)) {
+				// There is no heartbeat of a closed connection.
+				final Heartbeat heartbeat = MAP_HEARTBEAT.get(session);
+				if (heartbeat == null || !session.isOpen() || heartbeat.fMissed.getAndIncrement() >= maxMissed) {
+					setDead.add(session);
+				}
+				else {
+					setAlive.add(session);
+					// The housekeeping-thread doesn't wait for a blocked connection.
+					heartbeat.fQueue.execute(() -> sendPing(session));
+				}
+			}
+			if (setDead.contains(session)) {
+				setDeadRooms.add(wrsSession.getRoomId());
+			}
+		}
+		return setDeadRooms;
+	}
+
+	/**
+	 * Sends a ping of the heartbeat, called in the queue of the connection.
+	 * @param session websocket-session
+	 */
+	private static void sendPing(final Session session) {
+		if (!session.isOpen()) {
+			return;
+		}
+		try {
+			session.getRemote().sendPing(ByteBuffer.allocate(0));
+		}
+		catch (IOException | RuntimeException e) {
+			LOGGER.fine(String.format("Ping to %s failed: %s", printSession(session), e));
+		}
+	}
+
+	/**
+	 * Marks the users of unresponsive websocket-sessions of a tenant as disconnected.
+	 * A user is removed from the registry when its grace-period is over.
+	 * The members of a room are checked and removed under the lock of the room's entry (like putSession),
+	 * so a user resumed by a relogin in between isn't evicted. Only the rooms of the dead sessions are visited,
+	 * a room without members is removed.
+	 * @param tenant tenant
+	 * @param setRooms session-ids of the rooms of the dead sessions
+	 * @param setDead unresponsive or closed sessions
+	 */
+	private static void evictSessions(final WrsTenant tenant, final Set<String> setRooms, final Set<Session> setDead) {
+		final Duration grace = getGracePeriod(WrsConfiguration.getInstance());
+		final Instant tsNow = Instant.now();
+		for (final String roomKey : setRooms) {
+			tenant.fMapSessions.computeIfPresent(roomKey, (k, wrsSessionRoom) -> {
+				final Map<String, WrsWebsocketSession> mapEvicted = wrsSessionRoom.removeMembersIf(wrsSession -> {
+					if (!setDead.contains(wrsSession.getSession())) {
+						return false;
+					}
+					final Instant tsDisconnected = wrsSession.markDisconnected(tsNow);
+					return !tsDisconnected.plus(grace).isAfter(tsNow);
+				});
+				for (final Entry<String, WrsWebsocketSession> member : mapEvicted.entrySet()) {
+					tenant.fMapWebsocketSessions.remove(member.getKey() + "#" + k, member.getValue());
+					tenant.updateStatistics("evicted");
+					LOGGER.info(String.format("Heartbeat: evict session %s (tenant %s)",
+							printSession(member.getValue().getSession()), tenant.getName()));
+				}
+				return wrsSessionRoom.getMembers().isEmpty() ? null : wrsSessionRoom;
+			});
+		}
+	}
+
+	/**
+	 * Disconnects unresponsive websocket-sessions.
+	 * @param setDead unresponsive or closed sessions
+	 */
+	private static void disconnectSessions(final Set<Session> setDead) {
+		for (final Session session : setDead) {
+			if (!session.isOpen()) {
+				continue;
+			}
+			try {
+				// A half-open connection wouldn't answer a close-frame.
+				session.disconnect();
+			}
+			catch (IOException | RuntimeException e) {
+				LOGGER.fine(String.format("Disconnect of %s failed: %s", printSession(session), e));
+			}
+		}
+	}
+
+	/**
+	 * Logs the statistics, called in the housekeeping-thread.
+	 */
+	private static void dumpStatistics() {
+		for (final WrsTenant tenant : WrsTenant.getTenants()) {
+			// The default-tenant keeps the format of the log of a single-tenant server.
+			final String prefix = WrsTenant.DEFAULT.equals(tenant.getName()) ? "" : tenant.getName() + "/";
 			for (String key : STATISTIC_KEYS) {
-				LOGGER.info(String.format("Count %s: %s", key, MAP_STATISTICS.get(key)));
+				LOGGER.info(String.format("Count %s%s: %s", prefix, key, tenant.getStatistics(key)));
 			}
+			LOGGER.info("Tenant " + tenant);
+		}
+		for (final Entry<String, WrsLatencyHistogram> entry : WrsCallTracker.HISTOGRAMS.entrySet()) {
+			LOGGER.info(String.format("Call-setup %s: %s", entry.getKey(), entry.getValue()));
+		}
+		LOGGER.info(String.format("Media-statistics (#rooms=%d): %s",
+				Integer.valueOf(WrsMediaStats.getRooms().size()), WrsMediaStats.FLEET));
+		LOGGER.info("Memory-budget: " + new WrsMemoryBudget());
+		LOGGER.info("Admission-control: " + WrsAdmissionControl.getSummary());
+		// Summaries of errors of the current interval aren't delayed beyond the statistics.
+		WrsErrorLog.flush();
+		LOGGER.info("Error-log: " + WrsErrorLog.getSummary());
+		final WrsEventRing eventRing = WrsEventRing.getInstance();
+		if (eventRing != null) {
+			LOGGER.info(String.format("Event-ring: #records=%d, capacity=%d, #skippedDumps=%d",
+					Long.valueOf(eventRing.getSequence()), Integer.valueOf(eventRing.getCapacity()),
+					Long.valueOf(eventRing.getSkippedDumps())));
+		}
+		final WrsStunServer stunServer = WrsStunServer.getInstance();
+		if (stunServer != null) {
+			LOGGER.info("STUN-responder: " + stunServer);
 		}
 	}
 
@@ -421,17 +1095,16 @@ public class WebSocketWrs {
 
 	/**
 	 * Looks for a free session-Id.
+	 * The session-id is a proposal only, the WRS-session will be created at the first login.
 	 * @return Session-Id
 	 */
 	private String searchFreeSession() {
 		String sessionId = null;
 		final int maxTries = 3;
 		for (int i = 0; i < maxTries; i++) {
-			final int sessionNr = (int) (1 + Math.random() * 16777214);
-			sessionId = String.format("%06x", sessionNr);
-			final WrsSession wrsSession = new WrsSession(sessionId);
-			final WrsSession currSession = MAP_SESSIONS.putIfAbsent(sessionId, wrsSession);
-			if (currSession == null) {
+			final int sessionNr = 1 + RANDOM.nextInt(16777214);
+			sessionId = String.format("%06x", Integer.valueOf(sessionNr));
+			if (!fTenant.fMapSessions.containsKey(sessionId)) {
 				// We found a free session.
 				break;
 			}
@@ -440,7 +1113,7 @@ public class WebSocketWrs {
 		}
 		if (sessionId == null) {
 			LOGGER.severe(String.format("Keine freie Session (#tries=%d, #sessions=%d)",
-					Integer.valueOf(maxTries), Integer.valueOf(MAP_SESSIONS.size())));
+					Integer.valueOf(maxTries), Integer.valueOf(fTenant.fMapSessions.size())));
 		}
 		return sessionId;
 	}
@@ -465,24 +1138,113 @@ public class WebSocketWrs {
 	 */
 	private WrsWebsocketSession getWrsSession(final String sessionId, final String name) {
 		final String key = (name.toLowerCase(fConfig.getLocale()) + "#" + sessionId);
-		final WrsWebsocketSession wrsSession = MAP_WEBSOCKET_SESSIONS.get(key);
+		final WrsWebsocketSession wrsSession = fTenant.fMapWebsocketSessions.get(key);
 		return wrsSession;
 	}
 
 	/**
-	 * Puts a websocket-session.
+	 * Puts a websocket-session if the name of the user is free in the room.
+	 * The name is free if it isn't registered, if it is registered by this websocket-session,
+	 * if the client presents the resume-token of the user or if the registered websocket-session
+	 * is closed and its grace-period for a relogin is over.
 	 * @param sessionId session-id
 	 * @param name name of the user
-	 * @return previous WRS-session or <code>null</code>
+	 * @param session websocket-session
+	 * @param resumeToken resume-token presented by the client or <code>null</code>
+	 * @param refPrev receives the replaced WRS-session or <code>null</code>
+	 * @return registered WRS-session or <code>null</code> if the name is taken
 	 */
-	private WrsWebsocketSession putSession(final String sessionId, final String name, Session session) {
-		final String key = (name.toLowerCase(fConfig.getLocale()) + "#" + sessionId);
-		final WrsWebsocketSession wrsSession = new WrsWebsocketSession(session);
-		final WrsWebsocketSession wrsSessionOld = MAP_WEBSOCKET_SESSIONS.put(key, wrsSession);
+	private WrsWebsocketSession putSession(final String sessionId, final String name, final Session session,
+			final String resumeToken, final AtomicReference<WrsWebsocketSession> refPrev) {
+		final String userKey = name.toLowerCase(fConfig.getLocale());
+		final String key = (userKey + "#" + sessionId);
+		final WrsWebsocketSession wrsSession = new WrsWebsocketSession(userKey, sessionId, session, fSeqWindow);
+		final AtomicBoolean isTaken = new AtomicBoolean();
+		final Instant tsNow = Instant.now();
+		final Duration grace = getGracePeriod(fConfig);
 		
-		MAP_SESSIONS.put(sessionId, new WrsSession(sessionId));
+		// The registry and the room are updated under the lock of the room's entry,
+		// so the clean-up can't remove the room in between and concurrent logins of a user end consistent.
+		// The lifetime of the session starts with its first member.
+		fTenant.fMapSessions.compute(sessionId, (k, wrsSessionRoomPrev) -> {
+			final WrsWebsocketSession wrsSessionPrev = fTenant.fMapWebsocketSessions.get(key);
+			if (wrsSessionPrev != null && !isNameFree(wrsSessionPrev, session, resumeToken, tsNow, grace)) {
+				isTaken.set(true);
+				return wrsSessionRoomPrev;
+			}
+			final WrsSession wrsSessionRoom = (wrsSessionRoomPrev != null) ? wrsSessionRoomPrev : new WrsSession(k);
+			refPrev.set(fTenant.fMapWebsocketSessions.put(key, wrsSession));
+			wrsSessionRoom.putMember(userKey, wrsSession);
+			return wrsSessionRoom;
+		});
+		if (isTaken.get()) {
+			return null;
+		}
+		fRoomId = sessionId;
+		fUsers.add(wrsSession);
+		if (refPrev.get() != null) {
+			fUsers.remove(refPrev.get());
+		}
+		return wrsSession;
+	}
+
+	/**
+	 * Checks if the registered name of a user may be taken by a login.
+	 * @param wrsSession registered user
+	 * @param session websocket-session of the login
+	 * @param resumeToken resume-token presented by the client or <code>null</code>
+	 * @param tsNow current time
+	 * @param grace grace-period for a relogin
+	 * @return <code>true</code> if the registration may be replaced
+	 */
+	private static boolean isNameFree(final WrsWebsocketSession wrsSession, final Session session,
+			final String resumeToken, final Instant tsNow, final Duration grace) {
+		final Session sessionRegistered = wrsSession.getSession();
+		if (sessionRegistered == session || wrsSession.isResumeToken(resumeToken)) {
+			return true;
+		}
+		if (sessionRegistered.isOpen()) {
+			return false;
+		}
+		// The user keeps its name during the grace-period for a relogin.
+		final Instant tsDisconnected = wrsSession.markDisconnected(tsNow);
+		return !tsDisconnected.plus(grace).isAfter(tsNow);
+	}
+
+	/**
+	 * Gets the grace-period of a disconnected user for a relogin, it's the time messages are kept for it.
+	 * @param config current configuration
+	 * @return grace-period, zero if the mailbox is disabled
+	 */
+	private static Duration getGracePeriod(final WrsConfiguration config) {
+		return (config.getMailboxMaxMessages() > 0) ? Duration.from(config.getMailboxMaxAge()) : Duration.ZERO;
+	}
 
-		return wrsSessionOld;
+	/**
+	 * Binds a registered user to a new websocket-session (resume).
+	 * The rebind is done under the lock of the room's entry like putSession,
+	 * so the heartbeat or the clean-up can't evict the user in between.
+	 * @param sessionId session-id
+	 * @param name name of the user
+	 * @param wrsSession registered user
+	 * @param session new websocket-session
+	 * @return previous websocket-session or <code>null</code> if the user isn't registered any more
+	 */
+	private Session rebindSession(final String sessionId, final String name, final WrsWebsocketSession wrsSession,
+			final Session session) {
+		final String key = (name.toLowerCase(fConfig.getLocale()) + "#" + sessionId);
+		final AtomicReference<Session> refPrev = new AtomicReference<>();
+		fTenant.fMapSessions.computeIfPresent(sessionId, (k, wrsSessionRoom) -> {
+			if (fTenant.fMapWebsocketSessions.get(key) == wrsSession) {
+				refPrev.set(wrsSession.rebind(session, fSeqWindow));
+			}
+			return wrsSessionRoom;
+		});
+		if (refPrev.get() != null) {
+			fRoomId = sessionId;
+			fUsers.add(wrsSession);
+		}
+		return refPrev.get();
 	}
 
 	/**
@@ -492,15 +1254,40 @@ public class WebSocketWrs {
 	 * @return removed websocket-session or <code>null</code>
 	 */
 	private Session removeSession(final String sessionId, final String name) {
-		final String key = (name.toLowerCase(fConfig.getLocale()) + "#" + sessionId);
-		final WrsWebsocketSession wrsSession = MAP_WEBSOCKET_SESSIONS.remove(key);
+		final String userKey = name.toLowerCase(fConfig.getLocale());
+		final String key = (userKey + "#" + sessionId);
+		final AtomicReference<WrsWebsocketSession> refRemoved = new AtomicReference<>();
+		// Like putSession under the lock of the room's entry.
+		fTenant.fMapSessions.compute(sessionId, (k, wrsSessionRoom) -> {
+			final WrsWebsocketSession wrsSession = fTenant.fMapWebsocketSessions.remove(key);
+			if (wrsSession != null && wrsSessionRoom != null) {
+				wrsSessionRoom.removeMember(userKey, wrsSession);
+			}
+			refRemoved.set(wrsSession);
+			return wrsSessionRoom;
+		});
+		final WrsWebsocketSession wrsSession = refRemoved.get();
+		if (wrsSession != null) {
+			fUsers.remove(wrsSession);
+		}
 		final Session sessionPeer = (wrsSession != null) ? wrsSession.getSession() : null;
 		return sessionPeer;
 	}
 
+	/**
+	 * Handles a login.
+	 * The name of a user logged in by an other client can't be taken over without its resume-token.
+	 * @param session websocket-session
+	 * @param type type of message
+	 * @param name name of the user
+	 * @param sessionId session-id
+	 * @param boxType type of the video-box
+	 * @param localNr local video-box-nr
+	 * @param resumeToken resume-token of the user or <code>null</code>
+	 */
 	private void handleLogin(final Session session, final String type,
 			final String name, final String sessionId,
-			final Integer boxType, final Integer localNr) {
+			final Integer boxType, final Integer localNr, final String resumeToken) {
 		if (!PATTERN_NAME.matcher(name).matches()) {
 			sendeAntwort(session, type, false, "name", name, "msg", ct("Unerwarteter User"));
 		}
@@ -508,7 +1295,19 @@ public class WebSocketWrs {
 			sendeAntwort(session, type, false, "name", name, "msg", ct("Unerwartete Session-Id"));
 		}
 		else {
-			final WrsWebsocketSession wrsSessionPrev = putSession(sessionId, name, session);
+			final Object event = WrsEvents.beginLogin();
+			final AtomicReference<WrsWebsocketSession> refPrev = new AtomicReference<>();
+			final WrsWebsocketSession wrsSession = putSession(sessionId, name, session, resumeToken, refPrev);
+			final WrsWebsocketSession wrsSessionPrev = refPrev.get();
+			WrsEvents.commitLogin(event, type, sessionId, wrsSessionPrev != null);
+			if (wrsSession == null) {
+				updateStatistics("loginRejected");
+				LOGGER.warning(String.format("Login of user %s by session %s rejected: name in use, %s resume-token",
+						getShortName(name), printSession(session), (resumeToken == null) ? "missing" : "invalid"));
+				sendeAntwort(session, type, false, "name", name,
+						"msg", ct("Login abgelehnt. Der Name ist in dieser Session bereits angemeldet."));
+				return;
+			}
 			if (wrsSessionPrev != null) {
 				DateTimeFormatter dtf = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 				ZonedDateTime zdtTsStart = ZonedDateTime.ofInstant(wrsSessionPrev.getTsStart(), fConfig.getTimeZone());
@@ -519,7 +1318,8 @@ public class WebSocketWrs {
 					new JsonKeyValue("msg", ct("Login ok. Die Verbindung mit anderen Usern dieser Session ist nun möglich.")),
 					new JsonKeyValue("boxType", boxType),
 					new JsonKeyValue("name", name),
-					new JsonKeyValue("localNr", localNr));
+					new JsonKeyValue("localNr", localNr),
+					new JsonKeyValue("resumeToken", wrsSession.getResumeToken()));
 		}
 	}
 
@@ -539,8 +1339,18 @@ public class WebSocketWrs {
 		}
 	}
 
+	/**
+	 * Handles a relogin after a reconnect.
+	 * A client presenting the resume-token of its user gets the existing state of the user (resume),
+	 * the name of a user logged in by an other client can't be taken over without the token.
+	 * @param session new websocket-session
+	 * @param type type of message
+	 * @param name name of the user
+	 * @param sessionId session-id
+	 * @param resumeToken resume-token received at the login or <code>null</code>
+	 */
 	private void handleRelogin(final Session session, final String type,
-			final String name, final String sessionId) {
+			final String name, final String sessionId, final String resumeToken) {
 		if (!PATTERN_NAME.matcher(name).matches()) {
 			sendeAntwort(session, type, false, "name", name, "msg", ct("Unerwarteter User"));
 		}
@@ -548,18 +1358,55 @@ public class WebSocketWrs {
 			sendeAntwort(session, type, false, "name", name, "msg", ct("Unerwartete Session-Id"));
 		}
 		else {
-			final WrsWebsocketSession wrsSessionPrev = putSession(sessionId, name, session);
-			if (wrsSessionPrev != null) {
-				DateTimeFormatter dtf = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-				ZonedDateTime zdtTsStart = ZonedDateTime.ofInstant(wrsSessionPrev.getTsStart(), fConfig.getTimeZone());
-				LOGGER.info(String.format("Relogin: New session %s, old session of user %s was %s starting at %s",
-						printSession(session), getShortName(name),
-						printSession(wrsSessionPrev.getSession()),
-						dtf.format(zdtTsStart))); 
+			final Object event = WrsEvents.beginLogin();
+			WrsWebsocketSession wrsSession = getWrsSession(sessionId, name);
+			final boolean isResume = wrsSession != null && wrsSession.isResumeToken(resumeToken);
+			// Resume: The state of the user is bound to the new websocket-session, unless it has been evicted in between.
+			final Session sessionPrev = isResume ? rebindSession(sessionId, name, wrsSession, session) : null;
+			if (sessionPrev != null) {
+				WrsEvents.commitLogin(event, type, sessionId, true);
+				updateStatistics("resumed");
+				if (LOGGER.isLoggable(Level.INFO)) {
+					DateTimeFormatter dtf = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+					ZonedDateTime zdtTsStart = ZonedDateTime.ofInstant(wrsSession.getTsStart(), fConfig.getTimeZone());
+					LOGGER.info(String.format("Resume: New session %s, old session of user %s was %s starting at %s",
+							printSession(session), getShortName(name), printSession(sessionPrev),
+							dtf.format(zdtTsStart)));
+				}
+				if (sessionPrev != session && sessionPrev.isOpen()) {
+					sessionPrev.close(StatusCode.NORMAL, "resumed");
+				}
+			}
+			else if (wrsSession != null && !isResume) {
+				// The user is logged in, we don't hand over the name to an other client.
+				WrsEvents.commitLogin(event, type, sessionId, false);
+				updateStatistics("resumeRejected");
+				LOGGER.warning(String.format("Relogin of user %s by session %s rejected: %s resume-token",
+						getShortName(name), printSession(session), (resumeToken == null) ? "missing" : "invalid"));
+				sendeAntwort(session, type, false, "name", name,
+						"msg", ct("Relogin abgelehnt. Der Name ist in dieser Session bereits angemeldet."));
+				return;
+			}
+			else {
+				// The user is unknown (e.g. removed by the clean-up or evicted), we register it again.
+				wrsSession = putSession(sessionId, name, session, resumeToken, new AtomicReference<>());
+				WrsEvents.commitLogin(event, type, sessionId, false);
+				if (wrsSession == null) {
+					// An other client has taken the name in between.
+					updateStatistics("resumeRejected");
+					sendeAntwort(session, type, false, "name", name,
+							"msg", ct("Relogin abgelehnt. Der Name ist in dieser Session bereits angemeldet."));
+					return;
+				}
+				LOGGER.info(String.format("Relogin: New session %s of user %s", printSession(session), getShortName(name)));
 			}
 			sendeAntwort(session, type, true,
 					new JsonKeyValue("msg", ct("Relogin ok. Die Verbindung wurde wieder hergestellt.")),
-					new JsonKeyValue("name", name));
+					new JsonKeyValue("name", name),
+					new JsonKeyValue("resumeToken", (wrsSession != null) ? wrsSession.getResumeToken() : null));
+			if (wrsSession != null) {
+				flushPending(wrsSession, session);
+			}
 		}
 	}
 
@@ -573,10 +1420,12 @@ public class WebSocketWrs {
 	 * @param peerName peer user
 	 * @param peerNr video-box-nr of peer user
 	 * @param sessionId session-id
+	 * @param boxType type of the video-box
+	 * @param callId call-id sent by the client or <code>null</code>
 	 */
 	private void handleRouting(final Session session, String type, final JsonObject rtcObject, final String user,
 			Integer localNr, final String peerName, Integer peerNr, final String sessionId,
-			final Integer boxType) {
+			final Integer boxType, final String callId) {
 		if (peerName == null) {
 			sendeAntwort(session, type, false, "msg", ct("Name fehlt"));
 		}
@@ -590,24 +1439,40 @@ public class WebSocketWrs {
 			sendeAntwort(session, type, false, "msg", ct("Unerwarteter Peeruser"));
 		}
 		else {
-			final Session sessionPeer = getSession(sessionId, peerName);
+			final Object event = WrsEvents.beginRouting();
+			final WrsWebsocketSession wrsSessionPeer = getWrsSession(sessionId, peerName);
+			final Session sessionPeer = (wrsSessionPeer != null) ? wrsSessionPeer.getSession() : null;
+			WrsEvents.commitRouting(event, type, sessionId, sessionPeer != null);
 			if (sessionPeer == null) {
 				sendeAntwort(session, type, false, "msg", ct("handleRouting: Der gewählte Teilnehmer ist in der Session nicht bekannt."));
 			}
 			else {
 				final boolean isRequest = "requestCall".equals(type);
+				// The call-id correlates the messages of a call-setup.
+				final String callIdRouted = isRequest ? WrsCallTracker.startCall() : callId;
+				WrsCallTracker.recordHop(callIdRouted, type);
 				if (LOGGER.isLoggable(Level.INFO) && isRequest) {
 					LOGGER.info(String.format("request: %s@%s -> %s@%s",
 							getShortName(user), printSession(session),
 							getShortName(peerName), printSession(sessionPeer)));
 				}
-				final boolean isOk = sendeAntwort(sessionPeer, type, true,
-						new JsonKeyValue(type, rtcObject),
+				final JsonKeyValue[] keyValues = {
+						new JsonKeyValue(type, filterSdp(type, rtcObject)),
 						new JsonKeyValue("name", user),
 						new JsonKeyValue("localNr", localNr),
 						new JsonKeyValue("peer", peerName),
 						new JsonKeyValue("peerNr", peerNr),
-						new JsonKeyValue("boxType", boxType));
+						new JsonKeyValue("boxType", boxType),
+						new JsonKeyValue("callId", callIdRouted) };
+				final boolean isOk;
+				if (!isRequest && !sessionPeer.isOpen() && isReconnecting(wrsSessionPeer)) {
+					// The peer is reconnecting, the message is delivered at its relogin.
+					isOk = keepPending(wrsSessionPeer, sessionPeer, buildAntwort(type, true, keyValues));
+				}
+				else {
+					// A call to a closed peer isn't kept, the caller gets the answer "nicht erreicht" at once.
+					isOk = sendeAntwort(sessionPeer, type, true, keyValues);
+				}
 				if (!isOk && isRequest) {
 					sendeAntwort(session, type, false, "msg", ct("handleRouting: Teilnehmer konnte nicht erreicht werden."));
 				}
@@ -615,6 +1480,276 @@ public class WebSocketWrs {
 		}
 	}
 	
+	/**
+	 * Aggregates the media-statistics of a client, there is no response.
+	 * Only logged in users are counted, the values are clamped.
+	 * @param session current session
+	 * @param user local user
+	 * @param sessionId session-id
+	 * @param reports array of reports {rtt, loss, kbps, pair} of the RTC-connections of the client
+	 */
+	private void handleStats(final Session session, final String user, final String sessionId, final JsonValue reports) {
+		final WrsWebsocketSession wrsSession = (user != null && sessionId != null) ? getWrsSession(sessionId, user) : null;
+		if (wrsSession == null || wrsSession.getSession() != session || !(reports instanceof JsonArray)) {
+			return;
+		}
+		updateStatistics("stats");
+		final JsonArray array = (JsonArray) reports;
+		for (int i = 0; i < Math.min(array.size(), MAX_STATS_REPORTS); i++) {
+			final JsonValue value = array.get(i);
+			if (!(value instanceof JsonObject)) {
+				continue;
+			}
+			final JsonObject report = (JsonObject) value;
+			final JsonValue pair = report.get("pair");
+			WrsMediaStats.record(sessionId,
+					getStatsValue(report, "rtt", 60000), getStatsValue(report, "loss", 1000),
+					getStatsValue(report, "kbps", 10000000),
+					(pair instanceof JsonString) ? ((JsonString) pair).getString() : null);
+		}
+	}
+
+	/**
+	 * Gets a value of a media-report.
+	 * @param report report
+	 * @param key key of the value
+	 * @param max maximal value
+	 * @return value (0 .. max) or -1 if the value is missing
+	 */
+	private static long getStatsValue(final JsonObject report, final String key, final long max) {
+		final JsonValue value = report.get(key);
+		if (!(value instanceof JsonNumber)) {
+			return -1;
+		}
+		return Math.min(Math.max(0, ((JsonNumber) value).longValue()), max);
+	}
+
+	/**
+	 * Checks if a user with a closed websocket-session may still reconnect:
+	 * The mailbox is enabled, the client hasn't closed on purpose and the grace-period isn't over.
+	 * @param wrsSessionPeer user with a closed websocket-session
+	 * @return <code>true</code> if messages are kept for the user
+	 */
+	private boolean isReconnecting(final WrsWebsocketSession wrsSessionPeer) {
+		if (fConfig.getMailboxMaxMessages() <= 0 || wrsSessionPeer.isClosedByClient()) {
+			return false;
+		}
+		final Instant tsNow = Instant.now();
+		final Instant tsDisconnected = wrsSessionPeer.markDisconnected(tsNow);
+		return tsDisconnected.plus(getGracePeriod(fConfig)).isAfter(tsNow);
+	}
+
+	/**
+	 * Keeps a message in the mailbox of a disconnected user.
+	 * If the user has resumed in between, its mailbox has been drained already and the message is sent
+	 * to the new websocket-session.
+	 * @param wrsSessionPeer disconnected user
+	 * @param sessionPeer closed websocket-session of the user
+	 * @param json message
+	 * @return <code>true</code> if the message has been kept or sent
+	 */
+	private boolean keepPending(final WrsWebsocketSession wrsSessionPeer, final Session sessionPeer, final JsonObject json) {
+		final Instant tsNow = Instant.now();
+		final boolean isKept = wrsSessionPeer.offerPending(json, sessionPeer, tsNow,
+				tsNow.plus(fConfig.getMailboxMaxAge()), fConfig.getMailboxMaxMessages());
+		final Session sessionResumed = wrsSessionPeer.getSession();
+		if (!isKept && sessionResumed != sessionPeer) {
+			final int size = writeJson(sessionResumed, json);
+			recordEvent(WrsEventRing.KIND_OUT, json.getString("type", null),
+					(size >= 0) ? WrsEventRing.OUTCOME_OK : WrsEventRing.OUTCOME_ERROR, null, Math.max(size, 0));
+			return size >= 0;
+		}
+		updateStatistics(isKept ? "queued" : "queueDropped");
+		if (!isKept && LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine(String.format("Mailbox full, message dropped: %s", printSession(wrsSessionPeer.getSession())));
+		}
+		return isKept;
+	}
+
+	/**
+	 * Sends the messages kept during the reconnect of a user.
+	 * @param wrsSession resumed user
+	 * @param session new websocket-session
+	 */
+	private void flushPending(final WrsWebsocketSession wrsSession, final Session session) {
+		final List<JsonObject> listMessages = wrsSession.drainPending(Instant.now());
+		for (final JsonObject json : listMessages) {
+			final int size = writeJson(session, json);
+			if (size >= 0) {
+				updateStatistics("flushed");
+			}
+			recordEvent(WrsEventRing.KIND_OUT, json.getString("type", null),
+					(size >= 0) ? WrsEventRing.OUTCOME_OK : WrsEventRing.OUTCOME_ERROR, null, Math.max(size, 0));
+		}
+		if (!listMessages.isEmpty() && LOGGER.isLoggable(Level.INFO)) {
+			LOGGER.info(String.format("Resume: %d kept messages sent to %s",
+					Integer.valueOf(listMessages.size()), printSession(session)));
+		}
+	}
+
+	/**
+	 * Checks if an ICE-candidate should be relayed.
+	 * A candidate is dropped if its type or transport is filtered or if it has been sent already
+	 * to the same pair of video-boxes (e.g. again after a relogin).
+	 * @param session current session
+	 * @param user local user
+	 * @param localNr local video-box-nr
+	 * @param peerName peer user
+	 * @param peerNr video-box-nr of peer user
+	 * @param sessionId session-id
+	 * @param candidate candidate, e.g. {"candidate":"candidate:842163049 1 udp 1677729535 192.0.2.1 50000 typ srflx ...","sdpMid":"0"}
+	 * @return <code>true</code> if the candidate is relayed
+	 */
+	private boolean isCandidateRelayed(final Session session, final String user, final Integer localNr,
+			final String peerName, final Integer peerNr, final String sessionId, final JsonObject candidate) {
+		final JsonValue jsonLine = (candidate != null) ? candidate.get("candidate") : null;
+		if (!(jsonLine instanceof JsonString)) {
+			return true;
+		}
+		final String line = ((JsonString) jsonLine).getString();
+		if (line.isEmpty()) {
+			// end-of-candidates
+			return true;
+		}
+		// candidate:<foundation> <component> <transport> <priority> <address> <port> typ <type> ...
+		final String[] fields = line.split(" ", 9);
+		if (fields.length >= 8) {
+			final String transport = fields[2].toLowerCase(Locale.ROOT);
+			final String candidateType = fields[7].toLowerCase(Locale.ROOT);
+			if (fConfig.getCandidateDropTransports().contains(transport)
+					|| fConfig.getCandidateDropTypes().contains(candidateType)) {
+				return false;
+			}
+		}
+		final String pairKey = getPairKey(localNr, peerName, peerNr);
+		final WrsWebsocketSession wrsSession = (user != null && sessionId != null && pairKey != null)
+				? getWrsSession(sessionId, user) : null;
+		if (wrsSession == null || wrsSession.getSession() != session) {
+			return true;
+		}
+		final JsonValue sdpMid = candidate.get("sdpMid");
+		return wrsSession.addCandidate(pairKey, (sdpMid != null ? sdpMid.toString() : "") + "#" + line);
+	}
+
+	/**
+	 * Forgets the candidates sent to a pair of video-boxes (new call or leave).
+	 * @param session current session
+	 * @param user local user
+	 * @param localNr local video-box-nr
+	 * @param peerName peer user
+	 * @param peerNr video-box-nr of peer user
+	 * @param sessionId session-id
+	 */
+	private void clearCandidates(final Session session, final String user, final Integer localNr,
+			final String peerName, final Integer peerNr, final String sessionId) {
+		final String pairKey = getPairKey(localNr, peerName, peerNr);
+		final WrsWebsocketSession wrsSession = (user != null && sessionId != null && pairKey != null)
+				? getWrsSession(sessionId, user) : null;
+		if (wrsSession != null && wrsSession.getSession() == session) {
+			wrsSession.clearCandidates(pairKey);
+		}
+	}
+
+	/**
+	 * Builds the key of a pair of video-boxes.
+	 * @param localNr local video-box-nr
+	 * @param peerName peer user
+	 * @param peerNr video-box-nr of peer user
+	 * @return key or <code>null</code> if the peer is missing
+	 */
+	private String getPairKey(final Integer localNr, final String peerName, final Integer peerNr) {
+		return (peerName != null) ? peerName.toLowerCase(fConfig.getLocale()) + "#" + localNr + "#" + peerNr : null;
+	}
+
+	/**
+	 * Applies the configured SDP-filter to an offer or answer.
+	 * @param type type of message
+	 * @param rtcObject RTC-object, e.g. {"type":"offer","sdp":"v=0..."}
+	 * @return filtered RTC-object
+	 */
+	private JsonObject filterSdp(final String type, final JsonObject rtcObject) {
+		final WrsSdpFilter sdpFilter = fConfig.getSdpFilter();
+		if (sdpFilter == null || rtcObject == null || !("offer".equals(type) || "answer".equals(type))) {
+			return rtcObject;
+		}
+		final JsonValue jsonSdp = rtcObject.get("sdp");
+		if (!(jsonSdp instanceof JsonString)) {
+			return rtcObject;
+		}
+		final String sdp = ((JsonString) jsonSdp).getString();
+		final String sdpFiltered = sdpFilter.filter(sdp);
+		if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine(String.format("SDP of %s: %d -> %d characters", type,
+					Integer.valueOf(sdp.length()), Integer.valueOf(sdpFiltered.length())));
+		}
+		return Json.createObjectBuilder(rtcObject).add("sdp", sdpFiltered).build();
+	}
+
+	/**
+	 * Sends a message to all other members of a session.
+	 * The message is serialized once and the same text is written to all recipients.
+	 * @param session current session
+	 * @param type type of message
+	 * @param data data to be broadcasted
+	 * @param user local user
+	 * @param sessionId session-id
+	 */
+	private void handleBroadcast(final Session session, final String type, final JsonObject data,
+			final String user, final String sessionId) {
+		final WrsWebsocketSession wrsSessionUser = (sessionId != null && PATTERN_NAME.matcher(user).matches())
+				? getWrsSession(sessionId, user) : null;
+		final WrsSession wrsSessionRoom = (sessionId != null) ? fTenant.fMapSessions.get(sessionId) : null;
+		if (data == null) {
+			sendeAntwort(session, type, false, "msg", ct("Daten fehlen"));
+		}
+		else if (wrsSessionUser == null || wrsSessionUser.getSession() != session || wrsSessionRoom == null) {
+			sendeAntwort(session, type, false, "msg", ct("handleBroadcast: Der Absender ist in der Session nicht bekannt."));
+		}
+		else {
+			final JsonObject json = Json.createObjectBuilder()
+					.add("type", type)
+					.add("success", true)
+					.add("name", user)
+					.add("data", data)
+					.build();
+			// The message is serialized at most once per encoding.
+			String sJson = null;
+			byte[] abMsgPack = null;
+			int numRecipients = 0;
+			for (final WrsWebsocketSession member : wrsSessionRoom.getMembers()) {
+				if (member == wrsSessionUser) {
+					continue;
+				}
+				final Session sessionMember = member.getSession();
+				final boolean isOk;
+				final int size;
+				if (isBinaryProtocol(sessionMember)) {
+					if (abMsgPack == null) {
+						abMsgPack = WrsMsgPack.encode(json);
+					}
+					isOk = sendeBinaer(sessionMember, abMsgPack);
+					size = abMsgPack.length;
+				}
+				else {
+					if (sJson == null) {
+						sJson = json.toString();
+					}
+					isOk = sendeJson(sessionMember, sJson);
+					size = sJson.length();
+				}
+				if (isOk) {
+					numRecipients++;
+				}
+				recordEvent(WrsEventRing.KIND_OUT, type, isOk ? WrsEventRing.OUTCOME_OK : WrsEventRing.OUTCOME_ERROR, null, size);
+			}
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(String.format("broadcast: %s@%s -> #recipients=%d",
+						getShortName(user), printSession(session),
+						Integer.valueOf(numRecipients)));
+			}
+		}
+	}
+
 	/**
 	 * Sends a JSON-dictionary if available and sets the current language.
 	 * @param session session
@@ -650,6 +1785,7 @@ public class WebSocketWrs {
 	private boolean sendeAntwort(final Session session, String type, final boolean isSuccess,
 			final String attrName, final String attrWert) {
 		boolean isOk = false;
+		int size = 0;
 		if (LOGGER.isLoggable(Level.INFO)) {
 			LOGGER.info(String.format("sendeAntwort: session=%s, type=%s, isSuccess=%s, %s=%s",
 					printSession(session), type, Boolean.toString(isSuccess),
@@ -661,20 +1797,50 @@ public class WebSocketWrs {
 				.add("success", Boolean.valueOf(isSuccess))
 				.add(attrName, attrWert)
 				.build();
-			final String sJson = json.toString();
-			session.getRemote().sendStringByFuture(sJson);
+			size = writeJson(session, json);
+			isOk = (size >= 0);
 			if (LOGGER.isLoggable(Level.FINE)) {
 				LOGGER.fine(String.format("Sende Antwort in %s: %s",
-						printSession(session), sJson));
+						printSession(session), json));
 			}
-			isOk = true;
 		}
 		catch (Throwable e) {
 			LOGGER.log(Level.SEVERE, "Error while sending a response to " + printSession(session), e);
 		}
+		recordEvent(WrsEventRing.KIND_OUT, type, isOk ? (isSuccess ? WrsEventRing.OUTCOME_OK : WrsEventRing.OUTCOME_REJECTED)
+				: WrsEventRing.OUTCOME_ERROR, null, size);
 		return isOk;
 	}
 
+	/**
+	 * Builds a response.
+	 * @param type type of message
+	 * @param isSuccess success-flag
+	 * @param keyValues attributes, attributes without value are skipped
+	 * @return JSON-object
+	 */
+	private static JsonObject buildAntwort(final String type, final boolean isSuccess, final JsonKeyValue... keyValues) {
+		final JsonObjectBuilder builder = Json.createObjectBuilder();
+		builder.add("type", type)
+			.add("success", Boolean.valueOf(isSuccess));
+		for (JsonKeyValue keyValue : keyValues) {
+			String name = keyValue.getName();
+			final Object value = keyValue.getValue();
+			if (value instanceof JsonValue) {
+				final JsonValue jsonValue = (JsonValue) value;
+				builder.add(name, jsonValue);
+			}
+			else if (value instanceof Integer) {
+				final int iValue = ((Integer) value).intValue();
+				builder.add(name, iValue);
+			}
+			else if (value != null) {
+				builder.add(name, value.toString());
+			}
+		}
+		return builder.build();
+	}
+
 	/**
 	 * Sendet eine Antwort.
 	 * @param session WebSocket-Session
@@ -686,41 +1852,25 @@ public class WebSocketWrs {
 	private boolean sendeAntwort(final Session session, String type, final boolean isSuccess,
 			final JsonKeyValue... keyValues) {
 		boolean isOk = false;
+		int size = 0;
 		if (LOGGER.isLoggable(Level.INFO)) {
 			LOGGER.info(String.format("sendeAntwort: session=%s, type=%s, isSuccess=%s",
 					printSession(session), type, Boolean.toString(isSuccess)));
 		}
 		try {
-			final JsonObjectBuilder builder = Json.createObjectBuilder();
-			builder.add("type", type)
-				.add("success", Boolean.valueOf(isSuccess));
-			for (JsonKeyValue keyValue : keyValues) {
-				String name = keyValue.getName();
-				final Object value = keyValue.getValue();
-				if (value instanceof JsonValue) {
-					final JsonValue jsonValue = (JsonValue) value;
-					builder.add(name, jsonValue);
-				}
-				else if (value instanceof Integer) {
-					final int iValue = ((Integer) value).intValue();
-					builder.add(name, iValue);
-				}
-				else if (value != null) {
-					builder.add(name, value.toString());
-				}
-			}
-			final JsonObject json = builder.build();
-			final String sJson = json.toString();
-			session.getRemote().sendStringByFuture(sJson);
+			final JsonObject json = buildAntwort(type, isSuccess, keyValues);
+			size = writeJson(session, json);
+			isOk = (size >= 0);
 			if (LOGGER.isLoggable(Level.FINE)) {
 				LOGGER.fine(String.format("Send response %s: %s",
-						printSession(session), sJson));
+						printSession(session), json));
 			}
-			isOk = true;
 		}
 		catch (Throwable e) {
 			LOGGER.log(Level.SEVERE, "Error while sending a response in " + printSession(session), e);
 		}
+		recordEvent(WrsEventRing.KIND_OUT, type, isOk ? (isSuccess ? WrsEventRing.OUTCOME_OK : WrsEventRing.OUTCOME_REJECTED)
+				: WrsEventRing.OUTCOME_ERROR, null, size);
 		return isOk;
 	}
 
@@ -739,6 +1889,7 @@ public class WebSocketWrs {
 			final String attrName, final String attrWert,
 			final String attr2Name, final String attr2Wert) {
 		boolean isOk = false;
+		int size = 0;
 		if (LOGGER.isLoggable(Level.INFO)) {
 			LOGGER.info(String.format("sendeAntwort: session=%s, type=%s, isSuccess=%s, %s=%s",
 					printSession(session), type, Boolean.toString(isSuccess),
@@ -751,32 +1902,221 @@ public class WebSocketWrs {
 				.add(attrName, attrWert)
 				.add(attr2Name, attr2Wert)
 				.build();
-			final String sJson = json.toString();
-			session.getRemote().sendStringByFuture(sJson);
+			size = writeJson(session, json);
+			isOk = (size >= 0);
 			if (LOGGER.isLoggable(Level.FINE)) {
 				LOGGER.fine(String.format("Send response in session %s: %s",
-						printSession(session), sJson));
+						printSession(session), json));
 			}
-			isOk = true;
 		}
 		catch (Throwable e) {
 			// Beispielsweise kam eine NullPointerException aus dem ZipDeflater wegen einer geschlossenen WebSocket-Verbindung vor.
+			// Seitdem wird vor dem Senden geprüft, ob die Verbindung noch offen ist.
 			LOGGER.log(Level.SEVERE, "Error while sending response in session " + printSession(session), e);
 		}
+		recordEvent(WrsEventRing.KIND_OUT, type, isOk ? (isSuccess ? WrsEventRing.OUTCOME_OK : WrsEventRing.OUTCOME_REJECTED)
+				: WrsEventRing.OUTCOME_ERROR, null, size);
+		return isOk;
+	}
+
+	/**
+	 * Sends an already serialized JSON-message.
+	 * @param session WebSocket-session
+	 * @param sJson JSON-message
+	 * @return <code>true</code> if successful, <code>false</code> if unsuccessful
+	 */
+	private boolean sendeJson(final Session session, final String sJson) {
+		boolean isOk = false;
+		try {
+			if (isOpen(session)) {
+				isOk = writeText(session, sJson);
+			}
+		}
+		catch (Throwable e) {
+			LOGGER.log(Level.SEVERE, "Error while sending a message to " + printSession(session), e);
+		}
 		return isOk;
 	}
 
+	/**
+	 * Sends an already encoded binary message.
+	 * @param session WebSocket-session
+	 * @param abMsgPack binary message, the array is not modified
+	 * @return <code>true</code> if successful, <code>false</code> if unsuccessful
+	 */
+	private boolean sendeBinaer(final Session session, final byte[] abMsgPack) {
+		boolean isOk = false;
+		try {
+			if (isOpen(session)) {
+				isOk = writeBinary(session, abMsgPack);
+			}
+		}
+		catch (Throwable e) {
+			LOGGER.log(Level.SEVERE, "Error while sending a binary message to " + printSession(session), e);
+		}
+		return isOk;
+	}
+
+	/**
+	 * Writes a text-message asynchronously.
+	 * The message is counted in the memory-budget until its completion,
+	 * the completion is reported as flight-recorder-event if enabled.
+	 * @param session WebSocket-session
+	 * @param text message
+	 * @return <code>false</code> if the message isn't sent, the memory-budget is exhausted
+	 */
+	private static boolean writeText(final Session session, final String text) {
+		if (!WrsMemoryBudget.acquireSend(text.length())) {
+			return false;
+		}
+		final SendCallback callback = new SendCallback(WrsEvents.beginSend(), text.length(), false);
+		try {
+			session.getRemote().sendString(text, callback);
+		}
+		catch (RuntimeException e) {
+			callback.writeFailed(e);
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a binary message asynchronously.
+	 * The message is counted in the memory-budget until its completion,
+	 * the completion is reported as flight-recorder-event if enabled.
+	 * @param session WebSocket-session
+	 * @param buf message, the array is not modified
+	 * @return <code>false</code> if the message isn't sent, the memory-budget is exhausted
+	 */
+	private static boolean writeBinary(final Session session, final byte[] buf) {
+		if (!WrsMemoryBudget.acquireSend(buf.length)) {
+			return false;
+		}
+		final SendCallback callback = new SendCallback(WrsEvents.beginSend(), buf.length, true);
+		try {
+			session.getRemote().sendBytes(ByteBuffer.wrap(buf), callback);
+		}
+		catch (RuntimeException e) {
+			callback.writeFailed(e);
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Heartbeat of a connection.
+	 */
+	static class Heartbeat {
+		/** number of pings without pong */
+		final AtomicInteger fMissed = new AtomicInteger();
+		/** queue of the connection, it sends the pings */
+		final WrsDispatcher.ConnectionQueue fQueue;
+
+		/**
+		 * Constructor
+		 * @param queue queue of the connection
+		 */
+		Heartbeat(final WrsDispatcher.ConnectionQueue queue) {
+			fQueue = queue;
+		}
+	}
+
+	/**
+	 * Releases the memory-budget and commits the send-event at the completion of a write.
+	 * The bytes of the payload have been acquired by the writer.
+	 */
+	static class SendCallback extends AtomicBoolean implements WriteCallback {
+		private static final long serialVersionUID = 1L;
+		private final Object fEvent;
+		private final int fPayloadSize;
+		private final boolean fIsBinary;
+		SendCallback(final Object event, final int payloadSize, final boolean isBinary) {
+			fEvent = event;
+			fPayloadSize = payloadSize;
+			fIsBinary = isBinary;
+		}
+		@Override
+		public void writeSuccess() {
+			complete(true);
+		}
+		@Override
+		public void writeFailed(final Throwable x) {
+			complete(false);
+		}
+		/**
+		 * Completes the write once (a failing send may report its error twice).
+		 * @param success <code>true</code> if the write succeeded
+		 */
+		private void complete(final boolean success) {
+			if (compareAndSet(false, true)) {
+				WrsMemoryBudget.release(fPayloadSize);
+				WrsEvents.commitSend(fEvent, fPayloadSize, fIsBinary, success);
+			}
+		}
+	}
+
+	/**
+	 * Writes a JSON-message in the encoding negotiated by the websocket-session.
+	 * @param session WebSocket-session
+	 * @param json message
+	 * @return size of the message (characters or bytes), -1 if the session is closed or the memory-budget is exhausted
+	 */
+	private static int writeJson(final Session session, final JsonObject json) {
+		if (!isOpen(session)) {
+			return -1;
+		}
+		if (isBinaryProtocol(session)) {
+			final byte[] abMsgPack = WrsMsgPack.encode(json);
+			return writeBinary(session, abMsgPack) ? abMsgPack.length : -1;
+		}
+		final String text = json.toString();
+		return writeText(session, text) ? text.length() : -1;
+	}
+
+	/**
+	 * Appends an event of this connection to the event-ring.
+	 * @param kind kind of event
+	 * @param type type of message or <code>null</code>
+	 * @param outcome outcome
+	 * @param user user-name or <code>null</code>
+	 * @param size size of the message
+	 */
+	private void recordEvent(final byte kind, final String type, final byte outcome, final String user, final int size) {
+		if (fEventRing != null) {
+			fEventRing.record(kind, type, outcome, fTraceId, fRoomId, user, size);
+		}
+	}
+
+	/**
+	 * Checks if a websocket-session is open.
+	 * Writing into a closed session may fail in the deflater.
+	 * @param session WebSocket-session
+	 * @return <code>true</code> if open
+	 */
+	private static boolean isOpen(final Session session) {
+		final boolean isOpen = session.isOpen();
+		if (!isOpen && LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine("Session is closed: " + printSession(session));
+		}
+		return isOpen;
+	}
+
+	/**
+	 * Checks if the client has chosen the binary encoding at connect.
+	 * @param session WebSocket-session
+	 * @return <code>true</code> in case of binary messages, <code>false</code> in case of JSON-text
+	 */
+	static boolean isBinaryProtocol(final Session session) {
+		final UpgradeResponse response = session.getUpgradeResponse();
+		return response != null && WrsMsgPack.PROTOCOL_MSGPACK.equals(response.getAcceptedSubProtocol());
+	}
+
 	/**
 	 * Increments a statistics-field.
 	 * @param key key of the field
 	 */
 	private void updateStatistics(final String key) {
-		if (key != null) {
-			final AtomicLong counter = MAP_STATISTICS.get(key);
-			if (counter != null) {
-				counter.incrementAndGet();
-			}
-		}
+		fTenant.updateStatistics(key);
 	}
 	
 	/**
@@ -0,0 +1,202 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Admin-endpoint showing the heavy hitters (rooms and remote-addresses) of the server (/admin/heavy-hitters)
+ * the latencies of the call-setups (/admin/call-latency), the media-statistics of the clients (/admin/media-stats)
+ * and a dump of the event-ring (/admin/event-ring, see {@link WrsEventRingDecoder}).
+ * The endpoint is disabled unless the property wrs.admin_token is set,
+ * a request has to send the header "Authorization: Bearer &lt;token&gt;".
+ * Rooms and addresses are shown anonymized.
+ */
+public class WrsAdminServlet extends HttpServlet {
+
+	/** Serialization-Id */
+	private static final long serialVersionUID = 20201019L;
+
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsAdminServlet.class.getName());
+
+	/** path of the latencies of the call-setups */
+	private static final String PATH_CALL_LATENCY = "/admin/call-latency";
+
+	/** path of the media-statistics */
+	private static final String PATH_MEDIA_STATS = "/admin/media-stats";
+
+	/** path of the dump of the event-ring */
+	private static final String PATH_EVENT_RING = "/admin/event-ring";
+
+	/** prefix of the authorization-header */
+	private static final String PREFIX_BEARER = "Bearer ";
+
+	/** {@inheritDoc} */
+	@Override
+	protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		final String token = config.getAdminToken();
+		if (token == null || token.isEmpty()) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final String auth = req.getHeader("Authorization");
+		final String reqToken = (auth != null && auth.startsWith(PREFIX_BEARER)) ? auth.substring(PREFIX_BEARER.length()) : "";
+		// The comparison doesn't depend on the position of the first difference.
+		if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), reqToken.getBytes(StandardCharsets.UTF_8))) {
+			LOGGER.warning("Admin-request with invalid token from " + req.getRemoteAddr().replaceAll("[0-9a-fA-F]+$", "[...]"));
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+
+		if (PATH_EVENT_RING.equals(req.getServletPath())) {
+			dumpEventRing(resp);
+			return;
+		}
+
+		final String json;
+		if (PATH_CALL_LATENCY.equals(req.getServletPath())) {
+			json = buildCallLatency();
+		}
+		else if (PATH_MEDIA_STATS.equals(req.getServletPath())) {
+			json = buildMediaStats();
+		}
+		else {
+			json = buildHeavyHitters(config);
+		}
+
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-store");
+		try (final Writer writer = resp.getWriter()) {
+			writer.write(json);
+		}
+	}
+
+	/**
+	 * Sends a dump of the event-ring.
+	 * @param resp response
+	 * @throws IOException in case of an I/O-error
+	 */
+	private static void dumpEventRing(final HttpServletResponse resp) throws IOException {
+		final WrsEventRing eventRing = WrsEventRing.getInstance();
+		if (eventRing == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		resp.setContentType("application/octet-stream");
+		resp.setHeader("Content-Disposition", "attachment; filename=\"wrs-events" + WrsEventRing.SUFFIX + "\"");
+		resp.setHeader("Cache-Control", "no-store");
+		try (final OutputStream os = resp.getOutputStream()) {
+			final int numRecords = eventRing.dump(os);
+			LOGGER.info(String.format("Event-ring: %d records sent to the admin-endpoint", Integer.valueOf(numRecords)));
+		}
+	}
+
+	/**
+	 * Builds the heavy hitters.
+	 * @param config current configuration
+	 * @return JSON-text
+	 */
+	private static String buildHeavyHitters(final WrsConfiguration config) {
+		final JsonObjectBuilder trackers = Json.createObjectBuilder();
+		for (final Entry<String, WrsHeavyHitters> entryTracker : WrsHeavyHitters.TRACKERS.entrySet()) {
+			final boolean isRoom = entryTracker.getKey().startsWith("room");
+			final List<Entry<String, Long>> listTopK = entryTracker.getValue().getTopK();
+			final JsonArrayBuilder array = Json.createArrayBuilder();
+			for (final Entry<String, Long> entry : listTopK) {
+				// The keys of rooms are session-ids, the keys of addresses are anonymized already.
+				array.add(Json.createObjectBuilder()
+						.add("key", isRoom ? WrsEvents.anonymize(entry.getKey()) : entry.getKey())
+						.add("count", entry.getValue().longValue()));
+			}
+			trackers.add(entryTracker.getKey(), array);
+		}
+		return Json.createObjectBuilder()
+				.add("window", config.getHeavyHitterWindow().toString())
+				.add("throttleAddressMessages", config.getThrottleAddressMessages())
+				.add("throttleRoomMessages", config.getThrottleRoomMessages())
+				.add("trackers", trackers)
+				.build().toString();
+	}
+
+	/**
+	 * Builds the latency-histograms of the call-setups.
+	 * @return JSON-text
+	 */
+	private static String buildCallLatency() {
+		final JsonArrayBuilder bounds = Json.createArrayBuilder();
+		for (final long bound : WrsLatencyHistogram.BOUNDS_MILLIS) {
+			bounds.add(bound);
+		}
+		final JsonObjectBuilder stages = Json.createObjectBuilder();
+		for (final Entry<String, WrsLatencyHistogram> entry : WrsCallTracker.HISTOGRAMS.entrySet()) {
+			final WrsLatencyHistogram histogram = entry.getValue();
+			final JsonArrayBuilder counts = Json.createArrayBuilder();
+			for (final long count : histogram.getCounts()) {
+				counts.add(count);
+			}
+			stages.add(entry.getKey(), Json.createObjectBuilder()
+					.add("count", histogram.getCount())
+					.add("avgMillis", histogram.getAverageMillis())
+					.add("p50Millis", histogram.getPercentileMillis(0.5))
+					.add("p95Millis", histogram.getPercentileMillis(0.95))
+					.add("p99Millis", histogram.getPercentileMillis(0.99))
+					.add("maxMillis", histogram.getMaxMillis())
+					.add("counts", counts));
+		}
+		return Json.createObjectBuilder()
+				.add("boundsMillis", bounds)
+				.add("activeCallSetups", WrsCallTracker.getActiveCalls())
+				.add("stages", stages)
+				.build().toString();
+	}
+
+	/**
+	 * Builds the rolling aggregates of the media-statistics.
+	 * @return JSON-text
+	 */
+	private static String buildMediaStats() {
+		final long tsNow = System.currentTimeMillis();
+		final JsonObjectBuilder rooms = Json.createObjectBuilder();
+		for (final Entry<String, WrsMediaStats.Window> entry : WrsMediaStats.getRooms().entrySet()) {
+			rooms.add(entry.getKey(), buildMediaWindow(entry.getValue(), tsNow));
+		}
+		return Json.createObjectBuilder()
+				.add("windowMinutes", WrsMediaStats.SLOTS * WrsMediaStats.SLOT_MILLIS / 60000)
+				.add("fleet", buildMediaWindow(WrsMediaStats.FLEET, tsNow))
+				.add("rooms", rooms)
+				.build().toString();
+	}
+
+	/**
+	 * Builds the aggregates of a window.
+	 * @param window window
+	 * @param tsNow current time in milliseconds
+	 * @return JSON-object
+	 */
+	private static JsonObjectBuilder buildMediaWindow(final WrsMediaStats.Window window, final long tsNow) {
+		final long[] sums = window.sum(tsNow);
+		return Json.createObjectBuilder()
+				.add("reports", sums[WrsMediaStats.F_REPORTS])
+				.add("avgRttMillis", WrsMediaStats.avg(sums, WrsMediaStats.F_RTT_SUM, WrsMediaStats.F_RTT_COUNT))
+				.add("avgLossPermille", WrsMediaStats.avg(sums, WrsMediaStats.F_LOSS_SUM, WrsMediaStats.F_LOSS_COUNT))
+				.add("avgKbps", WrsMediaStats.avg(sums, WrsMediaStats.F_KBPS_SUM, WrsMediaStats.F_KBPS_COUNT))
+				.add("pairsHost", sums[WrsMediaStats.F_PAIR_HOST])
+				.add("pairsStun", sums[WrsMediaStats.F_PAIR_SRFLX])
+				.add("pairsTurn", sums[WrsMediaStats.F_PAIR_RELAY]);
+	}
+}
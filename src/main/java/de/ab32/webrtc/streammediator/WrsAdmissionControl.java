@@ -0,0 +1,143 @@
+package de.ab32.webrtc.streammediator;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Adaptive admission-control of new connects and call-setups (CoDel-style).
+ *
+ * <p>The queueing-delay (sojourn-time) of each message in the queue of its connection is measured.
+ * If the smallest delay of an interval exceeds the target there is a standing queue:
+ * the node is saturated, a burst alone doesn't drain that slowly. While the node is overloaded
+ * new connects and new calls are rejected with a retry-after-hint, so the calls in progress keep
+ * a good latency instead of all calls degrading together.</p>
+ *
+ * <p>An interval without messages ends the overload, there is no queue then.</p>
+ */
+public class WrsAdmissionControl {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsAdmissionControl.class.getName());
+
+	/** queueing-delays of the messages */
+	static final WrsLatencyHistogram SOJOURN = new WrsLatencyHistogram();
+
+	/** handling-times of the messages */
+	static final WrsLatencyHistogram HANDLING = new WrsLatencyHistogram();
+
+	/** generator of the jitter of retry-after-hints */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** start of the current interval (nanoTime) */
+	private static final AtomicLong TS_INTERVAL = new AtomicLong(System.nanoTime());
+
+	/** smallest queueing-delay of the current interval in nanoseconds */
+	private static final AtomicLong MIN_SOJOURN = new AtomicLong(Long.MAX_VALUE);
+
+	/** start of the current overload (nanoTime), 0 if the node isn't overloaded */
+	private static final AtomicLong TS_OVERLOAD = new AtomicLong();
+
+	/** number of rejected connects */
+	private static final AtomicLong REJECTED_CONNECTS = new AtomicLong();
+
+	/** number of rejected calls */
+	private static final AtomicLong REJECTED_CALLS = new AtomicLong();
+
+	/**
+	 * Constructor
+	 */
+	private WrsAdmissionControl() {
+		// static methods only
+	}
+
+	/**
+	 * Records the handling of a message.
+	 * @param sojournNanos time the message waited in the queue of its connection
+	 * @param handlingNanos time of the handling
+	 */
+	static void record(final long sojournNanos, final long handlingNanos) {
+		SOJOURN.record(TimeUnit.NANOSECONDS.toMillis(sojournNanos));
+		HANDLING.record(TimeUnit.NANOSECONDS.toMillis(handlingNanos));
+		MIN_SOJOURN.accumulateAndGet(sojournNanos, Math::min);
+
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		final long tsNow = System.nanoTime();
+		final long tsInterval = TS_INTERVAL.get();
+		if (tsNow - tsInterval >= Duration.from(config.getAdmissionInterval()).toNanos()
+				&& TS_INTERVAL.compareAndSet(tsInterval, tsNow)) {
+			// End of the interval: Only the thread which won the CAS evaluates it.
+			final long minSojourn = MIN_SOJOURN.getAndSet(Long.MAX_VALUE);
+			final long targetNanos = Duration.from(config.getAdmissionTarget()).toNanos();
+			final boolean isOverloaded = targetNanos > 0 && minSojourn > targetNanos;
+			final long tsOverload = TS_OVERLOAD.get();
+			if (isOverloaded && tsOverload == 0) {
+				TS_OVERLOAD.set(tsNow);
+				LOGGER.warning(String.format("Overload: min. queueing-delay %d ms > target %d ms, new connects and calls are deferred",
+						Long.valueOf(TimeUnit.NANOSECONDS.toMillis(minSojourn)), Long.valueOf(TimeUnit.NANOSECONDS.toMillis(targetNanos))));
+			}
+			else if (!isOverloaded && tsOverload != 0) {
+				TS_OVERLOAD.set(0);
+				LOGGER.info(String.format("Overload ended after %d ms",
+						Long.valueOf(TimeUnit.NANOSECONDS.toMillis(tsNow - tsOverload))));
+			}
+		}
+	}
+
+	/**
+	 * Checks if the node is overloaded.
+	 * @return <code>true</code> if the last interval had a standing queue
+	 */
+	static boolean isOverloaded() {
+		if (TS_OVERLOAD.get() == 0) {
+			return false;
+		}
+		// Without messages there isn't any queue, the overload has ended.
+		final long intervalNanos = Duration.from(WrsConfiguration.getInstance().getAdmissionInterval()).toNanos();
+		return System.nanoTime() - TS_INTERVAL.get() < 2 * intervalNanos;
+	}
+
+	/**
+	 * Checks if a new connect is admitted, a rejected connect is counted.
+	 * @return <code>true</code> if the node isn't overloaded
+	 */
+	static boolean admitConnect() {
+		if (isOverloaded()) {
+			REJECTED_CONNECTS.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a new call is admitted, a rejected call is counted.
+	 * @return <code>true</code> if the node isn't overloaded
+	 */
+	static boolean admitCall() {
+		if (isOverloaded()) {
+			REJECTED_CALLS.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Computes a retry-after-hint. The hint has a jitter, so rejected clients don't return all at once.
+	 * @return seconds, between the configured retry-after and its double
+	 */
+	static int getRetryAfterSeconds() {
+		final long retryAfterSecs = Math.max(1, Duration.from(WrsConfiguration.getInstance().getAdmissionRetryAfter()).getSeconds());
+		return (int) Math.min(Integer.MAX_VALUE, retryAfterSecs + RANDOM.nextInt((int) Math.min(retryAfterSecs, Integer.MAX_VALUE - 1) + 1));
+	}
+
+	/**
+	 * Gets a summary of the admission-control.
+	 * @return summary
+	 */
+	static String getSummary() {
+		return String.format("overloaded=%s, #rejectedConnects=%d, #rejectedCalls=%d, sojourn: %s, handling: %s",
+				Boolean.toString(isOverloaded()), Long.valueOf(REJECTED_CONNECTS.get()), Long.valueOf(REJECTED_CALLS.get()),
+				SOJOURN, HANDLING);
+	}
+}
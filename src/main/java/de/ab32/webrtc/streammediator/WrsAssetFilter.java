@@ -0,0 +1,195 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the precompressed variants (*.gz) of the static assets built by the pom (index.html, controller.&lt;hash&gt;.js).
+ * A fingerprinted asset never changes, it is cached immutable by the browser.
+ * index.html references the current fingerprint, so it is revalidated at each load.
+ *
+ * <p>Requests without a precompressed variant (e.g. in development or without gzip in Accept-Encoding)
+ * are passed to the container.</p>
+ */
+public class WrsAssetFilter implements Filter {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsAssetFilter.class.getName());
+
+	/** suffix of the precompressed variants */
+	private static final String SUFFIX_GZIP = ".gz";
+
+	/** welcome-file */
+	private static final String WELCOME_FILE = "index.html";
+
+	/** fingerprinted asset, e.g. controller.0123456789ab.js */
+	private static final Pattern PATTERN_FINGERPRINT = Pattern.compile(".*\\.[0-9a-f]{12}\\.js");
+
+	/** cache-control of fingerprinted assets */
+	private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+
+	/** cache-control of the other assets */
+	private static final String CACHE_REVALIDATE = "no-cache";
+
+	/** Map from path to precompressed asset */
+	private final ConcurrentMap<String, Asset> fMapAssets = new ConcurrentHashMap<>();
+
+	/** servlet-context */
+	private ServletContext fContext;
+
+	/** {@inheritDoc} */
+	@Override
+	public void init(final FilterConfig filterConfig) throws ServletException {
+		fContext = filterConfig.getServletContext();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void doFilter(final ServletRequest req, final ServletResponse resp, final FilterChain chain)
+			throws IOException, ServletException {
+		if (!(req instanceof HttpServletRequest && resp instanceof HttpServletResponse)) {
+			chain.doFilter(req, resp);
+			return;
+		}
+		final HttpServletRequest request = (HttpServletRequest) req;
+		final HttpServletResponse response = (HttpServletResponse) resp;
+		final String method = request.getMethod();
+		final String pathInfo = request.getPathInfo();
+		String path = request.getServletPath() + ((pathInfo != null) ? pathInfo : "");
+		if (path.endsWith("/")) {
+			path += WELCOME_FILE;
+		}
+		if (!("GET".equals(method) || "HEAD".equals(method)) || !(path.endsWith(".js") || path.endsWith(".html"))) {
+			chain.doFilter(req, resp);
+			return;
+		}
+		final String cacheControl = PATTERN_FINGERPRINT.matcher(path).matches() ? CACHE_IMMUTABLE : CACHE_REVALIDATE;
+		final Asset asset = isGzipAccepted(request.getHeader("Accept-Encoding")) ? getAsset(path) : null;
+		response.setHeader("Cache-Control", cacheControl);
+		response.setHeader("Vary", "Accept-Encoding");
+		if (asset == null) {
+			chain.doFilter(req, resp);
+			return;
+		}
+
+		response.setHeader("ETag", asset.fETag);
+		if (asset.fETag.equals(request.getHeader("If-None-Match"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		final String mimeType = fContext.getMimeType(path);
+		response.setContentType((mimeType != null) ? mimeType : "application/octet-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Content-Encoding", "gzip");
+		response.setContentLength(asset.fContent.length);
+		if ("GET".equals(method)) {
+			try (final OutputStream os = response.getOutputStream()) {
+				os.write(asset.fContent);
+			}
+		}
+	}
+
+	/**
+	 * Gets the precompressed variant of an asset.
+	 * Only existing variants are cached, so unknown paths don't fill the cache.
+	 * @param path path of the asset
+	 * @return asset or <code>null</code> if there is no precompressed variant
+	 * @throws IOException in case of an IO-error
+	 */
+	private Asset getAsset(final String path) throws IOException {
+		Asset asset = fMapAssets.get(path);
+		if (asset == null) {
+			try (final InputStream is = fContext.getResourceAsStream(path + SUFFIX_GZIP)) {
+				if (is == null) {
+					return null;
+				}
+				final ByteArrayOutputStream baos = new ByteArrayOutputStream(32768);
+				final byte[] buf = new byte[8192];
+				while (true) {
+					final int len = is.read(buf);
+					if (len < 0) {
+						break;
+					}
+					baos.write(buf, 0, len);
+				}
+				asset = new Asset(baos.toByteArray());
+			}
+			fMapAssets.putIfAbsent(path, asset);
+			if (LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(String.format("Precompressed asset: path=%s, size=%d, etag=%s",
+						path, Integer.valueOf(asset.fContent.length), asset.fETag));
+			}
+		}
+		return asset;
+	}
+
+	/**
+	 * Checks if the client accepts gzip.
+	 * @param acceptEncoding header Accept-Encoding or <code>null</code>
+	 * @return <code>true</code> if gzip is accepted
+	 */
+	static boolean isGzipAccepted(final String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (final String coding : acceptEncoding.split(",")) {
+			final String[] parts = coding.split(";");
+			final String name = parts[0].trim();
+			if ("gzip".equalsIgnoreCase(name) || "*".equals(name)) {
+				// A quality of 0 refuses the encoding, e.g. "gzip;q=0".
+				for (int i = 1; i < parts.length; i++) {
+					final String param = parts[i].trim();
+					if (param.startsWith("q=") && param.substring(2).matches("0(\\.0{0,3})?")) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void destroy() {
+		fMapAssets.clear();
+	}
+
+	/**
+	 * Precompressed content of an asset.
+	 */
+	static class Asset {
+		/** gzip-compressed content */
+		final byte[] fContent;
+		/** entity-tag of the content */
+		final String fETag;
+
+		/**
+		 * Constructor
+		 * @param content gzip-compressed content
+		 */
+		Asset(final byte[] content) {
+			fContent = content;
+			final CRC32 crc = new CRC32();
+			crc.update(content, 0, content.length);
+			fETag = String.format("\"%08x-%x-gz\"", Long.valueOf(crc.getValue()), Integer.valueOf(content.length));
+		}
+	}
+}
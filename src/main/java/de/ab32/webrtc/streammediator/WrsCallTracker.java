@@ -0,0 +1,192 @@
+package de.ab32.webrtc.streammediator;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies of the call-setup: requestCall, offer, answer and the report "connected" of a client.
+ * A call gets a call-id at requestCall, the clients echo it in the following messages.
+ *
+ * <p>Stages:
+ * ring (requestCall to offer, includes the acceptance by the user),
+ * negotiation (offer to answer),
+ * ice (answer to connected) and
+ * total (requestCall to connected).</p>
+ */
+public class WrsCallTracker {
+
+	/** stage requestCall to offer */
+	static final String STAGE_RING = "ring";
+	/** stage offer to answer */
+	static final String STAGE_NEGOTIATION = "negotiation";
+	/** stage answer to connected */
+	static final String STAGE_ICE = "ice";
+	/** stage requestCall to connected */
+	static final String STAGE_TOTAL = "total";
+
+	/** histograms by stage */
+	static final Map<String, WrsLatencyHistogram> HISTOGRAMS;
+
+	static {
+		final Map<String, WrsLatencyHistogram> mapHistograms = new LinkedHashMap<>();
+		for (final String stage : new String[] { STAGE_RING, STAGE_NEGOTIATION, STAGE_ICE, STAGE_TOTAL }) {
+			mapHistograms.put(stage, new WrsLatencyHistogram());
+		}
+		HISTOGRAMS = Collections.unmodifiableMap(mapHistograms);
+	}
+
+	/** maximal number of traced calls, further calls aren't traced */
+	private static final int MAX_CALLS = 10000;
+
+	/** maximal duration of a call-setup, older traces are removed */
+	private static final long MAX_SETUP_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+	/** generator of call-ids */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** Map from call-id to trace */
+	private static final ConcurrentMap<String, CallTrace> MAP_CALLS = new ConcurrentHashMap<>(100);
+
+	/**
+	 * Constructor
+	 */
+	private WrsCallTracker() {
+		// static methods only
+	}
+
+	/**
+	 * Starts the trace of a call (requestCall).
+	 * @return call-id or <code>null</code> if too many calls are traced
+	 */
+	static String startCall() {
+		if (MAP_CALLS.size() >= MAX_CALLS) {
+			return null;
+		}
+		final String callId = String.format("%016x", Long.valueOf(RANDOM.nextLong()));
+		MAP_CALLS.put(callId, new CallTrace(System.nanoTime()));
+		return callId;
+	}
+
+	/**
+	 * Records a routed message of a call.
+	 * @param callId call-id sent by the client or <code>null</code>
+	 * @param type type of message
+	 */
+	static void recordHop(final String callId, final String type) {
+		final CallTrace trace = (callId != null) ? MAP_CALLS.get(callId) : null;
+		if (trace == null) {
+			return;
+		}
+		if ("offer".equals(type)) {
+			trace.recordOffer(System.nanoTime());
+		}
+		else if ("answer".equals(type)) {
+			trace.recordAnswer(System.nanoTime());
+		}
+		else if ("rejectCall".equals(type) || "leave".equals(type)) {
+			MAP_CALLS.remove(callId);
+		}
+	}
+
+	/**
+	 * Records the report "connected" of a client, the trace of the call is completed.
+	 * @param callId call-id sent by the client or <code>null</code>
+	 * @return <code>true</code> if the call was known
+	 */
+	static boolean recordConnected(final String callId) {
+		final CallTrace trace = (callId != null) ? MAP_CALLS.remove(callId) : null;
+		if (trace == null) {
+			// The peer has reported the connection already.
+			return false;
+		}
+		trace.recordConnected(System.nanoTime());
+		return true;
+	}
+
+	/**
+	 * Removes the traces of call-setups which didn't complete.
+	 * @return number of removed traces
+	 */
+	static int expire() {
+		final long tsNow = System.nanoTime();
+		final int sizeBefore = MAP_CALLS.size();
+		MAP_CALLS.values().removeIf(trace -> tsNow - trace.fTsRequest > MAX_SETUP_NANOS);
+		return Math.max(0, sizeBefore - MAP_CALLS.size());
+	}
+
+	/**
+	 * Gets the number of call-setups in progress.
+	 * @return number of traced calls
+	 */
+	static int getActiveCalls() {
+		return MAP_CALLS.size();
+	}
+
+	/**
+	 * Records a latency.
+	 * @param stage stage
+	 * @param tsFrom start of the stage (nanoTime)
+	 * @param tsTo end of the stage (nanoTime)
+	 */
+	private static void record(final String stage, final long tsFrom, final long tsTo) {
+		HISTOGRAMS.get(stage).record(TimeUnit.NANOSECONDS.toMillis(tsTo - tsFrom));
+	}
+
+	/**
+	 * Timestamps of a call-setup, 0 if the hop hasn't been seen.
+	 */
+	static class CallTrace {
+		/** time of the requestCall */
+		final long fTsRequest;
+		/** time of the first offer */
+		private long fTsOffer;
+		/** time of the first answer */
+		private long fTsAnswer;
+
+		/**
+		 * Constructor
+		 * @param tsRequest time of the requestCall
+		 */
+		CallTrace(final long tsRequest) {
+			fTsRequest = tsRequest;
+		}
+
+		/**
+		 * Records the first offer.
+		 * @param tsNow current time
+		 */
+		synchronized void recordOffer(final long tsNow) {
+			if (fTsOffer == 0) {
+				fTsOffer = tsNow;
+				record(STAGE_RING, fTsRequest, tsNow);
+			}
+		}
+
+		/**
+		 * Records the first answer.
+		 * @param tsNow current time
+		 */
+		synchronized void recordAnswer(final long tsNow) {
+			if (fTsAnswer == 0 && fTsOffer != 0) {
+				fTsAnswer = tsNow;
+				record(STAGE_NEGOTIATION, fTsOffer, tsNow);
+			}
+		}
+
+		/**
+		 * Records the established connection.
+		 * @param tsNow current time
+		 */
+		synchronized void recordConnected(final long tsNow) {
+			if (fTsAnswer != 0) {
+				record(STAGE_ICE, fTsAnswer, tsNow);
+			}
+			record(STAGE_TOTAL, fTsRequest, tsNow);
+		}
+	}
+}
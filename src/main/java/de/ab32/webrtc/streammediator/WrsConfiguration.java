@@ -1,17 +1,61 @@
 package de.ab32.webrtc.streammediator;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * property-based configuration of the WebRTCServer.
+ * The properties are read from the system-properties, an optional properties-file (wrs.config_file)
+ * and overrides set by JMX. A modified file is reloaded, the new configuration is validated
+ * and swapped in atomically. Handlers see the new configuration at their next message.
  */
 public class WrsConfiguration {
 	
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsConfiguration.class.getName());
+
+	/** Name of the optional system-property declaring a properties-file which is watched for changes */
+	private static final String PROP_CONFIG_FILE = "wrs.config_file";
+	/** Name of the optional system-property declaring the interval of checks of the properties-file as ISO-8601-duration */
+	private static final String PROP_CONFIG_CHECK_INTERVAL = "wrs.config_check_interval";
+	/** prefix of the properties of the server */
+	private static final String PROP_PREFIX = "wrs.";
+	/** object-name of the JMX-bean */
+	private static final String JMX_NAME = "de.ab32.webrtc.streammediator:type=WrsConfiguration";
+
 	/** Name of the optional property declaring the cleanup-interval as ISO-8601-duration */
 	private static final String PROP_CLEANUP_INTERVAL = "wrs.cleanup_interval";
 	/** Name of the optional property declaring the maximal of of a websocket-connection as ISO-8601-duration */
@@ -24,22 +68,519 @@ public class WrsConfiguration {
 	private static final String PROP_LOCALE = "wrs.locale";
 	/** Name of the optional property declaring the servers' time-zone */ 
 	private static final String PROP_TIME_ZONE = "wrs.time_zone";
+	/** Name of the optional property enabling the binary protocol (subprotocol wrs.msgpack) */
+	private static final String PROP_BINARY_PROTOCOL = "wrs.binary_protocol";
+	/** Name of the optional property enabling the websocket-extension permessage-deflate */
+	private static final String PROP_DEFLATE = "wrs.deflate";
+	/** Name of the optional property declaring the compression-level (0-9, -1 is the default of the deflater) */
+	private static final String PROP_DEFLATE_LEVEL = "wrs.deflate_level";
+	/** Name of the optional property enabling the context-takeover of the server's deflater */
+	private static final String PROP_DEFLATE_CONTEXT_TAKEOVER = "wrs.deflate_context_takeover";
+	/** Name of the optional property declaring the minimal size of a compressed message in bytes */
+	private static final String PROP_DEFLATE_MIN_SIZE = "wrs.deflate_min_size";
+	/** Name of the optional property declaring the dispatch-mode of messages (inline, pool, room or virtual) */
+	private static final String PROP_DISPATCH_MODE = "wrs.dispatch_mode";
+	/** Name of the optional property declaring the number of dispatch-threads */
+	private static final String PROP_DISPATCH_THREADS = "wrs.dispatch_threads";
+	/** Name of the optional property declaring the maximal number of queued messages of a connection */
+	private static final String PROP_DISPATCH_QUEUE_MESSAGES = "wrs.dispatch_queue_messages";
+	/** Name of the optional property declaring the maximal bytes of queued messages of a connection */
+	private static final String PROP_DISPATCH_QUEUE_BYTES = "wrs.dispatch_queue_bytes";
+	/** Name of the optional property declaring the interval of pings as ISO-8601-duration (PT0S disables the heartbeat) */
+	private static final String PROP_HEARTBEAT_INTERVAL = "wrs.heartbeat_interval";
+	/** Name of the optional property declaring the number of missed pongs before a session is evicted */
+	private static final String PROP_HEARTBEAT_MAX_MISSED = "wrs.heartbeat_max_missed";
+	/** Name of the optional property declaring the codecs to be removed from relayed SDPs (comma-separated, e.g. "red,ulpfec") */
+	private static final String PROP_SDP_STRIP_CODECS = "wrs.sdp_strip_codecs";
+	/** Name of the optional property declaring the URIs of header-extensions to be removed from relayed SDPs (comma-separated) */
+	private static final String PROP_SDP_STRIP_EXTMAPS = "wrs.sdp_strip_extmaps";
+	/** Name of the optional property declaring the preferred codecs in relayed SDPs (comma-separated, e.g. "VP8,H264") */
+	private static final String PROP_SDP_CODEC_ORDER = "wrs.sdp_codec_order";
+	/** Name of the optional property declaring the maximal bitrate of video in relayed SDPs in kbit/s */
+	private static final String PROP_SDP_MAX_BITRATE_VIDEO = "wrs.sdp_max_bitrate_video";
+	/** Name of the optional property declaring the types of ICE-candidates not to be relayed (comma-separated, e.g. "host,prflx") */
+	private static final String PROP_CANDIDATE_DROP_TYPES = "wrs.candidate_drop_types";
+	/** Name of the optional property declaring the transports of ICE-candidates not to be relayed (comma-separated, e.g. "tcp") */
+	private static final String PROP_CANDIDATE_DROP_TRANSPORTS = "wrs.candidate_drop_transports";
+	/** Name of the optional property declaring the path-prefix of trace-files of inbound messages (recording is disabled by default) */
+	private static final String PROP_TRACE_FILE = "wrs.trace_file";
+	/** Name of the optional property declaring the size of a trace-file in bytes */
+	private static final String PROP_TRACE_FILE_SIZE = "wrs.trace_file_size";
+	/** Name of the optional property declaring the number of rotating trace-files */
+	private static final String PROP_TRACE_FILES = "wrs.trace_files";
+	/** Name of the optional property declaring the window of the heavy-hitter-tracking as ISO-8601-duration */
+	private static final String PROP_HEAVY_HITTER_WINDOW = "wrs.heavy_hitter_window";
+	/** Name of the optional property declaring the maximal number of messages of a remote-address per window (0 is unlimited) */
+	private static final String PROP_THROTTLE_ADDRESS_MESSAGES = "wrs.throttle_address_messages";
+	/** Name of the optional property declaring the maximal number of messages of a room per window (0 is unlimited) */
+	private static final String PROP_THROTTLE_ROOM_MESSAGES = "wrs.throttle_room_messages";
+	/** Name of the optional property declaring the maximal number of messages kept for a disconnected user (0 disables the mailbox) */
+	private static final String PROP_MAILBOX_MAX_MESSAGES = "wrs.mailbox_max_messages";
+	/** Name of the optional property declaring how long messages are kept for a disconnected user as ISO-8601-duration */
+	private static final String PROP_MAILBOX_MAX_AGE = "wrs.mailbox_max_age";
+	/** Name of the optional property declaring the UDP-port of the embedded STUN-responder (0 disables the responder) */
+	private static final String PROP_STUN_PORT = "wrs.stun_port";
+	/** Name of the optional property declaring the local address of the embedded STUN-responder (default is any address) */
+	private static final String PROP_STUN_BIND_ADDRESS = "wrs.stun_bind_address";
+	/** Name of the optional property declaring the comma-separated ICE-server-URLs sent to the clients (e.g. stun:stun.example.org:3478) */
+	private static final String PROP_ICE_SERVERS = "wrs.ice_servers";
+	/** Name of the optional property declaring the node-wide budget of in-flight signaling-buffers in bytes */
+	private static final String PROP_MEMORY_BUDGET = "wrs.memory_budget";
+	/** Name of the optional property declaring the target of the queueing-delay of messages as ISO-8601-duration (zero disables the admission-control) */
+	private static final String PROP_ADMISSION_TARGET = "wrs.admission_target";
+	/** Name of the optional property declaring the interval of the admission-control as ISO-8601-duration */
+	private static final String PROP_ADMISSION_INTERVAL = "wrs.admission_interval";
+	/** Name of the optional property declaring the retry-after-hint of rejected connects and calls as ISO-8601-duration */
+	private static final String PROP_ADMISSION_RETRY_AFTER = "wrs.admission_retry_after";
+	/** Name of the optional property declaring the interval of the summaries of the error-log as ISO-8601-duration */
+	private static final String PROP_ERROR_LOG_INTERVAL = "wrs.error_log_interval";
+	/** Name of the optional property declaring the number of logged samples (payload and stack-trace) per group of errors and interval */
+	private static final String PROP_ERROR_LOG_SAMPLES = "wrs.error_log_samples";
+	/** Name of the optional property declaring the number of records of the in-memory event-ring (0 disables the ring) */
+	private static final String PROP_EVENT_RING_SIZE = "wrs.event_ring_size";
+	/** Name of the optional property declaring the directory of dumps of the event-ring (default is java.io.tmpdir) */
+	private static final String PROP_EVENT_RING_DUMP_DIR = "wrs.event_ring_dump_dir";
+	/** Name of the optional property declaring the number of errors of an interval of the error-log which triggers a dump of the event-ring (0 disables these dumps) */
+	private static final String PROP_EVENT_RING_DUMP_ERRORS = "wrs.event_ring_dump_errors";
+	/** Name of the optional property declaring the minimal time between automatic dumps of the event-ring as ISO-8601-duration */
+	private static final String PROP_EVENT_RING_DUMP_INTERVAL = "wrs.event_ring_dump_interval";
+	/** Name of the optional property declaring the maximal number of dump-files kept in the dump-directory */
+	private static final String PROP_EVENT_RING_DUMP_FILES = "wrs.event_ring_dump_files";
+	/** Name of the optional property declaring the comma-separated tenants, host=tenant or /path=tenant (path of the websocket after /WebSocketServlet) */
+	private static final String PROP_TENANTS = "wrs.tenants";
+	/** Name of the optional property declaring the maximal number of connections of a tenant (suffix .&lt;tenant&gt; for a single tenant, 0 is unlimited) */
+	private static final String PROP_TENANT_MAX_CONNECTIONS = "wrs.tenant_max_connections";
+	/** Name of the optional property declaring the maximal number of messages per second of a tenant (suffix .&lt;tenant&gt; for a single tenant, 0 is unlimited) */
+	private static final String PROP_TENANT_MAX_MESSAGES = "wrs.tenant_max_messages";
+	/** Name of the optional property declaring the maximal handling-time of messages in milliseconds per second of a tenant (suffix .&lt;tenant&gt; for a single tenant, 0 is unlimited) */
+	private static final String PROP_TENANT_MAX_CPU = "wrs.tenant_max_cpu";
+	/** Name of the optional property declaring the token of the admin-endpoint (the endpoint is disabled by default) */
+	private static final String PROP_ADMIN_TOKEN = "wrs.admin_token";
 
+	/** properties of this configuration */
+	private final Properties fProperties;
 	/** starting-interval of the cleanup-task (default is 10 minutes) */
-	private final TemporalAmount fCleanupInterval = getDuration(PROP_CLEANUP_INTERVAL, Duration.of(10, ChronoUnit.MINUTES));
+	private final TemporalAmount fCleanupInterval;
 	/** max age of a websocket-session (default is 6 hours) */
-	private final TemporalAmount fMaxAgeWebsocket = getDuration(PROP_MAX_AGE_WEBSOCKET, Duration.of(6, ChronoUnit.HOURS));
+	private final TemporalAmount fMaxAgeWebsocket;
 	/** statistics (default every hour) */
-	private final TemporalAmount fStatisticsInterval = getDuration(PROP_STATISTICS_INTERVAL, Duration.of(1, ChronoUnit.HOURS));
+	private final TemporalAmount fStatisticsInterval;
 	/** idle-timeout of web-socket-sessions (default is 30 minutes) */
-	private final TemporalAmount fWebSocketIdleTimeout = getDuration(PROP_WEBSOCKET_IDLE_TIMEOUT, Duration.of(30, ChronoUnit.MINUTES));
+	private final TemporalAmount fWebSocketIdleTimeout;
 	/** locale used to bring strings into lower-case */
-	private final Locale fLocale = getLocale(PROP_LOCALE, Locale.GERMAN);
+	private final Locale fLocale;
 	/** local time-zone (default is Europe/Berlins) */
-	private final ZoneId fTimeZone = ZoneId.of(getString(PROP_TIME_ZONE, "Europe/Berlin"));
+	private final ZoneId fTimeZone;
+	/** <code>true</code> if clients may choose the binary protocol (default is true) */
+	private final boolean fBinaryProtocol;
+	/** <code>true</code> if messages may be compressed by permessage-deflate (default is true) */
+	private final boolean fDeflate;
+	/** compression-level of permessage-deflate (default is -1, the default-level of the deflater) */
+	private final int fDeflateLevel;
+	/** <code>true</code> if the server's deflater keeps its context between messages (default is true) */
+	private final boolean fDeflateContextTakeover;
+	/** smaller messages (e.g. candidates) are sent uncompressed (default is 256 bytes) */
+	private final int fDeflateMinSize;
+	/** dispatch-mode of messages (default is pool) */
+	private final String fDispatchMode;
+	/** number of dispatch-threads (default is the number of processors) */
+	private final int fDispatchThreads;
+	/** maximal number of queued messages of a connection, a connection over the limit is closed (default is 256) */
+	private final int fDispatchQueueMessages;
+	/** maximal bytes of queued messages of a connection, a connection over the limit is closed (default is 1 MiB) */
+	private final int fDispatchQueueBytes;
+	/** interval of pings (default is 10 seconds) */
+	private final TemporalAmount fHeartbeatInterval;
+	/** number of missed pongs before a session is evicted (default is 3) */
+	private final int fHeartbeatMaxMissed;
+	/** filter of relayed SDPs (default is none) */
+	private final WrsSdpFilter fSdpFilter;
+	/** lower-case types of ICE-candidates not to be relayed (default is none) */
+	private final Set<String> fCandidateDropTypes;
+	/** lower-case transports of ICE-candidates not to be relayed (default is none) */
+	private final Set<String> fCandidateDropTransports;
+	/** path-prefix of trace-files (default is none) */
+	private final String fTraceFile;
+	/** size of a trace-file (default is 64 MiB) */
+	private final int fTraceFileSize;
+	/** number of rotating trace-files (default is 4) */
+	private final int fTraceFiles;
+	/** window of the heavy-hitter-tracking, the counts are halved at its end (default is 1 minute) */
+	private final TemporalAmount fHeavyHitterWindow;
+	/** maximal number of messages of a remote-address per window (default is 0, unlimited) */
+	private final int fThrottleAddressMessages;
+	/** maximal number of messages of a room per window (default is 0, unlimited) */
+	private final int fThrottleRoomMessages;
+	/** maximal number of messages kept for a disconnected user (default is 32) */
+	private final int fMailboxMaxMessages;
+	/** time messages are kept for a disconnected user, also the grace-period of its registration (default is 30 seconds) */
+	private final TemporalAmount fMailboxMaxAge;
+	/** UDP-port of the embedded STUN-responder (default is 0, disabled) */
+	private final int fStunPort;
+	/** local address of the embedded STUN-responder (default is any address) */
+	private final String fStunBindAddress;
+	/** ICE-server-URLs sent to the clients (default are the STUN-servers of ab32.de) */
+	private final List<String> fIceServers;
+	/** budget of in-flight signaling-buffers in bytes (default is 64 MiB, at most a quarter of the heap) */
+	private final int fMemoryBudget;
+	/** target of the queueing-delay of messages (default is 50 milliseconds) */
+	private final TemporalAmount fAdmissionTarget;
+	/** interval of the admission-control, the smallest queueing-delay of an interval is compared to the target (default is 1 second) */
+	private final TemporalAmount fAdmissionInterval;
+	/** retry-after-hint of rejected connects and calls, a jitter is added (default is 5 seconds) */
+	private final TemporalAmount fAdmissionRetryAfter;
+	/** interval of the summaries of the error-log (default is 1 minute) */
+	private final TemporalAmount fErrorLogInterval;
+	/** number of logged samples per group of errors and interval (default is 1) */
+	private final int fErrorLogSamples;
+	/** number of records of the event-ring (default is 65536) */
+	private final int fEventRingSize;
+	/** directory of dumps of the event-ring (default is java.io.tmpdir) */
+	private final String fEventRingDumpDir;
+	/** number of errors of an interval which triggers a dump of the event-ring (default is 1000) */
+	private final int fEventRingDumpErrors;
+	/** minimal time between automatic dumps of the event-ring (default is 15 minutes) */
+	private final TemporalAmount fEventRingDumpInterval;
+	/** maximal number of dump-files, the oldest ones are deleted (default is 10) */
+	private final int fEventRingDumpFiles;
+	/** map from host or /path to tenant (default is empty, all connections belong to the default-tenant) */
+	private final Map<String, String> fTenants;
+	/** maximal number of connections by tenant, key "" is the default (default is unlimited) */
+	private final Map<String, Integer> fTenantMaxConnections;
+	/** maximal number of messages per second by tenant, key "" is the default (default is unlimited) */
+	private final Map<String, Integer> fTenantMaxMessages;
+	/** maximal handling-time in milliseconds per second by tenant, key "" is the default (default is unlimited) */
+	private final Map<String, Integer> fTenantMaxCpu;
+	/** token of the admin-endpoint (default is none) */
+	private final String fAdminToken;
+
+	/**
+	 * Listener of changes of the configuration.
+	 */
+	public interface Listener {
+		/**
+		 * Called after a new configuration has been activated.
+		 * @param oldConfig previous configuration
+		 * @param newConfig new configuration
+		 */
+		void configurationChanged(WrsConfiguration oldConfig, WrsConfiguration newConfig);
+	}
+
+	/** properties set by JMX, they override the system-properties and the properties-file */
+	private static final ConcurrentMap<String, String> MAP_OVERRIDES = new ConcurrentHashMap<>();
+
+	/** listeners of changes */
+	private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	/** last-modified-time of the properties-file at the last load */
+	private static final AtomicLong TS_CONFIG_FILE = new AtomicLong();
 
 	/** current configuration */
-	private static final AtomicReference<WrsConfiguration> CONFIG = new AtomicReference<WrsConfiguration>(new WrsConfiguration());
+	private static final AtomicReference<WrsConfiguration> CONFIG = new AtomicReference<WrsConfiguration>(new WrsConfiguration(loadProperties()));
+
+	/**
+	 * Constructor, the properties are validated.
+	 * @param props properties
+	 * @throws IllegalArgumentException in case of an invalid property
+	 */
+	WrsConfiguration(final Properties props) {
+		fProperties = props;
+		fCleanupInterval = getDuration(props, PROP_CLEANUP_INTERVAL, Duration.of(10, ChronoUnit.MINUTES));
+		fMaxAgeWebsocket = getDuration(props, PROP_MAX_AGE_WEBSOCKET, Duration.of(6, ChronoUnit.HOURS));
+		fStatisticsInterval = getDuration(props, PROP_STATISTICS_INTERVAL, Duration.of(1, ChronoUnit.HOURS));
+		fWebSocketIdleTimeout = getDuration(props, PROP_WEBSOCKET_IDLE_TIMEOUT, Duration.of(30, ChronoUnit.MINUTES));
+		fLocale = getLocale(props, PROP_LOCALE, Locale.GERMAN);
+		fTimeZone = ZoneId.of(getString(props, PROP_TIME_ZONE, "Europe/Berlin"));
+		fBinaryProtocol = getBoolean(props, PROP_BINARY_PROTOCOL, true);
+		fDeflate = getBoolean(props, PROP_DEFLATE, true);
+		fDeflateLevel = getInteger(props, PROP_DEFLATE_LEVEL, -1);
+		fDeflateContextTakeover = getBoolean(props, PROP_DEFLATE_CONTEXT_TAKEOVER, true);
+		fDeflateMinSize = getInteger(props, PROP_DEFLATE_MIN_SIZE, 256);
+		fDispatchMode = getString(props, PROP_DISPATCH_MODE, WrsDispatcher.MODE_POOL);
+		fDispatchThreads = getInteger(props, PROP_DISPATCH_THREADS, Runtime.getRuntime().availableProcessors());
+		fDispatchQueueMessages = getInteger(props, PROP_DISPATCH_QUEUE_MESSAGES, 256);
+		fDispatchQueueBytes = getInteger(props, PROP_DISPATCH_QUEUE_BYTES, 1024 * 1024);
+		fHeartbeatInterval = getDuration(props, PROP_HEARTBEAT_INTERVAL, Duration.of(10, ChronoUnit.SECONDS));
+		fHeartbeatMaxMissed = getInteger(props, PROP_HEARTBEAT_MAX_MISSED, 3);
+		fSdpFilter = WrsSdpFilter.create(getList(props, PROP_SDP_STRIP_CODECS), getList(props, PROP_SDP_STRIP_EXTMAPS), getList(props, PROP_SDP_CODEC_ORDER), getInteger(props, PROP_SDP_MAX_BITRATE_VIDEO, 0));
+		fCandidateDropTypes = toLowerCaseSet(getList(props, PROP_CANDIDATE_DROP_TYPES));
+		fCandidateDropTransports = toLowerCaseSet(getList(props, PROP_CANDIDATE_DROP_TRANSPORTS));
+		fTraceFile = getString(props, PROP_TRACE_FILE, null);
+		fTraceFileSize = getInteger(props, PROP_TRACE_FILE_SIZE, 64 * 1024 * 1024);
+		fTraceFiles = getInteger(props, PROP_TRACE_FILES, 4);
+		fHeavyHitterWindow = getDuration(props, PROP_HEAVY_HITTER_WINDOW, Duration.of(1, ChronoUnit.MINUTES));
+		fThrottleAddressMessages = getInteger(props, PROP_THROTTLE_ADDRESS_MESSAGES, 0);
+		fThrottleRoomMessages = getInteger(props, PROP_THROTTLE_ROOM_MESSAGES, 0);
+		fMailboxMaxMessages = getInteger(props, PROP_MAILBOX_MAX_MESSAGES, 32);
+		fMailboxMaxAge = getDuration(props, PROP_MAILBOX_MAX_AGE, Duration.of(30, ChronoUnit.SECONDS));
+		fStunPort = getInteger(props, PROP_STUN_PORT, 0);
+		fStunBindAddress = getString(props, PROP_STUN_BIND_ADDRESS, null);
+		fIceServers = Collections.unmodifiableList((props.getProperty(PROP_ICE_SERVERS) != null) ? getList(props, PROP_ICE_SERVERS)
+				: Arrays.asList("stun:stun0.ab32.de:3478", "stun:stun1.ab32.de:3479"));
+		fMemoryBudget = getInteger(props, PROP_MEMORY_BUDGET, (int) Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4));
+		fAdmissionTarget = getDuration(props, PROP_ADMISSION_TARGET, Duration.of(50, ChronoUnit.MILLIS));
+		fAdmissionInterval = getDuration(props, PROP_ADMISSION_INTERVAL, Duration.of(1, ChronoUnit.SECONDS));
+		fAdmissionRetryAfter = getDuration(props, PROP_ADMISSION_RETRY_AFTER, Duration.of(5, ChronoUnit.SECONDS));
+		fErrorLogInterval = getDuration(props, PROP_ERROR_LOG_INTERVAL, Duration.of(1, ChronoUnit.MINUTES));
+		fErrorLogSamples = getInteger(props, PROP_ERROR_LOG_SAMPLES, 1);
+		fEventRingSize = getInteger(props, PROP_EVENT_RING_SIZE, 65536);
+		fEventRingDumpDir = getString(props, PROP_EVENT_RING_DUMP_DIR, null);
+		fEventRingDumpErrors = getInteger(props, PROP_EVENT_RING_DUMP_ERRORS, 1000);
+		fEventRingDumpInterval = getDuration(props, PROP_EVENT_RING_DUMP_INTERVAL, Duration.of(15, ChronoUnit.MINUTES));
+		fEventRingDumpFiles = getInteger(props, PROP_EVENT_RING_DUMP_FILES, 10);
+		fTenants = Collections.unmodifiableMap(getTenants(props));
+		fTenantMaxConnections = getTenantIntegers(props, PROP_TENANT_MAX_CONNECTIONS);
+		fTenantMaxMessages = getTenantIntegers(props, PROP_TENANT_MAX_MESSAGES);
+		fTenantMaxCpu = getTenantIntegers(props, PROP_TENANT_MAX_CPU);
+		fAdminToken = getString(props, PROP_ADMIN_TOKEN, null);
+		validate();
+	}
+
+	/**
+	 * Validates the configuration.
+	 * @throws IllegalArgumentException in case of an invalid value
+	 */
+	private void validate() {
+		checkPositive(PROP_CLEANUP_INTERVAL, fCleanupInterval);
+		checkPositive(PROP_MAX_AGE_WEBSOCKET, fMaxAgeWebsocket);
+		checkPositive(PROP_STATISTICS_INTERVAL, fStatisticsInterval);
+		checkPositive(PROP_WEBSOCKET_IDLE_TIMEOUT, fWebSocketIdleTimeout);
+		if (Duration.from(fHeartbeatInterval).isNegative()) {
+			throw new IllegalArgumentException(PROP_HEARTBEAT_INTERVAL + " is negative: " + fHeartbeatInterval);
+		}
+		checkRange(PROP_DEFLATE_LEVEL, fDeflateLevel, -1, 9);
+		checkRange(PROP_DEFLATE_MIN_SIZE, fDeflateMinSize, 0, Integer.MAX_VALUE);
+		checkRange(PROP_DISPATCH_THREADS, fDispatchThreads, 1, 1024);
+		checkRange(PROP_DISPATCH_QUEUE_MESSAGES, fDispatchQueueMessages, 1, 1000000);
+		// A message of the maximal length has to fit into the queue.
+		checkRange(PROP_DISPATCH_QUEUE_BYTES, fDispatchQueueBytes, 64 * 1024, Integer.MAX_VALUE);
+		checkRange(PROP_HEARTBEAT_MAX_MISSED, fHeartbeatMaxMissed, 1, 1000);
+		checkRange(PROP_TRACE_FILE_SIZE, fTraceFileSize, 64 * 1024, Integer.MAX_VALUE);
+		checkRange(PROP_TRACE_FILES, fTraceFiles, 1, 1000);
+		checkPositive(PROP_HEAVY_HITTER_WINDOW, fHeavyHitterWindow);
+		checkRange(PROP_THROTTLE_ADDRESS_MESSAGES, fThrottleAddressMessages, 0, Integer.MAX_VALUE);
+		checkRange(PROP_THROTTLE_ROOM_MESSAGES, fThrottleRoomMessages, 0, Integer.MAX_VALUE);
+		checkRange(PROP_MAILBOX_MAX_MESSAGES, fMailboxMaxMessages, 0, 10000);
+		checkPositive(PROP_MAILBOX_MAX_AGE, fMailboxMaxAge);
+		checkRange(PROP_STUN_PORT, fStunPort, 0, 65535);
+		checkRange(PROP_MEMORY_BUDGET, fMemoryBudget, 1024 * 1024, Integer.MAX_VALUE);
+		if (Duration.from(fAdmissionTarget).isNegative()) {
+			throw new IllegalArgumentException(PROP_ADMISSION_TARGET + " is negative: " + fAdmissionTarget);
+		}
+		checkPositive(PROP_ADMISSION_INTERVAL, fAdmissionInterval);
+		checkPositive(PROP_ADMISSION_RETRY_AFTER, fAdmissionRetryAfter);
+		checkPositive(PROP_ERROR_LOG_INTERVAL, fErrorLogInterval);
+		checkRange(PROP_ERROR_LOG_SAMPLES, fErrorLogSamples, 0, 1000);
+		checkRange(PROP_EVENT_RING_SIZE, fEventRingSize, 0, 1 << 24);
+		checkRange(PROP_EVENT_RING_DUMP_ERRORS, fEventRingDumpErrors, 0, Integer.MAX_VALUE);
+		checkPositive(PROP_EVENT_RING_DUMP_INTERVAL, fEventRingDumpInterval);
+		checkRange(PROP_EVENT_RING_DUMP_FILES, fEventRingDumpFiles, 1, 1000);
+		checkTenantRange(PROP_TENANT_MAX_CONNECTIONS, fTenantMaxConnections);
+		checkTenantRange(PROP_TENANT_MAX_MESSAGES, fTenantMaxMessages);
+		checkTenantRange(PROP_TENANT_MAX_CPU, fTenantMaxCpu);
+		final List<String> listModes = Arrays.asList(WrsDispatcher.MODE_INLINE, WrsDispatcher.MODE_POOL,
+				WrsDispatcher.MODE_ROOM, WrsDispatcher.MODE_VIRTUAL);
+		if (!listModes.contains(fDispatchMode.toLowerCase(Locale.ROOT))) {
+			throw new IllegalArgumentException(PROP_DISPATCH_MODE + " is unknown: " + fDispatchMode);
+		}
+	}
+
+	/**
+	 * Checks that a duration is positive.
+	 * @param key property-name
+	 * @param amount duration
+	 */
+	private static void checkPositive(final String key, final TemporalAmount amount) {
+		final Duration duration = Duration.from(amount);
+		if (duration.isNegative() || duration.isZero()) {
+			throw new IllegalArgumentException(key + " isn't positive: " + amount);
+		}
+	}
+
+	/**
+	 * Checks the range of an integer-value.
+	 * @param key property-name
+	 * @param value value
+	 * @param min minimal value
+	 * @param max maximal value
+	 */
+	private static void checkRange(final String key, final int value, final int min, final int max) {
+		if (value < min || value > max) {
+			throw new IllegalArgumentException(String.format("%s=%d isn't in [%d, %d]",
+					key, Integer.valueOf(value), Integer.valueOf(min), Integer.valueOf(max)));
+		}
+	}
+
+	/**
+	 * Checks that the quotas of tenants aren't negative.
+	 * @param key property-name
+	 * @param mapValues map from tenant to quota, key "" is the default
+	 */
+	private static void checkTenantRange(final String key, final Map<String, Integer> mapValues) {
+		for (final Entry<String, Integer> entry : mapValues.entrySet()) {
+			checkRange(entry.getKey().isEmpty() ? key : key + "." + entry.getKey(), entry.getValue().intValue(), 0, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Loads the properties of the server: system-properties, properties-file and JMX-overrides.
+	 * @return properties
+	 */
+	private static Properties loadProperties() {
+		final Properties props = new Properties();
+		for (final String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith(PROP_PREFIX)) {
+				props.setProperty(key, System.getProperty(key));
+			}
+		}
+		final String configFile = System.getProperty(PROP_CONFIG_FILE);
+		if (configFile != null) {
+			final Path path = Paths.get(configFile);
+			try {
+				TS_CONFIG_FILE.set(Files.getLastModifiedTime(path).toMillis());
+				try (final Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+					props.load(reader);
+				}
+			}
+			catch (IOException e) {
+				LOGGER.log(Level.WARNING, "The properties-file couldn't be read: " + path, e);
+			}
+		}
+		props.putAll(MAP_OVERRIDES);
+		return props;
+	}
+
+	/**
+	 * Reloads the configuration. An invalid configuration is rejected, the current one stays active.
+	 * @return <code>true</code> if the new configuration has been activated
+	 */
+	public static boolean reload() {
+		final WrsConfiguration newConfig;
+		try {
+			newConfig = new WrsConfiguration(loadProperties());
+		}
+		catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "The new configuration is invalid, the current one is kept", e);
+			return false;
+		}
+		final WrsConfiguration oldConfig = CONFIG.getAndSet(newConfig);
+		LOGGER.info("A new configuration has been activated");
+		for (final Listener listener : LISTENERS) {
+			try {
+				listener.configurationChanged(oldConfig, newConfig);
+			}
+			catch (RuntimeException e) {
+				LOGGER.log(Level.SEVERE, "Error in listener of configuration " + listener, e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a listener of changes of the configuration.
+	 * @param listener listener
+	 */
+	public static void addListener(final Listener listener) {
+		LISTENERS.add(listener);
+	}
+
+	/**
+	 * Removes a listener of changes of the configuration.
+	 * @param listener listener
+	 */
+	public static void removeListener(final Listener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * Sets or removes a property overriding the system-properties and the properties-file (JMX).
+	 * @param key property-name
+	 * @param value value or <code>null</code> to remove the override
+	 * @return <code>true</code> if the new configuration has been activated
+	 */
+	static synchronized boolean setOverride(final String key, final String value) {
+		if (!key.startsWith(PROP_PREFIX)) {
+			throw new IllegalArgumentException("Unexpected property: " + key);
+		}
+		final String oldValue = (value != null) ? MAP_OVERRIDES.put(key, value) : MAP_OVERRIDES.remove(key);
+		final boolean isActivated = reload();
+		if (!isActivated) {
+			// The invalid value is discarded.
+			if (oldValue != null) {
+				MAP_OVERRIDES.put(key, oldValue);
+			}
+			else {
+				MAP_OVERRIDES.remove(key);
+			}
+		}
+		return isActivated;
+	}
+
+	/**
+	 * Gets the properties set by JMX.
+	 * @return copy of the overrides
+	 */
+	static Map<String, String> getOverrides() {
+		return new TreeMap<>(MAP_OVERRIDES);
+	}
+
+	/**
+	 * Starts watching the properties-file (if any) and registers the JMX-bean.
+	 */
+	public static void startWatching() {
+		final String configFile = System.getProperty(PROP_CONFIG_FILE);
+		if (configFile != null) {
+			final Path path = Paths.get(configFile);
+			final Properties sysProps = System.getProperties();
+			final long intervalMillis = Duration.from(getDuration(sysProps, PROP_CONFIG_CHECK_INTERVAL,
+					Duration.of(10, ChronoUnit.SECONDS))).toMillis();
+			WrsDispatcher.getInstance().scheduleHousekeeping(() -> checkConfigFile(path), intervalMillis);
+			LOGGER.info(String.format("Watching the properties-file %s every %d ms", path, Long.valueOf(intervalMillis)));
+		}
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(JMX_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new WrsConfigurationControl(), name);
+			}
+		}
+		catch (JMException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "The JMX-bean of the configuration couldn't be registered", e);
+		}
+	}
+
+	/**
+	 * Unregisters the JMX-bean (the watch-task ends with the housekeeping-thread).
+	 */
+	public static void stopWatching() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(JMX_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (JMException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "The JMX-bean of the configuration couldn't be unregistered", e);
+		}
+	}
+
+	/**
+	 * Reloads the configuration if the properties-file has been modified.
+	 * @param path properties-file
+	 */
+	private static void checkConfigFile(final Path path) {
+		try {
+			final long tsModified = Files.getLastModifiedTime(path).toMillis();
+			if (tsModified != TS_CONFIG_FILE.get()) {
+				LOGGER.info("The properties-file has been modified: " + path);
+				reload();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "The properties-file couldn't be checked: " + path, e);
+		}
+	}
 	
 	/**
 	 * Gets the current server-configuraton.
@@ -51,11 +592,20 @@ public class WrsConfiguration {
 			config = CONFIG.get();
 		}
 		catch (Exception e) {
-			throw new IllegalArgumentException("The server-configuration couldn't be built. Check the system-properties.", e);
+			throw new IllegalArgumentException("The server-configuration couldn't be built. Check the system-properties and the properties-file.", e);
 		}
 		return config;
 	}
 	
+	/**
+	 * Gets a property of this configuration.
+	 * @param key property-name
+	 * @return value or <code>null</code>
+	 */
+	public String getProperty(final String key) {
+		return fProperties.getProperty(key);
+	}
+
 	/**
 	 * Gets the cleanup-interval.
 	 * @return duration of interval
@@ -104,15 +654,351 @@ public class WrsConfiguration {
 		return fTimeZone;
 	}
 
+	/**
+	 * Checks if clients may choose the binary protocol.
+	 * @return <code>true</code> if the binary protocol is enabled
+	 */
+	public boolean isBinaryProtocol() {
+		return fBinaryProtocol;
+	}
+
+	/**
+	 * Checks if messages may be compressed by permessage-deflate.
+	 * @return <code>true</code> if compression is enabled
+	 */
+	public boolean isDeflate() {
+		return fDeflate;
+	}
+
+	/**
+	 * Gets the compression-level of permessage-deflate.
+	 * @return level (0-9 or -1)
+	 */
+	public int getDeflateLevel() {
+		return fDeflateLevel;
+	}
+
+	/**
+	 * Checks if the server's deflater keeps its context between messages.
+	 * @return <code>true</code> in case of context-takeover
+	 */
+	public boolean isDeflateContextTakeover() {
+		return fDeflateContextTakeover;
+	}
+
+	/**
+	 * Gets the minimal size of a message to be compressed.
+	 * @return size in bytes
+	 */
+	public int getDeflateMinSize() {
+		return fDeflateMinSize;
+	}
+
+	/**
+	 * Gets the dispatch-mode of messages.
+	 * @return mode, see {@link WrsDispatcher}
+	 */
+	public String getDispatchMode() {
+		return fDispatchMode;
+	}
+
+	/**
+	 * Gets the number of dispatch-threads (pool- and room-mode).
+	 * @return number of threads
+	 */
+	public int getDispatchThreads() {
+		return Math.max(1, fDispatchThreads);
+	}
+
+	/**
+	 * Gets the maximal number of queued messages of a connection.
+	 * @return number of messages
+	 */
+	public int getDispatchQueueMessages() {
+		return fDispatchQueueMessages;
+	}
+
+	/**
+	 * Gets the maximal bytes of queued messages of a connection.
+	 * @return bytes
+	 */
+	public int getDispatchQueueBytes() {
+		return fDispatchQueueBytes;
+	}
+
+	/**
+	 * Gets the interval of pings.
+	 * @return duration of interval (zero if the heartbeat is disabled)
+	 */
+	public TemporalAmount getHeartbeatInterval() {
+		return fHeartbeatInterval;
+	}
+
+	/**
+	 * Gets the number of missed pongs before a session is evicted.
+	 * @return number of pongs
+	 */
+	public int getHeartbeatMaxMissed() {
+		return Math.max(1, fHeartbeatMaxMissed);
+	}
+
+	/**
+	 * Gets the filter of relayed offers and answers.
+	 * @return filter or <code>null</code>
+	 */
+	public WrsSdpFilter getSdpFilter() {
+		return fSdpFilter;
+	}
+
+	/**
+	 * Gets the types of ICE-candidates which aren't relayed.
+	 * @return lower-case types (host, srflx, prflx, relay)
+	 */
+	public Set<String> getCandidateDropTypes() {
+		return fCandidateDropTypes;
+	}
+
+	/**
+	 * Gets the transports of ICE-candidates which aren't relayed.
+	 * @return lower-case transports (udp, tcp)
+	 */
+	public Set<String> getCandidateDropTransports() {
+		return fCandidateDropTransports;
+	}
+
+	/**
+	 * Gets the path-prefix of trace-files.
+	 * @return prefix or <code>null</code> if recording is disabled
+	 */
+	public String getTraceFile() {
+		return fTraceFile;
+	}
+
+	/**
+	 * Gets the size of a trace-file.
+	 * @return size in bytes
+	 */
+	public int getTraceFileSize() {
+		return fTraceFileSize;
+	}
+
+	/**
+	 * Gets the number of rotating trace-files.
+	 * @return number of files
+	 */
+	public int getTraceFiles() {
+		return fTraceFiles;
+	}
+
+	/**
+	 * Gets the window of the heavy-hitter-tracking.
+	 * @return duration of window
+	 */
+	public TemporalAmount getHeavyHitterWindow() {
+		return fHeavyHitterWindow;
+	}
+
+	/**
+	 * Gets the maximal number of messages of a remote-address per window.
+	 * @return number of messages, 0 is unlimited
+	 */
+	public int getThrottleAddressMessages() {
+		return fThrottleAddressMessages;
+	}
+
+	/**
+	 * Gets the maximal number of messages of a room per window.
+	 * @return number of messages, 0 is unlimited
+	 */
+	public int getThrottleRoomMessages() {
+		return fThrottleRoomMessages;
+	}
+
+	/**
+	 * Gets the maximal number of messages kept for a disconnected user.
+	 * @return number of messages, 0 disables the mailbox
+	 */
+	public int getMailboxMaxMessages() {
+		return fMailboxMaxMessages;
+	}
+
+	/**
+	 * Gets the time messages are kept for a disconnected user.
+	 * A disconnected user stays registered during this time.
+	 * @return duration
+	 */
+	public TemporalAmount getMailboxMaxAge() {
+		return fMailboxMaxAge;
+	}
+
+	/**
+	 * Gets the UDP-port of the embedded STUN-responder.
+	 * @return port, 0 if the responder is disabled
+	 */
+	public int getStunPort() {
+		return fStunPort;
+	}
+
+	/**
+	 * Gets the local address of the embedded STUN-responder.
+	 * @return address or <code>null</code> (any address)
+	 */
+	public String getStunBindAddress() {
+		return fStunBindAddress;
+	}
+
+	/**
+	 * Gets the ICE-server-URLs sent to the clients at connect.
+	 * @return unmodifiable list of URLs
+	 */
+	public List<String> getIceServers() {
+		return fIceServers;
+	}
+
+	/**
+	 * Gets the node-wide budget of in-flight signaling-buffers.
+	 * @return bytes
+	 */
+	public int getMemoryBudget() {
+		return fMemoryBudget;
+	}
+
+	/**
+	 * Gets the target of the queueing-delay of messages.
+	 * The node is overloaded if the smallest delay of an interval exceeds the target.
+	 * @return duration, zero if the admission-control is disabled
+	 */
+	public TemporalAmount getAdmissionTarget() {
+		return fAdmissionTarget;
+	}
+
+	/**
+	 * Gets the interval of the admission-control.
+	 * @return duration
+	 */
+	public TemporalAmount getAdmissionInterval() {
+		return fAdmissionInterval;
+	}
+
+	/**
+	 * Gets the retry-after-hint of rejected connects and calls.
+	 * @return duration
+	 */
+	public TemporalAmount getAdmissionRetryAfter() {
+		return fAdmissionRetryAfter;
+	}
+
+	/**
+	 * Gets the interval of the summaries of the error-log.
+	 * @return duration
+	 */
+	public TemporalAmount getErrorLogInterval() {
+		return fErrorLogInterval;
+	}
+
+	/**
+	 * Gets the number of logged samples (payload and stack-trace) per group of errors and interval.
+	 * @return number of samples, 0 logs summaries only
+	 */
+	public int getErrorLogSamples() {
+		return fErrorLogSamples;
+	}
+
+	/**
+	 * Gets the number of records of the event-ring.
+	 * The size is read at the start of the server only.
+	 * @return number of records, 0 if the ring is disabled
+	 */
+	public int getEventRingSize() {
+		return fEventRingSize;
+	}
+
+	/**
+	 * Gets the directory of dumps of the event-ring.
+	 * @return directory or <code>null</code> (java.io.tmpdir)
+	 */
+	public String getEventRingDumpDir() {
+		return fEventRingDumpDir;
+	}
+
+	/**
+	 * Gets the number of errors of an interval of the error-log which triggers a dump of the event-ring.
+	 * @return number of errors, 0 if these dumps are disabled
+	 */
+	public int getEventRingDumpErrors() {
+		return fEventRingDumpErrors;
+	}
+
+	/**
+	 * Gets the minimal time between automatic dumps of the event-ring.
+	 * @return duration
+	 */
+	public TemporalAmount getEventRingDumpInterval() {
+		return fEventRingDumpInterval;
+	}
+
+	/**
+	 * Gets the maximal number of dump-files of the event-ring in the dump-directory.
+	 * @return number of files
+	 */
+	public int getEventRingDumpFiles() {
+		return fEventRingDumpFiles;
+	}
+
+	/**
+	 * Gets the mapping of hosts and paths to tenants.
+	 * A key starting with "/" is a path after /WebSocketServlet, other keys are host-names (lower-case).
+	 * @return unmodifiable map from host or path to tenant
+	 */
+	public Map<String, String> getTenants() {
+		return fTenants;
+	}
+
+	/**
+	 * Gets the maximal number of connections of a tenant.
+	 * @param tenant name of the tenant
+	 * @return number of connections, 0 is unlimited
+	 */
+	public int getTenantMaxConnections(final String tenant) {
+		return getTenantValue(fTenantMaxConnections, tenant);
+	}
+
+	/**
+	 * Gets the maximal number of messages per second of a tenant.
+	 * @param tenant name of the tenant
+	 * @return number of messages, 0 is unlimited
+	 */
+	public int getTenantMaxMessages(final String tenant) {
+		return getTenantValue(fTenantMaxMessages, tenant);
+	}
+
+	/**
+	 * Gets the maximal handling-time of messages in milliseconds per second of a tenant.
+	 * @param tenant name of the tenant
+	 * @return milliseconds per second (1000 is one core), 0 is unlimited
+	 */
+	public int getTenantMaxCpu(final String tenant) {
+		return getTenantValue(fTenantMaxCpu, tenant);
+	}
+
+	/**
+	 * Gets the token of the admin-endpoint.
+	 * @return token or <code>null</code> if the endpoint is disabled
+	 */
+	public String getAdminToken() {
+		return fAdminToken;
+	}
+
 	/**
 	 * Gets the configuration of a duration.
+	 * @param props properties
 	 * @param key property-name
 	 * @param defaultDuration default-value
 	 * @return duration
 	 */
-	private static TemporalAmount getDuration(final String key, final Duration defaultDuration) {
+	private static TemporalAmount getDuration(final Properties props, final String key, final Duration defaultDuration) {
 		final TemporalAmount temporalAmount;
-		final String sDuration = System.getProperty(key);
+		final String sDuration = props.getProperty(key);
 		if (sDuration != null) {
 			temporalAmount = Duration.parse(sDuration);
 		}
@@ -124,13 +1010,14 @@ public class WrsConfiguration {
 	
 	/**
 	 * Gets the configuration of a locale.
+	 * @param props properties
 	 * @param key property-name
 	 * @param defaultValue default-value
 	 * @return locale
 	 */
-	private static Locale getLocale(final String key, final Locale defaultValue) {
+	private static Locale getLocale(final Properties props, final String key, final Locale defaultValue) {
 		final Locale locale;
-		final String sLocale = System.getProperty(key);
+		final String sLocale = props.getProperty(key);
 		if (sLocale != null) {
 			locale = new Locale(sLocale);
 		}
@@ -142,13 +1029,120 @@ public class WrsConfiguration {
 
 	/**
 	 * Gets the configuration of a string-value.
+	 * @param props properties
 	 * @param key property-name
 	 * @param defaultValue default-value
 	 * @return string-value
 	 */
-	private static String getString(final String key, final String defaultValue) {
-		final String propValue = System.getProperty(key);
+	private static String getString(final Properties props, final String key, final String defaultValue) {
+		final String propValue = props.getProperty(key);
 		final String value = (propValue != null) ? propValue : defaultValue;
 		return value;
 	}
+
+	/**
+	 * Gets the mapping of hosts and paths to tenants.
+	 * @param props properties
+	 * @return map from host (lower-case) or /path to tenant
+	 */
+	private static Map<String, String> getTenants(final Properties props) {
+		final Map<String, String> mapTenants = new LinkedHashMap<>();
+		for (final String entry : getList(props, PROP_TENANTS)) {
+			final int idx = entry.indexOf('=');
+			if (idx <= 0 || idx == entry.length() - 1) {
+				throw new IllegalArgumentException(PROP_TENANTS + " contains an invalid entry (host=tenant or /path=tenant): " + entry);
+			}
+			final String key = entry.substring(0, idx).trim();
+			mapTenants.put(key.startsWith("/") ? key : key.toLowerCase(Locale.ROOT), entry.substring(idx + 1).trim());
+		}
+		return mapTenants;
+	}
+
+	/**
+	 * Gets the configuration of a quota of tenants.
+	 * The property itself is the default, the property with suffix .&lt;tenant&gt; is the quota of a single tenant.
+	 * @param props properties
+	 * @param key property-name
+	 * @return unmodifiable map from tenant to quota, key "" is the default
+	 */
+	private static Map<String, Integer> getTenantIntegers(final Properties props, final String key) {
+		final Map<String, Integer> mapValues = new HashMap<>();
+		mapValues.put("", Integer.valueOf(getInteger(props, key, 0)));
+		final String prefix = key + ".";
+		for (final String name : props.stringPropertyNames()) {
+			if (name.startsWith(prefix) && name.length() > prefix.length()) {
+				mapValues.put(name.substring(prefix.length()), Integer.valueOf(getInteger(props, name, 0)));
+			}
+		}
+		return Collections.unmodifiableMap(mapValues);
+	}
+
+	/**
+	 * Gets the quota of a tenant.
+	 * @param mapValues map from tenant to quota, key "" is the default
+	 * @param tenant name of the tenant
+	 * @return quota
+	 */
+	private static int getTenantValue(final Map<String, Integer> mapValues, final String tenant) {
+		final Integer value = mapValues.get(tenant);
+		return (value != null) ? value.intValue() : mapValues.get("").intValue();
+	}
+
+	/**
+	 * Gets the configuration of a comma-separated list.
+	 * @param props properties
+	 * @param key property-name
+	 * @return list of trimmed non-empty values (default is an empty list)
+	 */
+	private static List<String> getList(final Properties props, final String key) {
+		final List<String> list = new ArrayList<>();
+		final String propValue = props.getProperty(key);
+		if (propValue != null) {
+			for (final String value : WrsSdpFilter.splitFields(propValue, ',')) {
+				if (!value.trim().isEmpty()) {
+					list.add(value.trim());
+				}
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Converts a list into an unmodifiable set of lower-case values.
+	 * @param list list
+	 * @return set
+	 */
+	private static Set<String> toLowerCaseSet(final List<String> list) {
+		final Set<String> set = new HashSet<>();
+		for (final String value : list) {
+			set.add(value.toLowerCase(Locale.ROOT));
+		}
+		return Collections.unmodifiableSet(set);
+	}
+
+	/**
+	 * Gets the configuration of a boolean-value.
+	 * @param props properties
+	 * @param key property-name
+	 * @param defaultValue default-value
+	 * @return boolean-value
+	 */
+	private static boolean getBoolean(final Properties props, final String key, final boolean defaultValue) {
+		final String propValue = props.getProperty(key);
+		final boolean value = (propValue != null) ? Boolean.parseBoolean(propValue) : defaultValue;
+		return value;
+	}
+
+	/**
+	 * Gets the configuration of an integer-value.
+	 * @param props properties
+	 * @param key property-name
+	 * @param defaultValue default-value
+	 * @return integer-value
+	 */
+	private static int getInteger(final Properties props, final String key, final int defaultValue) {
+		final String propValue = props.getProperty(key);
+		final int value = (propValue != null) ? Integer.parseInt(propValue.trim()) : defaultValue;
+		return value;
+	}
 }
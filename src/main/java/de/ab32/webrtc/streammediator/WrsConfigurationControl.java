@@ -0,0 +1,39 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.Map;
+
+/**
+ * JMX-bean to change the server-configuration at runtime.
+ */
+public class WrsConfigurationControl implements WrsConfigurationControlMBean {
+
+	/** {@inheritDoc} */
+	@Override
+	public String getProperty(final String key) {
+		return WrsConfiguration.getInstance().getProperty(key);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean setProperty(final String key, final String value) {
+		return WrsConfiguration.setOverride(key, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean removeProperty(final String key) {
+		return WrsConfiguration.setOverride(key, null);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean reload() {
+		return WrsConfiguration.reload();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, String> getOverrides() {
+		return WrsConfiguration.getOverrides();
+	}
+}
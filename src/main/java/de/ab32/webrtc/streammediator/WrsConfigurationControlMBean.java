@@ -0,0 +1,43 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.Map;
+
+/**
+ * JMX-interface to change the server-configuration at runtime.
+ */
+public interface WrsConfigurationControlMBean {
+
+	/**
+	 * Gets the current value of a property.
+	 * @param key property-name, e.g. "wrs.max_age"
+	 * @return value or <code>null</code> if the property isn't set
+	 */
+	String getProperty(String key);
+
+	/**
+	 * Sets a property, the configuration is reloaded.
+	 * @param key property-name, e.g. "wrs.max_age"
+	 * @param value value, e.g. "PT2H"
+	 * @return <code>true</code> if the new configuration is valid and has been activated
+	 */
+	boolean setProperty(String key, String value);
+
+	/**
+	 * Removes a property set by JMX, the configuration is reloaded.
+	 * @param key property-name
+	 * @return <code>true</code> if the new configuration has been activated
+	 */
+	boolean removeProperty(String key);
+
+	/**
+	 * Reloads the configuration (e.g. after a change of the properties-file).
+	 * @return <code>true</code> if the new configuration has been activated
+	 */
+	boolean reload();
+
+	/**
+	 * Gets the properties set by JMX.
+	 * @return map from property-name to value
+	 */
+	Map<String, String> getOverrides();
+}
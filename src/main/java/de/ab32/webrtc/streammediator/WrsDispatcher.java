@@ -0,0 +1,416 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dispatcher of the messages of the websocket-connections.
+ * The messages are handled by executors outside of jetty's I/O-threads.
+ * Each connection has its own queue, so the messages of a connection are handled in order.
+ *
+ * <ul>
+ * <li>inline: the messages are handled in jetty's thread (no dispatching),</li>
+ * <li>pool: fixed thread-pool,</li>
+ * <li>room: the messages of a session (room) are handled by the same single thread,</li>
+ * <li>virtual: a virtual thread per task (Java 21+, fallback is pool).</li>
+ * </ul>
+ *
+ * Slow work like clean-up and statistics-dumps is done by a separate housekeeping-thread.
+ *
+ * <p>The handling outside of jetty's I/O-threads removes jetty's read-backpressure,
+ * so the queued messages of a connection are limited by number and bytes.</p>
+ */
+public class WrsDispatcher {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsDispatcher.class.getName());
+
+	/** mode: handling in jetty's thread */
+	public static final String MODE_INLINE = "inline";
+	/** mode: fixed thread-pool */
+	public static final String MODE_POOL = "pool";
+	/** mode: one single thread per room */
+	public static final String MODE_ROOM = "room";
+	/** mode: virtual threads */
+	public static final String MODE_VIRTUAL = "virtual";
+
+	/** maximal number of tasks of a connection handled in one go */
+	private static final int MAX_TASKS_PER_DRAIN = 32;
+
+	/** number of messages refused because the queue of their connection was full */
+	private static final AtomicLong OVERFLOWS = new AtomicLong();
+
+	/** current dispatcher */
+	private static WrsDispatcher INSTANCE;
+
+	/** effective mode */
+	private final String fMode;
+
+	/** executor of pool- and virtual-mode */
+	private final ExecutorService fExecutor;
+
+	/** single-thread-executors of room-mode */
+	private final ExecutorService[] fStripes;
+
+	/** housekeeping-thread (clean-up, statistics) */
+	private final ScheduledExecutorService fHousekeeping;
+
+	/**
+	 * Constructor
+	 * @param config configuration
+	 */
+	private WrsDispatcher(final WrsConfiguration config) {
+		String mode = config.getDispatchMode().toLowerCase(Locale.ROOT);
+		final int numThreads = config.getDispatchThreads();
+		ExecutorService executor = null;
+		ExecutorService[] stripes = null;
+		if (MODE_VIRTUAL.equals(mode)) {
+			executor = createVirtualThreadExecutor();
+			if (executor == null) {
+				LOGGER.warning("Virtual threads are not available, using a thread-pool");
+				mode = MODE_POOL;
+			}
+		}
+		if (MODE_POOL.equals(mode)) {
+			executor = Executors.newFixedThreadPool(numThreads, new WrsThreadFactory("wrs-dispatch"));
+		}
+		else if (MODE_ROOM.equals(mode)) {
+			stripes = new ExecutorService[numThreads];
+			for (int i = 0; i < numThreads; i++) {
+				stripes[i] = Executors.newSingleThreadExecutor(new WrsThreadFactory("wrs-room" + i));
+			}
+		}
+		else if (!MODE_INLINE.equals(mode) && !MODE_VIRTUAL.equals(mode)) {
+			throw new IllegalArgumentException("Unknown dispatch-mode: " + mode);
+		}
+		fMode = mode;
+		fExecutor = executor;
+		fStripes = stripes;
+		fHousekeeping = Executors.newSingleThreadScheduledExecutor(new WrsThreadFactory("wrs-housekeeping"));
+		LOGGER.info(String.format("Dispatcher: mode=%s, #threads=%d", mode, Integer.valueOf(numThreads)));
+	}
+
+	/**
+	 * Gets the current dispatcher.
+	 * @return dispatcher
+	 */
+	public static synchronized WrsDispatcher getInstance() {
+		if (INSTANCE == null) {
+			INSTANCE = new WrsDispatcher(WrsConfiguration.getInstance());
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Stops the threads of the current dispatcher.
+	 */
+	public static synchronized void shutdown() {
+		if (INSTANCE != null) {
+			LOGGER.info("Dispatcher: shutdown");
+			if (INSTANCE.fExecutor != null) {
+				INSTANCE.fExecutor.shutdown();
+			}
+			if (INSTANCE.fStripes != null) {
+				for (final ExecutorService stripe : INSTANCE.fStripes) {
+					stripe.shutdown();
+				}
+			}
+			INSTANCE.fHousekeeping.shutdown();
+			INSTANCE = null;
+		}
+	}
+
+	/**
+	 * Gets the effective mode.
+	 * @return mode
+	 */
+	public String getMode() {
+		return fMode;
+	}
+
+	/**
+	 * Creates the queue of a connection.
+	 * @param roomKey supplier of the current room of the connection (may supply <code>null</code>)
+	 * @return queue of the connection
+	 */
+	ConnectionQueue createConnectionQueue(final Supplier<String> roomKey) {
+		final ConnectionQueue queue;
+		if (MODE_INLINE.equals(fMode)) {
+			queue = new ConnectionQueue(null);
+		}
+		else if (MODE_ROOM.equals(fMode)) {
+			final Object connectionKey = new Object();
+			queue = new ConnectionQueue(() -> {
+				final String room = roomKey.get();
+				final int hash = (room != null) ? room.hashCode() : connectionKey.hashCode();
+				return fStripes[(hash & 0x7fffffff) % fStripes.length];
+			});
+		}
+		else {
+			queue = new ConnectionQueue(() -> fExecutor);
+		}
+		return queue;
+	}
+
+	/**
+	 * Gets the number of messages refused because the queue of their connection was full.
+	 * @return number of messages
+	 */
+	public static long getOverflows() {
+		return OVERFLOWS.get();
+	}
+
+	/**
+	 * Executes a task in the housekeeping-thread.
+	 * @param task task, e.g. clean-up
+	 */
+	public void executeHousekeeping(final Runnable task) {
+		try {
+			fHousekeeping.execute(task);
+		}
+		catch (RejectedExecutionException e) {
+			LOGGER.warning("Housekeeping-task rejected: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Schedules a periodic task in the housekeeping-thread.
+	 * @param task task
+	 * @param periodMillis period in milliseconds
+	 * @return future to cancel the task
+	 */
+	public ScheduledFuture<?> scheduleHousekeeping(final Runnable task, final long periodMillis) {
+		return fHousekeeping.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Schedules a task in the housekeeping-thread which is executed once.
+	 * @param task task
+	 * @param delayMillis delay in milliseconds
+	 * @return future to cancel the task
+	 */
+	public ScheduledFuture<?> scheduleHousekeepingOnce(final Runnable task, final long delayMillis) {
+		return fHousekeeping.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates an executor using a virtual thread per task.
+	 * @return executor or <code>null</code> if virtual threads are not available
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		ExecutorService executor;
+		try {
+			executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			executor = null;
+		}
+		return executor;
+	}
+
+	/**
+	 * Queue of the tasks of a connection.
+	 * At most one drain-task of a connection is running, so the tasks are executed in order.
+	 * The queued messages are limited (see {@link #offer(Runnable, int)}), control-tasks like the close are always queued.
+	 */
+	static class ConnectionQueue implements Executor {
+		/** tasks of the connection */
+		private final Queue<Runnable> fTasks = new ConcurrentLinkedQueue<>();
+
+		/** <code>true</code> if a drain-task is scheduled or running */
+		private final AtomicBoolean fIsScheduled = new AtomicBoolean();
+
+		/** number of queued messages */
+		private final AtomicInteger fQueuedMessages = new AtomicInteger();
+
+		/** bytes of the queued messages */
+		private final AtomicLong fQueuedBytes = new AtomicLong();
+
+		/** supplier of the executor of the next drain-task, <code>null</code> in inline-mode */
+		private final Supplier<Executor> fDelegate;
+
+		/**
+		 * Constructor
+		 * @param delegate supplier of the executor of the drain-tasks, <code>null</code> if the tasks are run by the caller
+		 */
+		ConnectionQueue(final Supplier<Executor> delegate) {
+			fDelegate = delegate;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void execute(final Runnable task) {
+			if (fDelegate == null) {
+				task.run();
+				return;
+			}
+			fTasks.add(task);
+			schedule();
+		}
+
+		/**
+		 * Queues the handling of a received message if the queue has room for it.
+		 * The bytes of the message have been acquired from the memory-budget by the caller,
+		 * the task releases them. If the queued task is dropped (rejected drain-task) the queue releases them.
+		 * @param task handling of the message
+		 * @param bytes size of the message
+		 * @return <code>false</code> if the message is refused, the queue of the connection is full
+		 */
+		boolean offer(final Runnable task, final int bytes) {
+			final WrsConfiguration config = WrsConfiguration.getInstance();
+			final int numMessages = fQueuedMessages.incrementAndGet();
+			final long numBytes = fQueuedBytes.addAndGet(bytes);
+			if (numMessages > config.getDispatchQueueMessages() || numBytes > config.getDispatchQueueBytes()) {
+				fQueuedMessages.decrementAndGet();
+				fQueuedBytes.addAndGet(-bytes);
+				OVERFLOWS.incrementAndGet();
+				return false;
+			}
+			execute(new QueuedMessage(task, bytes));
+			return true;
+		}
+
+		/**
+		 * Schedules a drain-task if there isn't one.
+		 */
+		private void schedule() {
+			if (fIsScheduled.compareAndSet(false, true)) {
+				try {
+					fDelegate.get().execute(this::drain);
+				}
+				catch (RejectedExecutionException e) {
+					fIsScheduled.set(false);
+					final int numDropped = dropTasks();
+					LOGGER.warning(String.format("%d tasks of connection rejected: %s",
+							Integer.valueOf(numDropped), e.getMessage()));
+				}
+			}
+		}
+
+		/**
+		 * Drops the queued tasks, the bytes of dropped messages are released.
+		 * @return number of dropped tasks
+		 */
+		private int dropTasks() {
+			int numDropped = 0;
+			Runnable task;
+			while ((task = fTasks.poll()) != null) {
+				if (task instanceof QueuedMessage) {
+					((QueuedMessage) task).drop();
+				}
+				numDropped++;
+			}
+			return numDropped;
+		}
+
+		/**
+		 * Executes the queued tasks.
+		 */
+		private void drain() {
+			for (int i = 0; i < MAX_TASKS_PER_DRAIN; i++) {
+				final Runnable task = fTasks.poll();
+				if (task == null) {
+					break;
+				}
+				try {
+					task.run();
+				}
+				catch (Throwable e) {
+					LOGGER.log(Level.SEVERE, "Error in task of connection", e);
+				}
+			}
+			fIsScheduled.set(false);
+			if (!fTasks.isEmpty()) {
+				// There are more tasks: We give other connections a chance.
+				schedule();
+			}
+		}
+
+		/**
+		 * Received message in the queue, its bytes are counted in the queue and in the memory-budget.
+		 */
+		private class QueuedMessage implements Runnable {
+			/** handling of the message, it releases the bytes in the memory-budget */
+			private final Runnable fTask;
+			/** size of the message */
+			private final int fBytes;
+
+			/**
+			 * Constructor
+			 * @param task handling of the message
+			 * @param bytes size of the message
+			 */
+			QueuedMessage(final Runnable task, final int bytes) {
+				fTask = task;
+				fBytes = bytes;
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			public void run() {
+				try {
+					fTask.run();
+				}
+				finally {
+					dequeued();
+				}
+			}
+
+			/**
+			 * Drops the message without handling it, its bytes are released.
+			 */
+			void drop() {
+				dequeued();
+				WrsMemoryBudget.release(fBytes);
+			}
+
+			/**
+			 * Removes the message from the counters of the queue.
+			 */
+			private void dequeued() {
+				fQueuedMessages.decrementAndGet();
+				fQueuedBytes.addAndGet(-fBytes);
+			}
+		}
+	}
+
+	/**
+	 * Thread-factory of daemon-threads.
+	 */
+	static class WrsThreadFactory implements ThreadFactory {
+		/** prefix of thread-names */
+		private final String fPrefix;
+		/** counter of threads */
+		private final AtomicInteger fCounter = new AtomicInteger();
+
+		/**
+		 * Constructor
+		 * @param prefix prefix of thread-names
+		 */
+		WrsThreadFactory(final String prefix) {
+			fPrefix = prefix;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, fPrefix + "-" + fCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package de.ab32.webrtc.streammediator;
+
+import java.time.Duration;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rate-limited error-logging: Errors are grouped by source, type of the message and exception.
+ *
+ * <p>The first errors of a group in an interval are logged as samples with a shortened payload
+ * and the stack-trace, further errors are counted only. At the end of an interval one summary
+ * per group with suppressed errors is logged. A buggy client in a retry-loop costs a counter-increment
+ * per error then, the samples and summaries are rendered in the housekeeping-thread.</p>
+ *
+ * <p>If an interval has too many errors the event-ring is dumped (see {@link WrsEventRing}),
+ * the dump shows the signaling before the errors.</p>
+ *
+ * <p>The counters of a group are reset at the end of an interval. An error racing with the
+ * removal of an idle group may not be counted, that's acceptable for this log.</p>
+ */
+public class WrsErrorLog {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsErrorLog.class.getName());
+
+	/** maximal number of groups, further errors are counted in the group {@link #KEY_OTHER} */
+	private static final int MAX_GROUPS = 256;
+
+	/** key of the group of errors without an own group */
+	private static final String KEY_OTHER = "#other";
+
+	/** maximal length of a captured payload */
+	private static final int MAX_PAYLOAD = 256;
+
+	/** maximal length of a type of message in the key of a group (the type is set by the client) */
+	private static final int MAX_TYPE = 32;
+
+	/** groups by key */
+	private static final ConcurrentMap<String, Group> MAP_GROUPS = new ConcurrentHashMap<>();
+
+	/** start of the current interval (nanoTime) */
+	private static final AtomicLong TS_INTERVAL = new AtomicLong(System.nanoTime());
+
+	/** number of errors */
+	private static final LongAdder ERRORS = new LongAdder();
+
+	/** number of errors without a sample */
+	private static final LongAdder SUPPRESSED = new LongAdder();
+
+	/** number of errors of the current interval, used for the dump of the event-ring */
+	private static final AtomicInteger INTERVAL_ERRORS = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 */
+	private WrsErrorLog() {
+		// static methods only
+	}
+
+	/**
+	 * Records an error.
+	 * @param source source of the error, e.g. "message"
+	 * @param msgType type of the message or <code>null</code> if unknown
+	 * @param e exception or <code>null</code>
+	 * @param detail supplier of details (e.g. the shortened payload), called for samples only
+	 */
+	static void error(final String source, final String msgType, final Throwable e, final Supplier<String> detail) {
+		ERRORS.increment();
+		final String type = (msgType == null) ? "-"
+				: (msgType.length() > MAX_TYPE) ? msgType.substring(0, MAX_TYPE) + '*' : msgType;
+		final String key = source + '|' + type + '|' + ((e != null) ? e.getClass().getName() : "-");
+		Group group = MAP_GROUPS.get(key);
+		if (group == null) {
+			group = (MAP_GROUPS.size() < MAX_GROUPS) ? MAP_GROUPS.computeIfAbsent(key, k -> new Group(source, type, e))
+					: MAP_GROUPS.computeIfAbsent(KEY_OTHER, k -> new Group(KEY_OTHER, "-", null));
+		}
+		group.fCount.increment();
+
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		if (group.fSamples.get() < config.getErrorLogSamples()
+				&& group.fSamples.incrementAndGet() <= config.getErrorLogSamples()) {
+			// The details are collected now, the sample is rendered in the housekeeping-thread.
+			final String sample = detail.get();
+			group.fLastMessage = (e != null) ? e.toString() : sample;
+			WrsDispatcher.getInstance().executeHousekeeping(() ->
+				LOGGER.log(Level.SEVERE, String.format("Error in %s (type %s) %s", source, type, sample), e));
+		}
+		else {
+			SUPPRESSED.increment();
+		}
+
+		final int dumpErrors = config.getEventRingDumpErrors();
+		if (dumpErrors > 0 && INTERVAL_ERRORS.incrementAndGet() == dumpErrors) {
+			final WrsEventRing eventRing = WrsEventRing.getInstance();
+			if (eventRing != null) {
+				eventRing.requestDump(String.format("%d errors in the current interval, last in %s (type %s)",
+						Integer.valueOf(dumpErrors), source, type));
+			}
+		}
+
+		final long tsNow = System.nanoTime();
+		final long tsInterval = TS_INTERVAL.get();
+		if (tsNow - tsInterval >= Duration.from(config.getErrorLogInterval()).toNanos()
+				&& TS_INTERVAL.compareAndSet(tsInterval, tsNow)) {
+			// End of the interval: Only the thread which won the CAS triggers the summary.
+			INTERVAL_ERRORS.set(0);
+			WrsDispatcher.getInstance().executeHousekeeping(WrsErrorLog::flush);
+		}
+	}
+
+	/**
+	 * Shortens a payload for a sample.
+	 * @param payload payload
+	 * @return payload, at most {@link #MAX_PAYLOAD} characters and a marker
+	 */
+	static String shorten(final String payload) {
+		return (payload.length() > MAX_PAYLOAD) ? payload.substring(0, MAX_PAYLOAD) + "[...]" : payload;
+	}
+
+	/**
+	 * Logs the summaries of the groups with suppressed errors and resets the counters.
+	 * Idle groups are removed. Called in the housekeeping-thread.
+	 */
+	static void flush() {
+		for (final Entry<String, Group> entry : MAP_GROUPS.entrySet()) {
+			final Group group = entry.getValue();
+			final long count = group.fCount.sumThenReset();
+			final int samples = Math.min(group.fSamples.getAndSet(0), WrsConfiguration.getInstance().getErrorLogSamples());
+			if (count == 0) {
+				MAP_GROUPS.remove(entry.getKey(), group);
+			}
+			else if (count > samples) {
+				LOGGER.warning(String.format("%d errors in %s (type %s): %s, %d without sample, last sample: %s",
+						Long.valueOf(count), group.fSource, group.fType, group.fCause,
+						Long.valueOf(count - samples), group.fLastMessage));
+			}
+		}
+	}
+
+	/**
+	 * Gets a summary of the error-log.
+	 * @return summary
+	 */
+	static String getSummary() {
+		return String.format("#errors=%d, #suppressed=%d, #groups=%d",
+				Long.valueOf(ERRORS.sum()), Long.valueOf(SUPPRESSED.sum()), Integer.valueOf(MAP_GROUPS.size()));
+	}
+
+	/**
+	 * Errors of a source, type of message and exception.
+	 */
+	static class Group {
+		/** source of the errors */
+		final String fSource;
+		/** type of the messages */
+		final String fType;
+		/** class of the exception */
+		final String fCause;
+		/** number of errors in the current interval */
+		final LongAdder fCount = new LongAdder();
+		/** number of samples in the current interval */
+		final AtomicInteger fSamples = new AtomicInteger();
+		/** exception or details of the last sample */
+		volatile String fLastMessage;
+
+		/**
+		 * Constructor
+		 * @param source source of the errors
+		 * @param type type of the messages
+		 * @param e exception or <code>null</code>
+		 */
+		Group(final String source, final String type, final Throwable e) {
+			fSource = source;
+			fType = type;
+			fCause = (e != null) ? e.getClass().getName() : "-";
+		}
+	}
+}
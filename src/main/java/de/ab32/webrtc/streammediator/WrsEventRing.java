@@ -0,0 +1,323 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory flight-recorder of the recent signaling-events (independent of JFR, see {@link WrsEvents}).
+ * The events are stored as compact records in a fixed-size ring-buffer, the oldest records are overwritten.
+ * Rooms and users are anonymized, payloads aren't stored. So the ring is always on,
+ * post-mortems don't need INFO-logging.
+ *
+ * <p>Appending is lock-free: A writer claims a slot by incrementing the sequence, marks the slot as
+ * being written, writes the fields and stamps the slot with its sequence-number (release-stores).
+ * A dump skips slots which have been overwritten or are being written.</p>
+ *
+ * <p>A dump is written by the admin-endpoint (/admin/event-ring) or into the dump-directory if the
+ * error-log counts too many errors in an interval. A client provoking errors mustn't fill the disk:
+ * Automatic dumps have a minimal distance, the oldest dump-files are deleted.
+ * A dump is decoded by {@link WrsEventRingDecoder}.</p>
+ *
+ * <p>Format of a dump: magic "WRSE" (int), version (short), number of types (short),
+ * types (modified UTF-8), number of records (int), records. Format of a record:
+ * time in microseconds since epoch (long), kind (byte), type (byte), outcome (byte),
+ * anonymous connection-id (int), anonymized room (int), anonymized user (int), size (int).</p>
+ */
+public class WrsEventRing {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsEventRing.class.getName());
+
+	/** magic of a dump ("WRSE") */
+	static final int MAGIC = 0x57525345;
+
+	/** version of the dump-format */
+	static final short VERSION = 1;
+
+	/** prefix of dump-files */
+	static final String PREFIX = "wrs-events-";
+
+	/** suffix of dump-files */
+	static final String SUFFIX = ".wrsevents";
+
+	/** kind: connect */
+	static final byte KIND_CONNECT = 1;
+	/** kind: received text-message */
+	static final byte KIND_IN_TEXT = 2;
+	/** kind: received binary message */
+	static final byte KIND_IN_BINARY = 3;
+	/** kind: sent response or routed message */
+	static final byte KIND_OUT = 4;
+	/** kind: close, the size is the status-code */
+	static final byte KIND_CLOSE = 5;
+
+	/** outcome: ok */
+	static final byte OUTCOME_OK = 0;
+	/** outcome: rejected (response with success false) */
+	static final byte OUTCOME_REJECTED = 1;
+	/** outcome: error while processing or sending */
+	static final byte OUTCOME_ERROR = 2;
+	/** outcome: message dropped by the throttling */
+	static final byte OUTCOME_THROTTLED = 3;
+
+	/** known types of messages, the index is stored (0 is an unknown type) */
+	static final List<String> TYPES = Collections.unmodifiableList(Arrays.asList("?",
+			"connect", "login", "relogin", "requestCall", "rejectCall", "offer", "answer", "candidate",
+			"dictionary", "leave", "logout", "broadcast", "stats", "connected", "ack", "error", "throttled"));
+
+	/** map from type to index */
+	private static final Map<String, Integer> MAP_TYPES = new HashMap<>();
+
+	/** number of longs of a record: stamp, time, kind/type/outcome/size, connection/room, user */
+	private static final int RECORD_LONGS = 5;
+
+	/** stamp of a slot being written */
+	private static final long STAMP_WRITING = -1;
+
+	/** current ring (null if disabled) */
+	private static WrsEventRing INSTANCE;
+
+	/** <code>true</code> if the configuration has been read */
+	private static boolean IS_INITIALIZED;
+
+	static {
+		for (int i = 1; i < TYPES.size(); i++) {
+			MAP_TYPES.put(TYPES.get(i), Integer.valueOf(i));
+		}
+	}
+
+	/** number of slots (power of two) */
+	private final int fCapacity;
+
+	/** slots of the records */
+	private final AtomicLongArray fRecords;
+
+	/** sequence-number of the next record */
+	private final AtomicLong fSequence = new AtomicLong();
+
+	/** start in microseconds since epoch */
+	private final long fStartMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+	/** start as in {@link System#nanoTime()} */
+	private final long fStartNanos = System.nanoTime();
+
+	/** time of the last automatic dump as in {@link System#nanoTime()}, 0 if there was none */
+	private final AtomicLong fTsLastAutoDump = new AtomicLong();
+
+	/** number of automatic dumps skipped because of the minimal distance */
+	private final AtomicLong fSkippedDumps = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param capacity minimal number of records, rounded up to a power of two
+	 */
+	WrsEventRing(final int capacity) {
+		fCapacity = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		fRecords = new AtomicLongArray(fCapacity * RECORD_LONGS);
+	}
+
+	/**
+	 * Gets the current ring.
+	 * @return ring or <code>null</code> if the ring is disabled
+	 */
+	public static synchronized WrsEventRing getInstance() {
+		if (!IS_INITIALIZED) {
+			IS_INITIALIZED = true;
+			final int size = WrsConfiguration.getInstance().getEventRingSize();
+			if (size > 0) {
+				INSTANCE = new WrsEventRing(size);
+				LOGGER.info(String.format("Event-ring: #records=%d, %d KiB",
+						Integer.valueOf(INSTANCE.fCapacity), Integer.valueOf(INSTANCE.fCapacity * RECORD_LONGS * 8 / 1024)));
+			}
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Appends an event.
+	 * @param kind kind of event
+	 * @param type type of message or <code>null</code>
+	 * @param outcome outcome
+	 * @param connectionId anonymous connection-id
+	 * @param room session-id or <code>null</code>
+	 * @param user user-name or <code>null</code>
+	 * @param size size of the message
+	 */
+	public void record(final byte kind, final String type, final byte outcome, final int connectionId,
+			final String room, final String user, final int size) {
+		final long tsMicros = fStartMicros + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - fStartNanos);
+		final Integer typeIndex = (type != null) ? MAP_TYPES.get(type) : null;
+		final long seq = fSequence.getAndIncrement();
+		final int base = (int) (seq & (fCapacity - 1)) * RECORD_LONGS;
+		fRecords.set(base, STAMP_WRITING);
+		fRecords.lazySet(base + 1, tsMicros);
+		fRecords.lazySet(base + 2, ((long) (kind & 0xff) << 56) | ((long) ((typeIndex != null) ? typeIndex.intValue() : 0) << 48)
+				| ((long) (outcome & 0xff) << 40) | (size & 0xffffffffL));
+		fRecords.lazySet(base + 3, ((long) connectionId << 32) | (WrsEvents.anonymizeId(room) & 0xffffffffL));
+		fRecords.lazySet(base + 4, WrsEvents.anonymizeId(user));
+		// The stamp is written last, it's the sequence-number + 1 (0 is an empty slot).
+		fRecords.lazySet(base, seq + 1);
+	}
+
+	/**
+	 * Writes a dump of the current records, the oldest record first.
+	 * @param os output-stream, it isn't closed
+	 * @return number of records
+	 * @throws IOException in case of an I/O-error
+	 */
+	public int dump(final OutputStream os) throws IOException {
+		final long seqEnd = fSequence.get();
+		final long seqStart = Math.max(0, seqEnd - fCapacity);
+		final long[] records = new long[(int) (seqEnd - seqStart) * RECORD_LONGS];
+		int numRecords = 0;
+		for (long seq = seqStart; seq < seqEnd; seq++) {
+			final int base = (int) (seq & (fCapacity - 1)) * RECORD_LONGS;
+			final long stamp = fRecords.get(base);
+			final int offset = numRecords * RECORD_LONGS;
+			for (int i = 1; i < RECORD_LONGS; i++) {
+				records[offset + i] = fRecords.get(base + i);
+			}
+			// A slot which has been overwritten or is being written is skipped.
+			if (stamp == seq + 1 && fRecords.get(base) == stamp) {
+				numRecords++;
+			}
+		}
+
+		final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os, 65536));
+		dos.writeInt(MAGIC);
+		dos.writeShort(VERSION);
+		dos.writeShort(TYPES.size());
+		for (final String type : TYPES) {
+			dos.writeUTF(type);
+		}
+		dos.writeInt(numRecords);
+		for (int r = 0; r < numRecords; r++) {
+			final int offset = r * RECORD_LONGS;
+			final long fields = records[offset + 2];
+			final long ids = records[offset + 3];
+			dos.writeLong(records[offset + 1]);
+			dos.writeByte((int) (fields >>> 56));
+			dos.writeByte((int) (fields >>> 48));
+			dos.writeByte((int) (fields >>> 40));
+			dos.writeInt((int) (ids >>> 32));
+			dos.writeInt((int) ids);
+			dos.writeInt((int) records[offset + 4]);
+			dos.writeInt((int) fields);
+		}
+		dos.flush();
+		return numRecords;
+	}
+
+	/**
+	 * Requests an automatic dump into the dump-directory, e.g. at an error-threshold.
+	 * A request within the minimal distance of the previous automatic dump is skipped.
+	 * @param reason reason of the dump (logged)
+	 * @return <code>true</code> if the dump has been scheduled in the housekeeping-thread
+	 */
+	public boolean requestDump(final String reason) {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		final long tsNow = System.nanoTime();
+		final long tsLast = fTsLastAutoDump.get();
+		if ((tsLast != 0 && tsNow - tsLast < Duration.from(config.getEventRingDumpInterval()).toNanos())
+				|| !fTsLastAutoDump.compareAndSet(tsLast, tsNow)) {
+			fSkippedDumps.incrementAndGet();
+			return false;
+		}
+		WrsDispatcher.getInstance().executeHousekeeping(() -> dumpToFile(reason));
+		return true;
+	}
+
+	/**
+	 * Writes a dump into the dump-directory and deletes the oldest dump-files, called in the housekeeping-thread.
+	 * @param reason reason of the dump (logged)
+	 */
+	public void dumpToFile(final String reason) {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		final String dir = config.getEventRingDumpDir();
+		final Path pathDir = Paths.get((dir != null) ? dir : System.getProperty("java.io.tmpdir"));
+		final String name = PREFIX + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+				.format(ZonedDateTime.now(ZoneOffset.UTC)) + SUFFIX;
+		final Path path = pathDir.resolve(name);
+		try (final OutputStream os = Files.newOutputStream(path)) {
+			final int numRecords = dump(os);
+			LOGGER.warning(String.format("Event-ring: %d records dumped into %s (%s)",
+					Integer.valueOf(numRecords), path, reason));
+		}
+		catch (IOException | RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Event-ring: dump into " + path + " failed", e);
+		}
+		deleteOldDumps(pathDir, config.getEventRingDumpFiles());
+	}
+
+	/**
+	 * Deletes the oldest dump-files of a directory.
+	 * The names of the files contain the time of the dump, so they are sorted by age.
+	 * @param pathDir dump-directory
+	 * @param maxFiles number of files to be kept
+	 */
+	static void deleteOldDumps(final Path pathDir, final int maxFiles) {
+		final List<Path> listDumps = new ArrayList<>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(pathDir, PREFIX + "*" + SUFFIX)) {
+			for (final Path path : stream) {
+				listDumps.add(path);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Event-ring: dump-directory " + pathDir + " couldn't be listed", e);
+			return;
+		}
+		Collections.sort(listDumps);
+		for (int i = 0; i < listDumps.size() - maxFiles; i++) {
+			try {
+				Files.deleteIfExists(listDumps.get(i));
+			}
+			catch (IOException e) {
+				LOGGER.warning(String.format("Event-ring: old dump %s couldn't be deleted: %s", listDumps.get(i), e));
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of slots.
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return fCapacity;
+	}
+
+	/**
+	 * Gets the number of appended records since the start.
+	 * @return number of records
+	 */
+	public long getSequence() {
+		return fSequence.get();
+	}
+
+	/**
+	 * Gets the number of automatic dumps skipped because of the minimal distance.
+	 * @return number of dumps
+	 */
+	public long getSkippedDumps() {
+		return fSkippedDumps.get();
+	}
+}
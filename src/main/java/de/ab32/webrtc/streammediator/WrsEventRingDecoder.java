@@ -0,0 +1,107 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes dumps of {@link WrsEventRing} into text, one line per event.
+ *
+ * <p>Usage: <code>java -cp ... de.ab32.webrtc.streammediator.WrsEventRingDecoder &lt;dump-file&gt;...</code></p>
+ *
+ * <p>Columns: time (UTC), connection-id, kind, type, outcome, anonymized room, anonymized user, size.
+ * Anonymized ids are comparable within the dumps of one run of the server only.</p>
+ */
+public class WrsEventRingDecoder {
+
+	/** names of the kinds */
+	private static final String[] KINDS = { "?", "connect", "in", "in-bin", "out", "close" };
+
+	/** names of the outcomes */
+	private static final String[] OUTCOMES = { "ok", "rejected", "error", "throttled" };
+
+	/**
+	 * Constructor
+	 */
+	private WrsEventRingDecoder() {
+		// static methods only
+	}
+
+	/**
+	 * Entry-point of the decoder.
+	 * @param args dump-files
+	 * @throws IOException in case of an I/O-error
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: WrsEventRingDecoder <dump-file>...");
+			System.exit(1);
+		}
+		for (final String arg : args) {
+			try (final InputStream is = Files.newInputStream(Paths.get(arg))) {
+				decode(is, System.out);
+			}
+		}
+	}
+
+	/**
+	 * Decodes a dump.
+	 * @param is input-stream of the dump
+	 * @param out output of the lines
+	 * @return number of records
+	 * @throws IOException in case of an I/O-error or an invalid dump
+	 */
+	static int decode(final InputStream is, final PrintStream out) throws IOException {
+		final DataInputStream dis = new DataInputStream(new BufferedInputStream(is, 65536));
+		if (dis.readInt() != WrsEventRing.MAGIC) {
+			throw new IOException("Not a dump of the event-ring");
+		}
+		final short version = dis.readShort();
+		if (version != WrsEventRing.VERSION) {
+			throw new IOException(String.format("Unsupported version %d", Integer.valueOf(version)));
+		}
+		// The types are taken from the dump, it may have been written by another version of the server.
+		final int numTypes = dis.readShort();
+		final List<String> listTypes = new ArrayList<>(numTypes);
+		for (int i = 0; i < numTypes; i++) {
+			listTypes.add(dis.readUTF());
+		}
+		final int numRecords = dis.readInt();
+		for (int r = 0; r < numRecords; r++) {
+			final long tsMicros = dis.readLong();
+			final int kind = dis.readUnsignedByte();
+			final int type = dis.readUnsignedByte();
+			final int outcome = dis.readUnsignedByte();
+			final int connectionId = dis.readInt();
+			final int room = dis.readInt();
+			final int user = dis.readInt();
+			final int size = dis.readInt();
+			final Instant ts = Instant.ofEpochSecond(TimeUnit.MICROSECONDS.toSeconds(tsMicros),
+					TimeUnit.MICROSECONDS.toNanos(tsMicros % 1000000));
+			out.println(String.format("%s #%d %s %s %s room=%s user=%s size=%d",
+					ts, Integer.valueOf(connectionId),
+					(kind < KINDS.length) ? KINDS[kind] : Integer.toString(kind),
+					(type < listTypes.size()) ? listTypes.get(type) : Integer.toString(type),
+					(outcome < OUTCOMES.length) ? OUTCOMES[outcome] : Integer.toString(outcome),
+					formatId(room), formatId(user), Integer.valueOf(size)));
+		}
+		return numRecords;
+	}
+
+	/**
+	 * Formats an anonymized id like {@link WrsEvents#anonymize(String)}.
+	 * @param id anonymized id
+	 * @return hex-text, "-" in case of no id
+	 */
+	private static String formatId(final int id) {
+		return (id == 0) ? "-" : String.format("%08x", Integer.valueOf(id));
+	}
+}
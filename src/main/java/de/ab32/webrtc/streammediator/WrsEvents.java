@@ -0,0 +1,199 @@
+package de.ab32.webrtc.streammediator;
+
+import java.security.SecureRandom;
+
+/**
+ * Facade of the flight-recorder-events (JFR) of the server.
+ *
+ * <p>A begin-method returns a token or <code>null</code> if the event is disabled,
+ * the commit-methods ignore <code>null</code>. The events are recorded by the class WrsJfrEvents,
+ * it's compiled for Java 11 in its own source-folder (src/main/java-jfr) and loaded by reflection.
+ * Without JFR-support of the JVM (e.g. Java 8) the class isn't loaded and the begin-methods return <code>null</code>.</p>
+ */
+public final class WrsEvents {
+
+	/** name of the class recording the events */
+	private static final String CLASS_JFR_EVENTS = "de.ab32.webrtc.streammediator.WrsJfrEvents";
+
+	/** recorder of the events, <code>null</code> if the JVM doesn't support JFR */
+	private static final Recorder RECORDER = createRecorder();
+
+	/** salt of anonymized room-ids, changes at each start */
+	private static final int SALT = new SecureRandom().nextInt();
+
+	/**
+	 * Constructor
+	 */
+	private WrsEvents() {
+		// static methods only
+	}
+
+	/**
+	 * Creates the recorder of the events if the JVM supports JFR.
+	 * @return recorder or <code>null</code> if jdk.jfr or the class of the recorder isn't available
+	 */
+	private static Recorder createRecorder() {
+		Recorder recorder;
+		try {
+			Class.forName("jdk.jfr.Event");
+			recorder = (Recorder) Class.forName(CLASS_JFR_EVENTS).getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			recorder = null;
+		}
+		return recorder;
+	}
+
+	/**
+	 * Anonymizes a session-id (room), the same room gets the same id during the runtime of the server.
+	 * @param room session-id or <code>null</code>
+	 * @return anonymized id or <code>null</code>
+	 */
+	static String anonymize(final String room) {
+		if (room == null) {
+			return null;
+		}
+		return String.format("%08x", Integer.valueOf(anonymizeId(room)));
+	}
+
+	/**
+	 * Anonymizes a session-id (room) or user-name as number, see {@link #anonymize(String)}.
+	 * @param id session-id or user-name or <code>null</code>
+	 * @return anonymized id, 0 in case of <code>null</code>
+	 */
+	static int anonymizeId(final String id) {
+		if (id == null) {
+			return 0;
+		}
+		int h = id.hashCode() ^ SALT;
+		h *= 0x9e3779b1;
+		h ^= h >>> 15;
+		return h;
+	}
+
+	/**
+	 * Starts the event of a received message.
+	 * @return token or <code>null</code>
+	 */
+	public static Object beginMessage() {
+		return (RECORDER != null) ? RECORDER.beginMessage() : null;
+	}
+
+	/**
+	 * Commits the event of a received message.
+	 * @param token token or <code>null</code>
+	 * @param type type of message
+	 * @param payloadSize size of the message
+	 * @param binary <code>true</code> in case of a binary message
+	 * @param parseNanos duration of parsing in nanoseconds
+	 * @param room session-id
+	 */
+	public static void commitMessage(final Object token, final String type, final int payloadSize, final boolean binary,
+			final long parseNanos, final String room) {
+		if (token != null) {
+			RECORDER.commitMessage(token, type, payloadSize, binary, parseNanos, room);
+		}
+	}
+
+	/**
+	 * Starts the event of the lookup of a peer.
+	 * @return token or <code>null</code>
+	 */
+	public static Object beginRouting() {
+		return (RECORDER != null) ? RECORDER.beginRouting() : null;
+	}
+
+	/**
+	 * Commits the event of the lookup of a peer.
+	 * @param token token or <code>null</code>
+	 * @param type type of message
+	 * @param room session-id
+	 * @param found <code>true</code> if the peer is known
+	 */
+	public static void commitRouting(final Object token, final String type, final String room, final boolean found) {
+		if (token != null) {
+			RECORDER.commitRouting(token, type, room, found);
+		}
+	}
+
+	/**
+	 * Starts the event of a send.
+	 * @return token or <code>null</code>
+	 */
+	public static Object beginSend() {
+		return (RECORDER != null) ? RECORDER.beginSend() : null;
+	}
+
+	/**
+	 * Commits the event of a send at its completion.
+	 * @param token token or <code>null</code>
+	 * @param payloadSize size of the message
+	 * @param binary <code>true</code> in case of a binary message
+	 * @param success <code>true</code> if the write succeeded
+	 */
+	public static void commitSend(final Object token, final int payloadSize, final boolean binary, final boolean success) {
+		if (token != null) {
+			RECORDER.commitSend(token, payloadSize, binary, success);
+		}
+	}
+
+	/**
+	 * Starts the event of a clean-up.
+	 * @return token or <code>null</code>
+	 */
+	public static Object beginCleanup() {
+		return (RECORDER != null) ? RECORDER.beginCleanup() : null;
+	}
+
+	/**
+	 * Commits the event of a clean-up.
+	 * @param token token or <code>null</code>
+	 * @param sessions number of sessions
+	 * @param removedSessions number of removed sessions
+	 * @param websocketSessions number of websocket-sessions
+	 * @param removedWebsocketSessions number of removed websocket-sessions
+	 */
+	public static void commitCleanup(final Object token, final int sessions, final int removedSessions,
+			final int websocketSessions, final int removedWebsocketSessions) {
+		if (token != null) {
+			RECORDER.commitCleanup(token, sessions, removedSessions, websocketSessions, removedWebsocketSessions);
+		}
+	}
+
+	/**
+	 * Starts the event of a login or relogin.
+	 * @return token or <code>null</code>
+	 */
+	public static Object beginLogin() {
+		return (RECORDER != null) ? RECORDER.beginLogin() : null;
+	}
+
+	/**
+	 * Commits the event of a login or relogin.
+	 * @param token token or <code>null</code>
+	 * @param type login or relogin
+	 * @param room session-id
+	 * @param replaced <code>true</code> if a previous websocket-session of the user has been replaced
+	 */
+	public static void commitLogin(final Object token, final String type, final String room, final boolean replaced) {
+		if (token != null) {
+			RECORDER.commitLogin(token, type, room, replaced);
+		}
+	}
+
+	/**
+	 * Recorder of the events, see {@link #beginMessage()} etc.
+	 */
+	interface Recorder {
+		Object beginMessage();
+		void commitMessage(Object token, String type, int payloadSize, boolean binary, long parseNanos, String room);
+		Object beginRouting();
+		void commitRouting(Object token, String type, String room, boolean found);
+		Object beginSend();
+		void commitSend(Object token, int payloadSize, boolean binary, boolean success);
+		Object beginCleanup();
+		void commitCleanup(Object token, int sessions, int removedSessions, int websocketSessions, int removedWebsocketSessions);
+		Object beginLogin();
+		void commitLogin(Object token, String type, String room, boolean replaced);
+	}
+}
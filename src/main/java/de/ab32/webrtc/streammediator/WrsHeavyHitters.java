@@ -0,0 +1,188 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Streaming top-K-tracker of heavy hitters (count-min-sketch with a small candidate-map).
+ * The memory is bounded regardless of the number of distinct keys.
+ * The counts are halved at the end of each window, so the tracker shows the current load.
+ */
+public class WrsHeavyHitters {
+
+	/** tracker of the number of messages per room */
+	static final WrsHeavyHitters ROOM_MESSAGES = new WrsHeavyHitters(1024, 16);
+	/** tracker of the received bytes per room */
+	static final WrsHeavyHitters ROOM_BYTES = new WrsHeavyHitters(1024, 16);
+	/** tracker of the number of messages per anonymized remote-address */
+	static final WrsHeavyHitters ADDRESS_MESSAGES = new WrsHeavyHitters(1024, 16);
+	/** tracker of the received bytes per anonymized remote-address */
+	static final WrsHeavyHitters ADDRESS_BYTES = new WrsHeavyHitters(1024, 16);
+
+	/** trackers by name */
+	static final Map<String, WrsHeavyHitters> TRACKERS;
+
+	static {
+		final Map<String, WrsHeavyHitters> mapTrackers = new LinkedHashMap<>();
+		mapTrackers.put("roomMessages", ROOM_MESSAGES);
+		mapTrackers.put("roomBytes", ROOM_BYTES);
+		mapTrackers.put("addressMessages", ADDRESS_MESSAGES);
+		mapTrackers.put("addressBytes", ADDRESS_BYTES);
+		TRACKERS = Collections.unmodifiableMap(mapTrackers);
+	}
+
+	/** number of hash-functions (rows) of the sketch */
+	private static final int DEPTH = 4;
+
+	/** number of counters per row (power of two) */
+	private final int fWidth;
+
+	/** counters of the sketch (DEPTH rows) */
+	private final AtomicLongArray fCounters;
+
+	/** maximal number of tracked heavy hitters */
+	private final int fK;
+
+	/** candidates: key to estimated count, guarded by this */
+	private final Map<String, Long> fTopK;
+
+	/** smallest estimate in the full candidate-map, smaller estimates are ignored without lock */
+	private volatile long fThreshold;
+
+	/**
+	 * Constructor
+	 * @param width number of counters per row, rounded up to a power of two
+	 * @param k maximal number of tracked heavy hitters
+	 */
+	WrsHeavyHitters(final int width, final int k) {
+		fWidth = Integer.highestOneBit(Math.max(width, 2) - 1) << 1;
+		fCounters = new AtomicLongArray(DEPTH * fWidth);
+		fK = k;
+		fTopK = new HashMap<>(2 * k);
+	}
+
+	/**
+	 * Adds an amount to the count of a key.
+	 * @param key key, e.g. a session-id
+	 * @param amount amount, e.g. 1 or number of bytes
+	 * @return estimated count of the key in the current window (never too small)
+	 */
+	public long add(final String key, final long amount) {
+		final int h1 = key.hashCode();
+		final int h2 = mix(h1) | 1;
+		long estimate = Long.MAX_VALUE;
+		for (int i = 0; i < DEPTH; i++) {
+			final int idx = i * fWidth + ((h1 + i * h2) & (fWidth - 1));
+			estimate = Math.min(estimate, fCounters.addAndGet(idx, amount));
+		}
+		if (estimate > fThreshold) {
+			updateTopK(key, estimate);
+		}
+		return estimate;
+	}
+
+	/**
+	 * Gets the estimated count of a key.
+	 * @param key key
+	 * @return estimated count (never too small)
+	 */
+	public long estimate(final String key) {
+		final int h1 = key.hashCode();
+		final int h2 = mix(h1) | 1;
+		long estimate = Long.MAX_VALUE;
+		for (int i = 0; i < DEPTH; i++) {
+			estimate = Math.min(estimate, fCounters.get(i * fWidth + ((h1 + i * h2) & (fWidth - 1))));
+		}
+		return estimate;
+	}
+
+	/**
+	 * Updates the candidate-map.
+	 * @param key key
+	 * @param estimate estimated count
+	 */
+	private synchronized void updateTopK(final String key, final long estimate) {
+		fTopK.put(key, Long.valueOf(estimate));
+		if (fTopK.size() > fK) {
+			fTopK.remove(findMin().getKey());
+		}
+		updateThreshold();
+	}
+
+	/**
+	 * Finds the candidate with the smallest estimate.
+	 * @return entry
+	 */
+	private Entry<String, Long> findMin() {
+		Entry<String, Long> entryMin = null;
+		for (final Entry<String, Long> entry : fTopK.entrySet()) {
+			if (entryMin == null || entry.getValue().longValue() < entryMin.getValue().longValue()) {
+				entryMin = entry;
+			}
+		}
+		return entryMin;
+	}
+
+	/**
+	 * Computes the threshold of new candidates.
+	 */
+	private void updateThreshold() {
+		fThreshold = (fTopK.size() < fK) ? 0 : findMin().getValue().longValue();
+	}
+
+	/**
+	 * Gets the current heavy hitters.
+	 * @return entries ordered by descending estimate
+	 */
+	public synchronized List<Entry<String, Long>> getTopK() {
+		final List<Entry<String, Long>> list = new ArrayList<>(fTopK.size());
+		for (final Entry<String, Long> entry : fTopK.entrySet()) {
+			list.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+		}
+		list.sort((e1, e2) -> Long.compare(e2.getValue().longValue(), e1.getValue().longValue()));
+		return list;
+	}
+
+	/**
+	 * Halves all counts (end of a window).
+	 */
+	public void decay() {
+		for (int i = 0; i < fCounters.length(); i++) {
+			fCounters.getAndUpdate(i, c -> c >> 1);
+		}
+		synchronized (this) {
+			fTopK.replaceAll((key, value) -> Long.valueOf(value.longValue() >> 1));
+			fTopK.values().removeIf(value -> value.longValue() == 0);
+			updateThreshold();
+		}
+	}
+
+	/**
+	 * Halves the counts of all trackers, called in the housekeeping-thread.
+	 */
+	static void decayAll() {
+		for (final WrsHeavyHitters tracker : TRACKERS.values()) {
+			tracker.decay();
+		}
+	}
+
+	/**
+	 * Second hash-function.
+	 * @param h hash-code
+	 * @return mixed hash-code
+	 */
+	private static int mix(final int h) {
+		int x = h * 0x9e3779b1;
+		x ^= x >>> 16;
+		x *= 0x85ebca6b;
+		x ^= x >>> 13;
+		return x;
+	}
+}
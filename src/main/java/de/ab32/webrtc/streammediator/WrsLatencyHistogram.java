@@ -0,0 +1,113 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in milliseconds with fixed buckets.
+ * Recording is lock-free, the buckets are cumulative only when read.
+ */
+public class WrsLatencyHistogram {
+
+	/** upper bounds of the buckets in milliseconds, the last bucket is unbounded */
+	static final long[] BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000 };
+
+	/** counts of the buckets (BOUNDS_MILLIS.length + 1) */
+	private final AtomicLongArray fCounts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+
+	/** number of values */
+	private final AtomicLong fCount = new AtomicLong();
+
+	/** sum of the values in milliseconds */
+	private final AtomicLong fSumMillis = new AtomicLong();
+
+	/** largest value in milliseconds */
+	private final AtomicLong fMaxMillis = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * @param millis latency in milliseconds
+	 */
+	public void record(final long millis) {
+		final long value = Math.max(0, millis);
+		int idx = 0;
+		while (idx < BOUNDS_MILLIS.length && value > BOUNDS_MILLIS[idx]) {
+			idx++;
+		}
+		fCounts.incrementAndGet(idx);
+		fCount.incrementAndGet();
+		fSumMillis.addAndGet(value);
+		fMaxMillis.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Gets the number of values.
+	 * @return number of values
+	 */
+	public long getCount() {
+		return fCount.get();
+	}
+
+	/**
+	 * Gets the average latency.
+	 * @return average in milliseconds, 0 if there are no values
+	 */
+	public long getAverageMillis() {
+		final long count = fCount.get();
+		return (count > 0) ? fSumMillis.get() / count : 0;
+	}
+
+	/**
+	 * Gets the largest latency.
+	 * @return latency in milliseconds
+	 */
+	public long getMaxMillis() {
+		return fMaxMillis.get();
+	}
+
+	/**
+	 * Gets the counts of the buckets.
+	 * @return counts, index i counts the values up to BOUNDS_MILLIS[i], the last index the larger values
+	 */
+	public long[] getCounts() {
+		final long[] counts = new long[fCounts.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = fCounts.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Estimates a percentile by the upper bound of its bucket.
+	 * @param percentile percentile, e.g. 0.95
+	 * @return upper bound in milliseconds (the maximum in case of the last bucket), 0 if there are no values
+	 */
+	public long getPercentileMillis(final double percentile) {
+		final long[] counts = getCounts();
+		long total = 0;
+		for (final long count : counts) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(percentile * total);
+		long sum = 0;
+		for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+			sum += counts[i];
+			if (sum >= rank) {
+				return BOUNDS_MILLIS[i];
+			}
+		}
+		return fMaxMillis.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("n=%d, avg=%d ms, p50<=%d ms, p95<=%d ms, max=%d ms",
+				Long.valueOf(getCount()), Long.valueOf(getAverageMillis()),
+				Long.valueOf(getPercentileMillis(0.5)), Long.valueOf(getPercentileMillis(0.95)),
+				Long.valueOf(getMaxMillis()));
+	}
+}
@@ -0,0 +1,196 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rolling aggregates of the media-statistics (RTT, packet-loss, bitrate, type of the candidate-pair)
+ * reported by the clients. Single reports aren't stored.
+ *
+ * <p>A window consists of {@link #SLOTS} slots of one minute. The counters are atomic,
+ * a slot is reset by the first report of a new minute. A report racing with the reset
+ * of its slot may get lost, that's acceptable for these statistics.</p>
+ */
+public class WrsMediaStats {
+
+	/** number of slots of a window */
+	static final int SLOTS = 10;
+
+	/** duration of a slot */
+	static final long SLOT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	/** maximal number of rooms, reports of further rooms are counted in the fleet-window only */
+	private static final int MAX_ROOMS = 1000;
+
+	/** field: number of reports */
+	static final int F_REPORTS = 0;
+	/** field: sum of round-trip-times in milliseconds */
+	static final int F_RTT_SUM = 1;
+	/** field: number of round-trip-times */
+	static final int F_RTT_COUNT = 2;
+	/** field: sum of packet-losses in per mille */
+	static final int F_LOSS_SUM = 3;
+	/** field: number of packet-losses */
+	static final int F_LOSS_COUNT = 4;
+	/** field: sum of bitrates in kbit/s */
+	static final int F_KBPS_SUM = 5;
+	/** field: number of bitrates */
+	static final int F_KBPS_COUNT = 6;
+	/** field: candidate-pair host (local and remote) */
+	static final int F_PAIR_HOST = 7;
+	/** field: candidate-pair with server-reflexive or peer-reflexive candidate (STUN) */
+	static final int F_PAIR_SRFLX = 8;
+	/** field: candidate-pair with relay-candidate (TURN) */
+	static final int F_PAIR_RELAY = 9;
+	/** number of fields of a slot */
+	static final int FIELDS = 10;
+
+	/** window of all rooms */
+	static final Window FLEET = new Window();
+
+	/** windows by anonymized room */
+	private static final ConcurrentMap<String, Window> MAP_ROOMS = new ConcurrentHashMap<>(100);
+
+	/**
+	 * Constructor
+	 */
+	private WrsMediaStats() {
+		// static methods only
+	}
+
+	/**
+	 * Records a report of a client.
+	 * @param room session-id
+	 * @param rttMillis round-trip-time in milliseconds or -1
+	 * @param lossPermille packet-loss in per mille or -1
+	 * @param kbps received bitrate in kbit/s or -1
+	 * @param pairType type of the candidate-pair (host, srflx, prflx, relay) or <code>null</code>
+	 */
+	static void record(final String room, final long rttMillis, final long lossPermille, final long kbps,
+			final String pairType) {
+		final long tsNow = System.currentTimeMillis();
+		FLEET.record(tsNow, rttMillis, lossPermille, kbps, pairType);
+		final String roomKey = WrsEvents.anonymize(room);
+		Window window = MAP_ROOMS.get(roomKey);
+		if (window == null && MAP_ROOMS.size() < MAX_ROOMS) {
+			window = MAP_ROOMS.computeIfAbsent(roomKey, k -> new Window());
+		}
+		if (window != null) {
+			window.record(tsNow, rttMillis, lossPermille, kbps, pairType);
+		}
+	}
+
+	/**
+	 * Removes the windows of rooms without reports in the last window.
+	 */
+	static void expire() {
+		final long tsNow = System.currentTimeMillis();
+		MAP_ROOMS.values().removeIf(window -> window.sum(tsNow)[F_REPORTS] == 0);
+	}
+
+	/**
+	 * Gets the windows of the rooms.
+	 * @return unmodifiable map from anonymized room to window
+	 */
+	static Map<String, Window> getRooms() {
+		return Collections.unmodifiableMap(MAP_ROOMS);
+	}
+
+	/**
+	 * Rolling window of slots.
+	 */
+	static class Window {
+		/** minute (since epoch) of each slot */
+		private final AtomicLongArray fMinutes = new AtomicLongArray(SLOTS);
+		/** counters, FIELDS per slot */
+		private final AtomicLongArray fCounters = new AtomicLongArray(SLOTS * FIELDS);
+
+		/**
+		 * Records a report.
+		 * @param tsNow current time in milliseconds
+		 * @param rttMillis round-trip-time in milliseconds or -1
+		 * @param lossPermille packet-loss in per mille or -1
+		 * @param kbps received bitrate in kbit/s or -1
+		 * @param pairType type of the candidate-pair or <code>null</code>
+		 */
+		void record(final long tsNow, final long rttMillis, final long lossPermille, final long kbps,
+				final String pairType) {
+			final long minute = tsNow / SLOT_MILLIS;
+			final int slot = (int) (minute % SLOTS);
+			final long minuteSlot = fMinutes.get(slot);
+			if (minuteSlot != minute && fMinutes.compareAndSet(slot, minuteSlot, minute)) {
+				// The slot is reused for the current minute.
+				for (int i = 0; i < FIELDS; i++) {
+					fCounters.set(slot * FIELDS + i, 0);
+				}
+			}
+			final int base = slot * FIELDS;
+			fCounters.incrementAndGet(base + F_REPORTS);
+			if (rttMillis >= 0) {
+				fCounters.addAndGet(base + F_RTT_SUM, rttMillis);
+				fCounters.incrementAndGet(base + F_RTT_COUNT);
+			}
+			if (lossPermille >= 0) {
+				fCounters.addAndGet(base + F_LOSS_SUM, lossPermille);
+				fCounters.incrementAndGet(base + F_LOSS_COUNT);
+			}
+			if (kbps >= 0) {
+				fCounters.addAndGet(base + F_KBPS_SUM, kbps);
+				fCounters.incrementAndGet(base + F_KBPS_COUNT);
+			}
+			if ("host".equals(pairType)) {
+				fCounters.incrementAndGet(base + F_PAIR_HOST);
+			}
+			else if ("srflx".equals(pairType) || "prflx".equals(pairType)) {
+				fCounters.incrementAndGet(base + F_PAIR_SRFLX);
+			}
+			else if ("relay".equals(pairType)) {
+				fCounters.incrementAndGet(base + F_PAIR_RELAY);
+			}
+		}
+
+		/**
+		 * Sums the slots of the current window.
+		 * @param tsNow current time in milliseconds
+		 * @return sums of the fields
+		 */
+		long[] sum(final long tsNow) {
+			final long minuteNow = tsNow / SLOT_MILLIS;
+			final long[] sums = new long[FIELDS];
+			for (int slot = 0; slot < SLOTS; slot++) {
+				final long minute = fMinutes.get(slot);
+				if (minute > minuteNow - SLOTS && minute <= minuteNow) {
+					for (int i = 0; i < FIELDS; i++) {
+						sums[i] += fCounters.get(slot * FIELDS + i);
+					}
+				}
+			}
+			return sums;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			final long[] sums = sum(System.currentTimeMillis());
+			return String.format("#reports=%d, avgRtt=%d ms, avgLoss=%d permille, avgKbps=%d, pairs(host/stun/turn)=%d/%d/%d",
+					Long.valueOf(sums[F_REPORTS]), Long.valueOf(avg(sums, F_RTT_SUM, F_RTT_COUNT)),
+					Long.valueOf(avg(sums, F_LOSS_SUM, F_LOSS_COUNT)), Long.valueOf(avg(sums, F_KBPS_SUM, F_KBPS_COUNT)),
+					Long.valueOf(sums[F_PAIR_HOST]), Long.valueOf(sums[F_PAIR_SRFLX]), Long.valueOf(sums[F_PAIR_RELAY]));
+		}
+	}
+
+	/**
+	 * Computes an average.
+	 * @param sums sums of the fields
+	 * @param fieldSum field of the sum
+	 * @param fieldCount field of the count
+	 * @return average, -1 if there are no values
+	 */
+	static long avg(final long[] sums, final int fieldSum, final int fieldCount) {
+		return (sums[fieldCount] > 0) ? sums[fieldSum] / sums[fieldCount] : -1;
+	}
+}
@@ -0,0 +1,210 @@
+package de.ab32.webrtc.streammediator;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Node-wide budget of the bytes of in-flight signaling-buffers (received messages waiting
+ * for their handling, messages being sent).
+ *
+ * <p>The usage is counted in a striped counter ({@link LongAdder}), so the threads of the
+ * connections don't contend on a single variable. Each buffer of the receive- and send-path
+ * has to acquire its bytes: A reservation exceeding the budget is refused, the connection
+ * asking for it is closed (receive) or the message isn't sent (send). If the budget is exhausted
+ * the optional work is degraded too: New connects are rejected and ICE-candidates are shed
+ * until buffers have been released.</p>
+ *
+ * <p>The check and the reservation aren't atomic, concurrent reservations may exceed the budget
+ * by at most one buffer per thread.</p>
+ */
+public class WrsMemoryBudget implements WrsMemoryBudgetMBean {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsMemoryBudget.class.getName());
+
+	/** name of the JMX-bean */
+	private static final String JMX_NAME = "de.ab32.webrtc.streammediator:type=WrsMemoryBudget";
+
+	/** reserved bytes */
+	private static final LongAdder USED = new LongAdder();
+
+	/** number of rejected connects */
+	private static final AtomicLong REJECTED_CONNECTS = new AtomicLong();
+
+	/** number of shed candidates */
+	private static final AtomicLong SHED_CANDIDATES = new AtomicLong();
+
+	/** number of refused buffers of received messages */
+	private static final AtomicLong REFUSED_RECEIVES = new AtomicLong();
+
+	/** number of refused buffers of sent messages */
+	private static final AtomicLong REFUSED_SENDS = new AtomicLong();
+
+	/**
+	 * Reserves the bytes of a received message, a refusal is counted.
+	 * @param bytes size of the buffer
+	 * @return <code>false</code> if the reservation is refused, the budget would be exceeded
+	 */
+	public static boolean acquireReceive(final long bytes) {
+		if (!tryAcquire(bytes)) {
+			REFUSED_RECEIVES.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reserves the bytes of a message to be sent, a refusal is counted.
+	 * @param bytes size of the buffer
+	 * @return <code>false</code> if the reservation is refused, the budget would be exceeded
+	 */
+	public static boolean acquireSend(final long bytes) {
+		if (!tryAcquire(bytes)) {
+			REFUSED_SENDS.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reserves the bytes of a buffer if the budget isn't exceeded.
+	 * @param bytes size of the buffer
+	 * @return <code>true</code> if the bytes have been reserved
+	 */
+	private static boolean tryAcquire(final long bytes) {
+		if (USED.sum() + bytes > WrsConfiguration.getInstance().getMemoryBudget()) {
+			return false;
+		}
+		USED.add(bytes);
+		return true;
+	}
+
+	/**
+	 * Releases the bytes of a buffer.
+	 * @param bytes size of the buffer
+	 */
+	public static void release(final long bytes) {
+		USED.add(-bytes);
+	}
+
+	/**
+	 * Checks if the budget is exhausted.
+	 * @return <code>true</code> if the reserved bytes reach the configured budget
+	 */
+	public static boolean isExhausted() {
+		return USED.sum() >= WrsConfiguration.getInstance().getMemoryBudget();
+	}
+
+	/**
+	 * Checks if a new connect is admitted, a rejected connect is counted.
+	 * @return <code>true</code> if the budget isn't exhausted
+	 */
+	public static boolean admitConnect() {
+		if (isExhausted()) {
+			REJECTED_CONNECTS.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a candidate has to be shed, a shed candidate is counted.
+	 * @return <code>true</code> if the budget is exhausted
+	 */
+	public static boolean shedCandidate() {
+		if (isExhausted()) {
+			SHED_CANDIDATES.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Registers the JMX-bean.
+	 */
+	public static void register() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(JMX_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new WrsMemoryBudget(), name);
+			}
+		}
+		catch (JMException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "The JMX-bean of the memory-budget couldn't be registered", e);
+		}
+	}
+
+	/**
+	 * Unregisters the JMX-bean.
+	 */
+	public static void unregister() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(JMX_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (JMException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "The JMX-bean of the memory-budget couldn't be unregistered", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getUsedBytes() {
+		return USED.sum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getLimitBytes() {
+		return WrsConfiguration.getInstance().getMemoryBudget();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getUsagePercent() {
+		return (int) (100 * getUsedBytes() / Math.max(1, getLimitBytes()));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRejectedConnects() {
+		return REJECTED_CONNECTS.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getShedCandidates() {
+		return SHED_CANDIDATES.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRefusedReceives() {
+		return REFUSED_RECEIVES.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRefusedSends() {
+		return REFUSED_SENDS.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("used=%d bytes, limit=%d bytes, usage=%d%%, #rejectedConnects=%d, #shedCandidates=%d, #refusedReceives=%d, #refusedSends=%d",
+				Long.valueOf(getUsedBytes()), Long.valueOf(getLimitBytes()), Integer.valueOf(getUsagePercent()),
+				Long.valueOf(getRejectedConnects()), Long.valueOf(getShedCandidates()),
+				Long.valueOf(getRefusedReceives()), Long.valueOf(getRefusedSends()));
+	}
+}
@@ -0,0 +1,49 @@
+package de.ab32.webrtc.streammediator;
+
+/**
+ * JMX-interface of the memory-budget of the in-flight signaling-buffers.
+ */
+public interface WrsMemoryBudgetMBean {
+
+	/**
+	 * Gets the bytes of the buffers currently reserved.
+	 * @return bytes
+	 */
+	long getUsedBytes();
+
+	/**
+	 * Gets the budget.
+	 * @return bytes
+	 */
+	long getLimitBytes();
+
+	/**
+	 * Gets the usage of the budget.
+	 * @return percent (may exceed 100)
+	 */
+	int getUsagePercent();
+
+	/**
+	 * Gets the number of connects rejected because the budget was exhausted.
+	 * @return number of connects
+	 */
+	long getRejectedConnects();
+
+	/**
+	 * Gets the number of candidates not relayed because the budget was exhausted.
+	 * @return number of candidates
+	 */
+	long getShedCandidates();
+
+	/**
+	 * Gets the number of received messages refused because the budget was exhausted, their connections were closed.
+	 * @return number of messages
+	 */
+	long getRefusedReceives();
+
+	/**
+	 * Gets the number of messages not sent because the budget was exhausted.
+	 * @return number of messages
+	 */
+	long getRefusedSends();
+}
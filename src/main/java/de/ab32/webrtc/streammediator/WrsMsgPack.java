@@ -0,0 +1,353 @@
+package de.ab32.webrtc.streammediator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * Binary encoding of the signaling-messages (subset of MessagePack).
+ * Strings (e.g. SDP or ICE-candidates) are stored as length-prefixed UTF-8.
+ * Only the types needed by JSON are supported: nil, boolean, integer, float64, string, array and map.
+ */
+public class WrsMsgPack {
+
+	/** name of the websocket-subprotocol of the binary encoding */
+	public static final String PROTOCOL_MSGPACK = "wrs.msgpack";
+
+	/** name of the websocket-subprotocol of the JSON-encoding */
+	public static final String PROTOCOL_JSON = "wrs.json";
+
+	/** maximal depth of nested arrays and maps */
+	private static final int MAX_DEPTH = 16;
+
+	/** buffer of the encoder */
+	private byte[] fBuf;
+
+	/** current position in the buffer of the encoder */
+	private int fPos;
+
+	/**
+	 * Constructor of an encoder.
+	 * @param initialSize initial size of the buffer
+	 */
+	private WrsMsgPack(final int initialSize) {
+		fBuf = new byte[initialSize];
+	}
+
+	/**
+	 * Encodes a JSON-object.
+	 * @param json JSON-object
+	 * @return binary message
+	 */
+	public static byte[] encode(final JsonObject json) {
+		final WrsMsgPack encoder = new WrsMsgPack(256);
+		encoder.writeValue(json);
+		return Arrays.copyOf(encoder.fBuf, encoder.fPos);
+	}
+
+	/**
+	 * Decodes a binary message into a JSON-object.
+	 * @param buf buffer
+	 * @param offset offset of the message in the buffer
+	 * @param length length of the message
+	 * @return JSON-object
+	 * @throws IllegalArgumentException in case of an invalid message
+	 */
+	public static JsonObject decode(final byte[] buf, final int offset, final int length) {
+		final Decoder decoder = new Decoder(buf, offset, length);
+		final JsonValue value = decoder.readValue(0);
+		if (decoder.fPos != decoder.fEnd) {
+			throw new IllegalArgumentException(String.format("Unexpected trailing bytes (%d) in binary message",
+					Integer.valueOf(decoder.fEnd - decoder.fPos)));
+		}
+		if (!(value instanceof JsonObject)) {
+			throw new IllegalArgumentException("The binary message doesn't contain a map: " + value.getValueType());
+		}
+		return (JsonObject) value;
+	}
+
+	/**
+	 * Writes a JSON-value.
+	 * @param value value
+	 */
+	private void writeValue(final JsonValue value) {
+		switch (value.getValueType()) {
+		case NULL:
+			writeByte(0xc0);
+			break;
+		case FALSE:
+			writeByte(0xc2);
+			break;
+		case TRUE:
+			writeByte(0xc3);
+			break;
+		case NUMBER:
+			final JsonNumber number = (JsonNumber) value;
+			if (number.isIntegral()) {
+				writeLong(number.longValue());
+			}
+			else {
+				writeByte(0xcb);
+				writeInt64(Double.doubleToLongBits(number.doubleValue()));
+			}
+			break;
+		case STRING:
+			writeString(((JsonString) value).getString());
+			break;
+		case ARRAY:
+			final JsonArray array = (JsonArray) value;
+			writeHeader(array.size(), 0x90, 0xdc, 0xdd);
+			for (final JsonValue element : array) {
+				writeValue(element);
+			}
+			break;
+		case OBJECT:
+			final JsonObject object = (JsonObject) value;
+			writeHeader(object.size(), 0x80, 0xde, 0xdf);
+			for (final Entry<String, JsonValue> entry : object.entrySet()) {
+				writeString(entry.getKey());
+				writeValue(entry.getValue());
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unexpected JSON-type: " + value.getValueType());
+		}
+	}
+
+	/**
+	 * Writes an integer in the shortest format.
+	 * @param value integer
+	 */
+	private void writeLong(final long value) {
+		if (value >= 0 && value <= 0x7f) {
+			writeByte((int) value);
+		}
+		else if (value < 0 && value >= -32) {
+			writeByte((int) value & 0xff);
+		}
+		else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			writeByte(0xd2);
+			writeInt32((int) value);
+		}
+		else {
+			writeByte(0xd3);
+			writeInt64(value);
+		}
+	}
+
+	/**
+	 * Writes a string as length-prefixed UTF-8.
+	 * @param s string
+	 */
+	private void writeString(final String s) {
+		final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+		final int len = utf8.length;
+		if (len <= 31) {
+			writeByte(0xa0 | len);
+		}
+		else if (len <= 0xff) {
+			writeByte(0xd9);
+			writeByte(len);
+		}
+		else if (len <= 0xffff) {
+			writeByte(0xda);
+			writeInt16(len);
+		}
+		else {
+			writeByte(0xdb);
+			writeInt32(len);
+		}
+		ensureCapacity(len);
+		System.arraycopy(utf8, 0, fBuf, fPos, len);
+		fPos += len;
+	}
+
+	/**
+	 * Writes the header of an array or map.
+	 * @param size number of elements
+	 * @param fixPrefix prefix of the fix-format
+	 * @param prefix16 prefix of the 16-bit-format
+	 * @param prefix32 prefix of the 32-bit-format
+	 */
+	private void writeHeader(final int size, final int fixPrefix, final int prefix16, final int prefix32) {
+		if (size <= 15) {
+			writeByte(fixPrefix | size);
+		}
+		else if (size <= 0xffff) {
+			writeByte(prefix16);
+			writeInt16(size);
+		}
+		else {
+			writeByte(prefix32);
+			writeInt32(size);
+		}
+	}
+
+	private void writeByte(final int b) {
+		ensureCapacity(1);
+		fBuf[fPos++] = (byte) b;
+	}
+
+	private void writeInt16(final int value) {
+		writeByte(value >>> 8);
+		writeByte(value);
+	}
+
+	private void writeInt32(final int value) {
+		writeInt16(value >>> 16);
+		writeInt16(value);
+	}
+
+	private void writeInt64(final long value) {
+		writeInt32((int) (value >>> 32));
+		writeInt32((int) value);
+	}
+
+	/**
+	 * Ensures that the buffer can take additional bytes.
+	 * @param len number of additional bytes
+	 */
+	private void ensureCapacity(final int len) {
+		if (fPos + len > fBuf.length) {
+			fBuf = Arrays.copyOf(fBuf, Math.max(2 * fBuf.length, fPos + len));
+		}
+	}
+
+	/**
+	 * Decoder of a binary message.
+	 */
+	static class Decoder {
+		private final byte[] fBuf;
+		private final int fEnd;
+		private int fPos;
+
+		Decoder(final byte[] buf, final int offset, final int length) {
+			fBuf = buf;
+			fPos = offset;
+			fEnd = offset + length;
+		}
+
+		/**
+		 * Reads a value.
+		 * @param depth current depth of nesting
+		 * @return JSON-value
+		 */
+		JsonValue readValue(final int depth) {
+			if (depth > MAX_DEPTH) {
+				throw new IllegalArgumentException("Binary message is nested too deep");
+			}
+			final int b = readByte();
+			final JsonValue value;
+			if (b <= 0x7f) {
+				value = Json.createValue(b);
+			}
+			else if (b >= 0xe0) {
+				value = Json.createValue((byte) b);
+			}
+			else if ((b & 0xe0) == 0xa0) {
+				value = Json.createValue(readString(b & 0x1f));
+			}
+			else if ((b & 0xf0) == 0x90) {
+				value = readArray(b & 0x0f, depth);
+			}
+			else if ((b & 0xf0) == 0x80) {
+				value = readMap(b & 0x0f, depth);
+			}
+			else {
+				switch (b) {
+				case 0xc0: value = JsonValue.NULL; break;
+				case 0xc2: value = JsonValue.FALSE; break;
+				case 0xc3: value = JsonValue.TRUE; break;
+				case 0xcc: value = Json.createValue(readByte()); break;
+				case 0xcd: value = Json.createValue(readInt16()); break;
+				case 0xce: value = Json.createValue(readInt32() & 0xffffffffL); break;
+				case 0xd0: value = Json.createValue((byte) readByte()); break;
+				case 0xd1: value = Json.createValue((short) readInt16()); break;
+				case 0xd2: value = Json.createValue(readInt32()); break;
+				case 0xd3: value = Json.createValue(readInt64()); break;
+				case 0xca: value = Json.createValue(Float.intBitsToFloat(readInt32())); break;
+				case 0xcb: value = Json.createValue(Double.longBitsToDouble(readInt64())); break;
+				case 0xd9: value = Json.createValue(readString(readByte())); break;
+				case 0xda: value = Json.createValue(readString(readInt16())); break;
+				case 0xdb: value = Json.createValue(readString(readInt32())); break;
+				case 0xdc: value = readArray(readInt16(), depth); break;
+				case 0xdd: value = readArray(readInt32(), depth); break;
+				case 0xde: value = readMap(readInt16(), depth); break;
+				case 0xdf: value = readMap(readInt32(), depth); break;
+				default:
+					throw new IllegalArgumentException(String.format("Unsupported type 0x%02x at position %d",
+							Integer.valueOf(b), Integer.valueOf(fPos - 1)));
+				}
+			}
+			return value;
+		}
+
+		private JsonArray readArray(final int size, final int depth) {
+			checkSize(size);
+			final JsonArrayBuilder builder = Json.createArrayBuilder();
+			for (int i = 0; i < size; i++) {
+				builder.add(readValue(depth + 1));
+			}
+			return builder.build();
+		}
+
+		private JsonObject readMap(final int size, final int depth) {
+			checkSize(size);
+			final JsonObjectBuilder builder = Json.createObjectBuilder();
+			for (int i = 0; i < size; i++) {
+				final JsonValue key = readValue(depth + 1);
+				if (!(key instanceof JsonString)) {
+					throw new IllegalArgumentException("Unexpected key-type in map: " + key.getValueType());
+				}
+				builder.add(((JsonString) key).getString(), readValue(depth + 1));
+			}
+			return builder.build();
+		}
+
+		private String readString(final int len) {
+			checkSize(len);
+			final String s = new String(fBuf, fPos, len, StandardCharsets.UTF_8);
+			fPos += len;
+			return s;
+		}
+
+		/**
+		 * Checks a length-prefix against the remaining bytes (each element needs at least one byte).
+		 * @param size length-prefix
+		 */
+		private void checkSize(final int size) {
+			if (size < 0 || size > fEnd - fPos) {
+				throw new IllegalArgumentException(String.format("Invalid length %d at position %d",
+						Integer.valueOf(size), Integer.valueOf(fPos)));
+			}
+		}
+
+		private int readByte() {
+			if (fPos >= fEnd) {
+				throw new IllegalArgumentException("Unexpected end of binary message");
+			}
+			return fBuf[fPos++] & 0xff;
+		}
+
+		private int readInt16() {
+			return (readByte() << 8) | readByte();
+		}
+
+		private int readInt32() {
+			return (readInt16() << 16) | readInt16();
+		}
+
+		private long readInt64() {
+			return ((long) readInt32() << 32) | (readInt32() & 0xffffffffL);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+
+/**
+ * permessage-deflate with the compression-policy of {@link WrsConfiguration}.
+ * Large messages (offer, answer) are compressed, small messages (candidates, acks) are sent uncompressed.
+ * RFC 7692 allows uncompressed messages within a compressed connection.
+ */
+public class WrsPerMessageDeflateExtension extends PerMessageDeflateExtension {
+
+	/** compression-level */
+	private final int fLevel;
+
+	/** minimal size of a compressed message */
+	private final int fMinSize;
+
+	/** <code>true</code> if the server's deflater keeps its context */
+	private final boolean fContextTakeover;
+
+	/** number of data-frames in the compression-queue, small frames mustn't overtake them */
+	private final AtomicInteger fNumCompressing = new AtomicInteger();
+
+	/**
+	 * Constructor, called by the extension-factory of jetty.
+	 */
+	public WrsPerMessageDeflateExtension() {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		fLevel = config.getDeflateLevel();
+		fMinSize = config.getDeflateMinSize();
+		fContextTakeover = config.isDeflateContextTakeover();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setConfig(final ExtensionConfig config) {
+		if (fContextTakeover) {
+			super.setConfig(config);
+		}
+		else {
+			// We reset the deflater after each message: no sliding window per connection.
+			final ExtensionConfig configNoTakeover = new ExtensionConfig(config);
+			configNoTakeover.setParameter("server_no_context_takeover");
+			super.setConfig(configNoTakeover);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Deflater getDeflater() {
+		final Deflater deflater = super.getDeflater();
+		// The deflaters are pooled by jetty, the level is set on each use.
+		deflater.setLevel(fLevel);
+		return deflater;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void outgoingFrame(final Frame frame, final WriteCallback callback, final BatchMode batchMode) {
+		final Frame.Type frameType = frame.getType();
+		if (frameType.isControl()) {
+			super.outgoingFrame(frame, callback, batchMode);
+		}
+		else if (frame.isFin() && !frameType.isContinuation() && frame.getPayloadLength() < fMinSize
+				&& fNumCompressing.get() == 0) {
+			// A small complete message: we don't set RSV1 and skip the deflater.
+			getNextOutgoing().outgoingFrame(frame, callback, batchMode);
+		}
+		else {
+			fNumCompressing.incrementAndGet();
+			super.outgoingFrame(frame, new WriteCallback() {
+				@Override
+				public void writeSuccess() {
+					fNumCompressing.decrementAndGet();
+					if (callback != null) {
+						callback.writeSuccess();
+					}
+				}
+
+				@Override
+				public void writeFailed(final Throwable x) {
+					fNumCompressing.decrementAndGet();
+					if (callback != null) {
+						callback.writeFailed(x);
+					}
+				}
+			}, batchMode);
+		}
+	}
+}
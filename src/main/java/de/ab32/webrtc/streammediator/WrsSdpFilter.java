@@ -0,0 +1,410 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Filter-chain of SDP-offers and -answers relayed by the server.
+ * The SDP-text is split into lines in a single pass (no regular expressions),
+ * the lines of a media-section are given to the configured stages:
+ *
+ * <ul>
+ * <li>strip codecs (incl. their rtx-, fmtp- and rtcp-fb-lines),</li>
+ * <li>strip header-extensions (a=extmap),</li>
+ * <li>enforce a preference-order of codecs,</li>
+ * <li>cap the bitrate of video-sections (b=AS).</li>
+ * </ul>
+ *
+ * A media-section whose codecs would be removed completely stays unchanged.
+ */
+public class WrsSdpFilter {
+
+	/** line-separator of SDP */
+	private static final String CRLF = "\r\n";
+
+	/**
+	 * Stage of the filter-chain.
+	 */
+	interface SectionFilter {
+		/**
+		 * Filters the lines of a media-section.
+		 * @param section media-section
+		 */
+		void filter(MediaSection section);
+	}
+
+	/** stages of the filter-chain */
+	private final List<SectionFilter> fFilters;
+
+	/**
+	 * Constructor
+	 * @param filters stages
+	 */
+	WrsSdpFilter(final List<SectionFilter> filters) {
+		fFilters = filters;
+	}
+
+	/**
+	 * Creates the filter-chain of the configuration.
+	 * @param stripCodecs names of codecs to be removed (e.g. "red,ulpfec"), may be empty
+	 * @param stripExtmaps URIs of header-extensions to be removed, may be empty
+	 * @param codecOrder names of preferred codecs (e.g. "VP8,H264"), may be empty
+	 * @param maxBitrateVideo maximal bitrate of video in kbit/s, 0 is unlimited
+	 * @return filter-chain or <code>null</code> if no stage is configured
+	 */
+	public static WrsSdpFilter create(final List<String> stripCodecs, final List<String> stripExtmaps,
+			final List<String> codecOrder, final int maxBitrateVideo) {
+		final List<SectionFilter> filters = new ArrayList<>(4);
+		if (!stripCodecs.isEmpty()) {
+			filters.add(new StripCodecs(stripCodecs));
+		}
+		if (!stripExtmaps.isEmpty()) {
+			filters.add(new StripExtmaps(stripExtmaps));
+		}
+		if (!codecOrder.isEmpty()) {
+			filters.add(new CodecOrder(codecOrder));
+		}
+		if (maxBitrateVideo > 0) {
+			filters.add(new CapBitrate(maxBitrateVideo));
+		}
+		return filters.isEmpty() ? null : new WrsSdpFilter(Collections.unmodifiableList(filters));
+	}
+
+	/**
+	 * Filters a SDP.
+	 * @param sdp SDP-text
+	 * @return filtered SDP-text
+	 */
+	public String filter(final String sdp) {
+		final StringBuilder sb = new StringBuilder(sdp.length());
+		MediaSection section = null;
+		final int len = sdp.length();
+		int pos = 0;
+		while (pos < len) {
+			int end = sdp.indexOf('\n', pos);
+			final int next = (end < 0) ? len : end + 1;
+			if (end < 0) {
+				end = len;
+			}
+			if (end > pos && sdp.charAt(end - 1) == '\r') {
+				end--;
+			}
+			if (end > pos) {
+				final String line = sdp.substring(pos, end);
+				if (line.startsWith("m=")) {
+					if (section != null) {
+						section.write(sb, fFilters);
+					}
+					section = new MediaSection(line);
+				}
+				else if (section != null) {
+					section.fLines.add(line);
+				}
+				else {
+					// session-level lines are copied.
+					sb.append(line).append(CRLF);
+				}
+			}
+			pos = next;
+		}
+		if (section != null) {
+			section.write(sb, fFilters);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Lines of a media-section.
+	 */
+	static class MediaSection {
+		/** media (audio, video, application) */
+		final String fMedia;
+		/** fields of the m-line: media, port, proto, formats */
+		final List<String> fMediaFields;
+		/** following lines */
+		final List<String> fLines = new ArrayList<>();
+
+		/**
+		 * Constructor
+		 * @param mediaLine m-line
+		 */
+		MediaSection(final String mediaLine) {
+			fMediaFields = splitFields(mediaLine.substring(2), ' ');
+			fMedia = fMediaFields.isEmpty() ? "" : fMediaFields.get(0);
+		}
+
+		/**
+		 * Gets the payload-types of the m-line.
+		 * @return list of payload-types
+		 */
+		List<String> getFormats() {
+			return (fMediaFields.size() > 3) ? fMediaFields.subList(3, fMediaFields.size()) : Collections.emptyList();
+		}
+
+		/**
+		 * Applies the filters and appends the section.
+		 * @param sb output
+		 * @param filters stages
+		 */
+		void write(final StringBuilder sb, final List<SectionFilter> filters) {
+			if (fMediaFields.size() > 3) {
+				for (final SectionFilter filter : filters) {
+					filter.filter(this);
+				}
+			}
+			sb.append("m=");
+			for (int i = 0; i < fMediaFields.size(); i++) {
+				if (i > 0) {
+					sb.append(' ');
+				}
+				sb.append(fMediaFields.get(i));
+			}
+			sb.append(CRLF);
+			for (final String line : fLines) {
+				sb.append(line).append(CRLF);
+			}
+		}
+
+		/**
+		 * Gets the payload-type of an attribute-line like "a=rtpmap:96 VP8/90000".
+		 * @param line line
+		 * @param prefix prefix including the colon, e.g. "a=rtpmap:"
+		 * @return payload-type or <code>null</code>
+		 */
+		static String getPayloadType(final String line, final String prefix) {
+			if (!line.startsWith(prefix)) {
+				return null;
+			}
+			int end = prefix.length();
+			while (end < line.length() && line.charAt(end) != ' ') {
+				end++;
+			}
+			return line.substring(prefix.length(), end);
+		}
+
+		/**
+		 * Gets a parameter of a fmtp-line like "a=fmtp:97 apt=96;rtx-time=3000".
+		 * @param line fmtp-line
+		 * @param name name of the parameter, e.g. "apt"
+		 * @return value of the parameter or <code>null</code>
+		 */
+		static String getFormatParameter(final String line, final String name) {
+			final int start = line.indexOf(' ');
+			if (start < 0) {
+				return null;
+			}
+			// The parameters are separated by semicolons.
+			for (final String param : splitFields(line.substring(start + 1), ';')) {
+				final int idxEq = param.indexOf('=');
+				if (idxEq > 0 && name.equalsIgnoreCase(param.substring(0, idxEq).trim())) {
+					return param.substring(idxEq + 1).trim();
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Gets the codec-name of a rtpmap-line.
+		 * @param line line "a=rtpmap:96 VP8/90000"
+		 * @return upper-case codec-name or <code>null</code>
+		 */
+		static String getCodecName(final String line) {
+			final int start = line.indexOf(' ');
+			if (start < 0) {
+				return null;
+			}
+			int end = line.indexOf('/', start);
+			if (end < 0) {
+				end = line.length();
+			}
+			return line.substring(start + 1, end).toUpperCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * Removes codecs of the m-line and their attributes.
+	 * A rtx-codec of a removed codec is removed, too.
+	 */
+	static class StripCodecs implements SectionFilter {
+		/** upper-case codec-names */
+		private final Set<String> fCodecs = new HashSet<>();
+
+		StripCodecs(final List<String> codecs) {
+			for (final String codec : codecs) {
+				fCodecs.add(codec.toUpperCase(Locale.ROOT));
+			}
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void filter(final MediaSection section) {
+			final Set<String> setRemoved = new HashSet<>();
+			for (final String line : section.fLines) {
+				final String pt = MediaSection.getPayloadType(line, "a=rtpmap:");
+				if (pt != null && fCodecs.contains(MediaSection.getCodecName(line))) {
+					setRemoved.add(pt);
+				}
+			}
+			if (setRemoved.isEmpty()) {
+				return;
+			}
+			for (final String line : section.fLines) {
+				// a=fmtp:97 apt=96 is the rtx of 96.
+				final String pt = MediaSection.getPayloadType(line, "a=fmtp:");
+				final String apt = (pt != null) ? MediaSection.getFormatParameter(line, "apt") : null;
+				if (apt != null && setRemoved.contains(apt)) {
+					setRemoved.add(pt);
+				}
+			}
+			final List<String> formats = section.getFormats();
+			if (setRemoved.containsAll(formats)) {
+				// Without any codec the section would be rejected.
+				return;
+			}
+			formats.removeIf(setRemoved::contains);
+			section.fLines.removeIf(line -> {
+				String pt = MediaSection.getPayloadType(line, "a=rtpmap:");
+				if (pt == null) {
+					pt = MediaSection.getPayloadType(line, "a=fmtp:");
+				}
+				if (pt == null) {
+					pt = MediaSection.getPayloadType(line, "a=rtcp-fb:");
+				}
+				return pt != null && setRemoved.contains(pt);
+			});
+		}
+	}
+
+	/**
+	 * Removes header-extensions (a=extmap:ID[/direction] URI).
+	 */
+	static class StripExtmaps implements SectionFilter {
+		/** URIs of header-extensions */
+		private final Set<String> fUris;
+
+		StripExtmaps(final List<String> uris) {
+			fUris = new HashSet<>(uris);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void filter(final MediaSection section) {
+			section.fLines.removeIf(line -> {
+				if (!line.startsWith("a=extmap:")) {
+					return false;
+				}
+				final List<String> fields = splitFields(line, ' ');
+				return fields.size() > 1 && fUris.contains(fields.get(1));
+			});
+		}
+	}
+
+	/**
+	 * Moves the preferred codecs to the front of the m-line.
+	 * The other codecs keep their order.
+	 */
+	static class CodecOrder implements SectionFilter {
+		/** upper-case codec-names in order of preference */
+		private final List<String> fCodecs = new ArrayList<>();
+
+		CodecOrder(final List<String> codecs) {
+			for (final String codec : codecs) {
+				fCodecs.add(codec.toUpperCase(Locale.ROOT));
+			}
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void filter(final MediaSection section) {
+			final List<String> formats = section.getFormats();
+			final List<String> listPreferred = new ArrayList<>();
+			for (final String codec : fCodecs) {
+				for (final String line : section.fLines) {
+					final String pt = MediaSection.getPayloadType(line, "a=rtpmap:");
+					if (pt != null && codec.equals(MediaSection.getCodecName(line))
+							&& formats.contains(pt) && !listPreferred.contains(pt)) {
+						listPreferred.add(pt);
+					}
+				}
+			}
+			if (!listPreferred.isEmpty()) {
+				final List<String> listOrdered = new ArrayList<>(listPreferred);
+				for (final String pt : formats) {
+					if (!listPreferred.contains(pt)) {
+						listOrdered.add(pt);
+					}
+				}
+				formats.clear();
+				formats.addAll(listOrdered);
+			}
+		}
+	}
+
+	/**
+	 * Caps the bitrate of video-sections by b=AS (kbit/s).
+	 */
+	static class CapBitrate implements SectionFilter {
+		/** maximal bitrate in kbit/s */
+		private final int fMaxBitrate;
+
+		CapBitrate(final int maxBitrate) {
+			fMaxBitrate = maxBitrate;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public void filter(final MediaSection section) {
+			if (!"video".equals(section.fMedia)) {
+				return;
+			}
+			final List<String> lines = section.fLines;
+			int idxInsert = 0;
+			for (int i = 0; i < lines.size(); i++) {
+				final String line = lines.get(i);
+				if (line.startsWith("b=AS:")) {
+					int bitrate;
+					try {
+						bitrate = Integer.parseInt(line.substring(5).trim());
+					}
+					catch (NumberFormatException e) {
+						bitrate = Integer.MAX_VALUE;
+					}
+					if (bitrate > fMaxBitrate) {
+						lines.set(i, "b=AS:" + fMaxBitrate);
+					}
+					return;
+				}
+				// b= follows i= and c= (RFC 4566, 5).
+				if (line.startsWith("i=") || line.startsWith("c=")) {
+					idxInsert = i + 1;
+				}
+			}
+			lines.add(idxInsert, "b=AS:" + fMaxBitrate);
+		}
+	}
+
+	/**
+	 * Splits a line at a separator.
+	 * @param line line
+	 * @param separator separator
+	 * @return modifiable list of non-empty fields
+	 */
+	static List<String> splitFields(final String line, final char separator) {
+		final List<String> fields = new ArrayList<>();
+		int start = 0;
+		final int len = line.length();
+		for (int i = 0; i <= len; i++) {
+			if (i == len || line.charAt(i) == separator) {
+				if (i > start) {
+					fields.add(line.substring(start, i));
+				}
+				start = i + 1;
+			}
+		}
+		return fields;
+	}
+}
@@ -0,0 +1,96 @@
+package de.ab32.webrtc.streammediator;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the sequence-numbers received from a client.
+ * A bit per sequence-number of the window, the bits are reused circularly,
+ * so checking a sequence-number doesn't allocate memory.
+ *
+ * <p>Sequence-numbers older than the window are treated as duplicates.</p>
+ */
+public class WrsSeqWindow {
+
+	/** size of the window (power of two) */
+	static final int WINDOW_SIZE = 1024;
+
+	/** bits of the window, bit (seq % WINDOW_SIZE) is set if seq has been received */
+	private final long[] fBits = new long[WINDOW_SIZE / 64];
+
+	/** highest received sequence-number, -1 if none */
+	private long fHighest = -1;
+
+	/**
+	 * Marks a sequence-number as received.
+	 * @param seq sequence-number (&gt;= 0)
+	 * @return <code>true</code> if the sequence-number is new, <code>false</code> in case of a duplicate
+	 */
+	public synchronized boolean mark(final long seq) {
+		if (seq > fHighest) {
+			if (seq - fHighest >= WINDOW_SIZE) {
+				Arrays.fill(fBits, 0L);
+			}
+			else {
+				// The bits between the old and the new highest number are reused.
+				for (long s = fHighest + 1; s < seq; s++) {
+					clearBit(s);
+				}
+			}
+			fHighest = seq;
+			setBit(seq);
+			return true;
+		}
+		if (seq < 0 || fHighest - seq >= WINDOW_SIZE || isBitSet(seq)) {
+			return false;
+		}
+		setBit(seq);
+		return true;
+	}
+
+	/**
+	 * Takes over the received sequence-numbers of the previous connection of a client (resume).
+	 * @param windowPrev window of the previous connection
+	 */
+	public void adopt(final WrsSeqWindow windowPrev) {
+		final long highestPrev;
+		final long[] bitsPrev;
+		synchronized (windowPrev) {
+			highestPrev = windowPrev.fHighest;
+			bitsPrev = windowPrev.fBits.clone();
+		}
+		for (long s = Math.max(0, highestPrev - WINDOW_SIZE + 1); s <= highestPrev; s++) {
+			final int idx = (int) (s & (WINDOW_SIZE - 1));
+			if ((bitsPrev[idx >>> 6] & (1L << idx)) != 0) {
+				mark(s);
+			}
+		}
+	}
+
+	/**
+	 * Checks the bit of a sequence-number.
+	 * @param seq sequence-number
+	 * @return <code>true</code> if set
+	 */
+	private boolean isBitSet(final long seq) {
+		final int idx = (int) (seq & (WINDOW_SIZE - 1));
+		return (fBits[idx >>> 6] & (1L << idx)) != 0;
+	}
+
+	/**
+	 * Sets the bit of a sequence-number.
+	 * @param seq sequence-number
+	 */
+	private void setBit(final long seq) {
+		final int idx = (int) (seq & (WINDOW_SIZE - 1));
+		fBits[idx >>> 6] |= (1L << idx);
+	}
+
+	/**
+	 * Clears the bit of a sequence-number.
+	 * @param seq sequence-number
+	 */
+	private void clearBit(final long seq) {
+		final int idx = (int) (seq & (WINDOW_SIZE - 1));
+		fBits[idx >>> 6] &= ~(1L << idx);
+	}
+}
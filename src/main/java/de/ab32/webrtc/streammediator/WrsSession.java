@@ -1,18 +1,28 @@
 package de.ab32.webrtc.streammediator;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 
 /**
- * Start-time and WRS-session-Id.
+ * Start-time, WRS-session-Id and members of a session.
  */
 public class WrsSession {
 
-	/** start-time of the session */
+	/** start-time of the session (login of the first member) */
 	private final Instant fTsStart;
 
 	/** session-id */
 	private final String fSessionId;
 
+	/** Map from lower-case user-name to websocket-session of the members */
+	private final ConcurrentMap<String, WrsWebsocketSession> fMembers = new ConcurrentHashMap<>(8);
+
 	/**
 	 * Constructor
 	 * @param sessionId sesion-id
@@ -37,4 +47,55 @@ public class WrsSession {
 	public String getSessionId() {
 		return fSessionId;
 	}
+
+	/**
+	 * Adds or replaces a member of the session.
+	 * @param userKey lower-case user-name
+	 * @param wrsSession websocket-session of the member
+	 */
+	public void putMember(final String userKey, final WrsWebsocketSession wrsSession) {
+		fMembers.put(userKey, wrsSession);
+	}
+
+	/**
+	 * Removes a member of the session.
+	 * @param userKey lower-case user-name
+	 * @param wrsSession websocket-session of the member to be removed
+	 * @return <code>true</code> if the member has been removed
+	 */
+	public boolean removeMember(final String userKey, final WrsWebsocketSession wrsSession) {
+		return fMembers.remove(userKey, wrsSession);
+	}
+
+	/**
+	 * Removes the members which started before a time.
+	 * @param tsMin start-time of the oldest member to be kept
+	 * @return Map from lower-case user-name to websocket-session of the removed members
+	 */
+	public Map<String, WrsWebsocketSession> removeMembersBefore(final Instant tsMin) {
+		return removeMembersIf(wrsSession -> wrsSession.getTsStart().isBefore(tsMin));
+	}
+
+	/**
+	 * Removes the members matching a filter.
+	 * @param filter filter of the websocket-sessions to be removed
+	 * @return Map from lower-case user-name to websocket-session of the removed members
+	 */
+	public Map<String, WrsWebsocketSession> removeMembersIf(final Predicate<WrsWebsocketSession> filter) {
+		final Map<String, WrsWebsocketSession> mapRemoved = new HashMap<>();
+		for (final Entry<String, WrsWebsocketSession> entry : fMembers.entrySet()) {
+			if (filter.test(entry.getValue()) && fMembers.remove(entry.getKey(), entry.getValue())) {
+				mapRemoved.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return mapRemoved;
+	}
+
+	/**
+	 * Gets the websocket-sessions of the current members.
+	 * @return view of the members
+	 */
+	public Collection<WrsWebsocketSession> getMembers() {
+		return fMembers.values();
+	}
 }
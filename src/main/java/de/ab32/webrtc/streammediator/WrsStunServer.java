@@ -0,0 +1,381 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded STUN-responder answering Binding-requests (RFC 5389) with XOR-MAPPED-ADDRESS and FINGERPRINT.
+ * There is no authentication and no TURN.
+ *
+ * <p>A single selector-thread reads the non-blocking datagram-channel. The receive- and send-buffers
+ * are direct buffers allocated once and reused for each packet.</p>
+ *
+ * <p>The responder can be started standalone for load-tests:
+ * <code>java -cp ... de.ab32.webrtc.streammediator.WrsStunServer [port]</code></p>
+ */
+public class WrsStunServer implements Runnable {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsStunServer.class.getName());
+
+	/** magic cookie of STUN */
+	static final int MAGIC_COOKIE = 0x2112A442;
+	/** length of the STUN-header */
+	static final int HEADER_LENGTH = 20;
+	/** message-type Binding-request */
+	static final int BINDING_REQUEST = 0x0001;
+	/** message-type Binding-success-response */
+	static final int BINDING_SUCCESS = 0x0101;
+	/** message-type Binding-error-response */
+	static final int BINDING_ERROR = 0x0111;
+	/** attribute XOR-MAPPED-ADDRESS */
+	static final int ATTR_XOR_MAPPED_ADDRESS = 0x0020;
+	/** attribute ERROR-CODE */
+	static final int ATTR_ERROR_CODE = 0x0009;
+	/** attribute UNKNOWN-ATTRIBUTES */
+	static final int ATTR_UNKNOWN_ATTRIBUTES = 0x000A;
+	/** attribute FINGERPRINT */
+	static final int ATTR_FINGERPRINT = 0x8028;
+	/** XOR-value of the fingerprint ("STUN") */
+	static final int FINGERPRINT_XOR = 0x5354554e;
+
+	/** comprehension-required attributes which are ignored (USERNAME, MESSAGE-INTEGRITY(-SHA256), PRIORITY, USE-CANDIDATE) */
+	private static final int[] IGNORED_ATTRIBUTES = { 0x0006, 0x0008, 0x001C, 0x0024, 0x0025 };
+
+	/** reason-phrase of the error 420 */
+	private static final byte[] REASON_UNKNOWN_ATTRIBUTE = "Unknown Attribute".getBytes(StandardCharsets.US_ASCII);
+
+	/** maximal number of reported unknown attributes */
+	private static final int MAX_UNKNOWN = 8;
+
+	/** current responder (null if disabled) */
+	private static WrsStunServer INSTANCE;
+
+	/** datagram-channel */
+	private final DatagramChannel fChannel;
+
+	/** selector of the channel */
+	private final Selector fSelector;
+
+	/** thread of the selector */
+	private final Thread fThread;
+
+	/** receive-buffer */
+	private final ByteBuffer fRecvBuf = ByteBuffer.allocateDirect(2048);
+
+	/** send-buffer */
+	private final ByteBuffer fSendBuf = ByteBuffer.allocateDirect(512);
+
+	/** checksum of the fingerprint */
+	private final CRC32 fCrc = new CRC32();
+
+	/** unknown comprehension-required attributes of the current request */
+	private final int[] fUnknown = new int[MAX_UNKNOWN];
+
+	/** number of received Binding-requests */
+	private final AtomicLong fNumRequests = new AtomicLong();
+
+	/** number of sent responses */
+	private final AtomicLong fNumResponses = new AtomicLong();
+
+	/** number of dropped packets (no STUN-request, malformed or send-buffer full) */
+	private final AtomicLong fNumDropped = new AtomicLong();
+
+	/** <code>true</code> after stop */
+	private volatile boolean fIsStopped;
+
+	/**
+	 * Constructor, binds the channel.
+	 * @param address local address
+	 * @throws IOException if the port can't be bound
+	 */
+	WrsStunServer(final InetSocketAddress address) throws IOException {
+		fChannel = DatagramChannel.open();
+		try {
+			fChannel.bind(address);
+			fChannel.configureBlocking(false);
+			fSelector = Selector.open();
+			fChannel.register(fSelector, SelectionKey.OP_READ);
+		}
+		catch (IOException e) {
+			fChannel.close();
+			throw e;
+		}
+		fThread = new Thread(this, "wrs-stun");
+		fThread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the responder if a STUN-port is configured.
+	 * @param config configuration
+	 */
+	public static synchronized void start(final WrsConfiguration config) {
+		if (INSTANCE != null || config.getStunPort() == 0) {
+			return;
+		}
+		final String bindAddress = config.getStunBindAddress();
+		final InetSocketAddress address = (bindAddress != null && !bindAddress.isEmpty())
+				? new InetSocketAddress(bindAddress, config.getStunPort()) : new InetSocketAddress(config.getStunPort());
+		try {
+			INSTANCE = new WrsStunServer(address);
+			INSTANCE.fThread.start();
+			LOGGER.info("STUN-responder: " + INSTANCE.fChannel.getLocalAddress());
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "STUN-responder couldn't be started at " + address, e);
+		}
+	}
+
+	/**
+	 * Stops the responder.
+	 */
+	public static synchronized void shutdown() {
+		if (INSTANCE != null) {
+			INSTANCE.stop();
+			INSTANCE = null;
+		}
+	}
+
+	/**
+	 * Gets the current responder.
+	 * @return responder or <code>null</code> if disabled
+	 */
+	public static synchronized WrsStunServer getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Stops the selector-thread and closes the channel.
+	 */
+	void stop() {
+		fIsStopped = true;
+		fSelector.wakeup();
+		try {
+			fThread.join(1000);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			fSelector.close();
+			fChannel.close();
+		}
+		catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Error while closing the STUN-responder", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void run() {
+		while (!fIsStopped) {
+			try {
+				fSelector.select();
+				fSelector.selectedKeys().clear();
+				receiveAll();
+			}
+			catch (ClosedSelectorException e) {
+				break;
+			}
+			catch (IOException | RuntimeException e) {
+				if (!fIsStopped) {
+					LOGGER.log(Level.WARNING, "Error in the STUN-responder", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads and answers all pending datagrams.
+	 * @throws IOException in case of an I/O-error
+	 */
+	private void receiveAll() throws IOException {
+		while (true) {
+			fRecvBuf.clear();
+			final SocketAddress remote = fChannel.receive(fRecvBuf);
+			if (remote == null) {
+				break;
+			}
+			fRecvBuf.flip();
+			if (!(remote instanceof InetSocketAddress) || !buildResponse(fRecvBuf, (InetSocketAddress) remote, fSendBuf)) {
+				fNumDropped.incrementAndGet();
+				continue;
+			}
+			fSendBuf.flip();
+			// A full socket-buffer drops the response like the network would.
+			if (fChannel.send(fSendBuf, remote) > 0) {
+				fNumResponses.incrementAndGet();
+			}
+			else {
+				fNumDropped.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Builds the response of a Binding-request.
+	 * @param req received datagram (position 0, limit is the length)
+	 * @param remote address of the client
+	 * @param resp send-buffer, filled up to its position
+	 * @return <code>false</code> if the datagram isn't answered
+	 */
+	boolean buildResponse(final ByteBuffer req, final InetSocketAddress remote, final ByteBuffer resp) {
+		final int length = req.remaining();
+		if (length < HEADER_LENGTH) {
+			return false;
+		}
+		final int type = req.getShort(0) & 0xffff;
+		final int msgLength = req.getShort(2) & 0xffff;
+		if (type != BINDING_REQUEST || req.getInt(4) != MAGIC_COOKIE
+				|| (msgLength & 3) != 0 || HEADER_LENGTH + msgLength != length) {
+			// Indications, responses and other protocols aren't answered.
+			return false;
+		}
+		fNumRequests.incrementAndGet();
+		int numUnknown = 0;
+		int pos = HEADER_LENGTH;
+		while (pos < length) {
+			if (pos + 4 > length) {
+				return false;
+			}
+			final int attrType = req.getShort(pos) & 0xffff;
+			final int attrLength = req.getShort(pos + 2) & 0xffff;
+			if (pos + 4 + attrLength > length) {
+				return false;
+			}
+			if (attrType < 0x8000 && !isIgnored(attrType) && numUnknown < MAX_UNKNOWN) {
+				fUnknown[numUnknown++] = attrType;
+			}
+			pos += 4 + ((attrLength + 3) & ~3);
+		}
+
+		resp.clear();
+		resp.putShort((short) (numUnknown > 0 ? BINDING_ERROR : BINDING_SUCCESS));
+		resp.putShort((short) 0);
+		resp.putInt(MAGIC_COOKIE);
+		for (int i = 8; i < HEADER_LENGTH; i++) {
+			// transaction-id
+			resp.put(req.get(i));
+		}
+		if (numUnknown > 0) {
+			putErrorUnknownAttributes(resp, numUnknown);
+		}
+		else {
+			putXorMappedAddress(req, remote, resp);
+		}
+
+		// The length of the message includes the fingerprint.
+		resp.putShort(2, (short) (resp.position() - HEADER_LENGTH + 8));
+		final int posFingerprint = resp.position();
+		resp.flip();
+		fCrc.reset();
+		fCrc.update(resp);
+		resp.limit(resp.capacity());
+		resp.position(posFingerprint);
+		resp.putShort((short) ATTR_FINGERPRINT);
+		resp.putShort((short) 4);
+		resp.putInt((int) fCrc.getValue() ^ FINGERPRINT_XOR);
+		return true;
+	}
+
+	/**
+	 * Writes the attribute XOR-MAPPED-ADDRESS.
+	 * @param req request (transaction-id)
+	 * @param remote address of the client
+	 * @param resp send-buffer
+	 */
+	private static void putXorMappedAddress(final ByteBuffer req, final InetSocketAddress remote, final ByteBuffer resp) {
+		final InetAddress address = remote.getAddress();
+		final byte[] abAddress = address.getAddress();
+		final boolean isIPv4 = (abAddress.length == 4);
+		resp.putShort((short) ATTR_XOR_MAPPED_ADDRESS);
+		resp.putShort((short) (isIPv4 ? 8 : 20));
+		resp.put((byte) 0);
+		resp.put((byte) (isIPv4 ? 0x01 : 0x02));
+		resp.putShort((short) (remote.getPort() ^ (MAGIC_COOKIE >>> 16)));
+		for (int i = 0; i < abAddress.length; i++) {
+			// The address is XOR'ed with the magic cookie and (IPv6) the transaction-id, i.e. bytes 4 .. 19 of the header.
+			resp.put((byte) (abAddress[i] ^ req.get(4 + i)));
+		}
+	}
+
+	/**
+	 * Writes the error 420 (Unknown Attribute) and the attribute UNKNOWN-ATTRIBUTES.
+	 * @param resp send-buffer
+	 * @param numUnknown number of unknown attributes in fUnknown
+	 */
+	private void putErrorUnknownAttributes(final ByteBuffer resp, final int numUnknown) {
+		resp.putShort((short) ATTR_ERROR_CODE);
+		resp.putShort((short) (4 + REASON_UNKNOWN_ATTRIBUTE.length));
+		resp.putShort((short) 0);
+		resp.put((byte) 4);
+		resp.put((byte) 20);
+		resp.put(REASON_UNKNOWN_ATTRIBUTE);
+		putPadding(resp, REASON_UNKNOWN_ATTRIBUTE.length);
+		resp.putShort((short) ATTR_UNKNOWN_ATTRIBUTES);
+		resp.putShort((short) (2 * numUnknown));
+		for (int i = 0; i < numUnknown; i++) {
+			resp.putShort((short) fUnknown[i]);
+		}
+		putPadding(resp, 2 * numUnknown);
+	}
+
+	/**
+	 * Pads an attribute to a multiple of four bytes.
+	 * @param resp send-buffer
+	 * @param valueLength length of the value of the attribute
+	 */
+	private static void putPadding(final ByteBuffer resp, final int valueLength) {
+		for (int i = valueLength; (i & 3) != 0; i++) {
+			resp.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Checks if a comprehension-required attribute is ignored.
+	 * @param attrType type of the attribute
+	 * @return <code>true</code> if the attribute is known and ignored
+	 */
+	private static boolean isIgnored(final int attrType) {
+		for (final int ignored : IGNORED_ATTRIBUTES) {
+			if (ignored == attrType) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("#requests=%d, #responses=%d, #dropped=%d",
+				Long.valueOf(fNumRequests.get()), Long.valueOf(fNumResponses.get()), Long.valueOf(fNumDropped.get()));
+	}
+
+	/**
+	 * Runs the responder standalone (load-tests).
+	 * @param args [port], default is 3478
+	 * @throws Exception in case of an error
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int port = (args.length > 0) ? Integer.parseInt(args[0]) : 3478;
+		final WrsStunServer server = new WrsStunServer(new InetSocketAddress(port));
+		server.fThread.start();
+		System.out.println("STUN-responder at " + server.fChannel.getLocalAddress());
+		while (true) {
+			Thread.sleep(10000);
+			System.out.println(server);
+		}
+	}
+}
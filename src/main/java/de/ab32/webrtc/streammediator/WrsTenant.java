@@ -0,0 +1,265 @@
+package de.ab32.webrtc.streammediator;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * A tenant (customer-deployment) of the server with its own registries of rooms and users,
+ * its own statistics and quotas.
+ *
+ * <p>The tenant of a connection is resolved at the upgrade by host or path (see {@link WrsConfiguration#getTenants()}),
+ * connections without a configured tenant belong to the default-tenant. Rooms of different tenants
+ * are isolated, the clean-up of a tenant scans its own rooms only.</p>
+ *
+ * <p>Quotas (0 is unlimited): the number of connections, checked at the upgrade, the number of messages per second
+ * and the handling-time of messages per second, the messages of a tenant over its quota are throttled.
+ * Handling-time which exceeds the quota of a second is carried over to the next seconds.</p>
+ */
+public class WrsTenant {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsTenant.class.getName());
+
+	/** name of the default-tenant */
+	static final String DEFAULT = "default";
+
+	/** tenants by name */
+	private static final ConcurrentMap<String, WrsTenant> MAP_TENANTS = new ConcurrentHashMap<>();
+
+	/** name of the tenant */
+	private final String fName;
+
+	/** Map User#Session-Id to WebSocket-Session */
+	final ConcurrentMap<String, WrsWebsocketSession> fMapWebsocketSessions = new ConcurrentHashMap<>(200);
+
+	/** Map Session-Id to WRS-Session */
+	final ConcurrentMap<String, WrsSession> fMapSessions = new ConcurrentHashMap<>(100);
+
+	/** Map from message-type to count */
+	private final ConcurrentMap<String, AtomicLong> fMapStatistics = new ConcurrentHashMap<>();
+
+	/** time of the last clean-up */
+	final AtomicReference<Instant> fTsLastCleanup = new AtomicReference<>(Instant.now());
+
+	/** number of open connections */
+	private final AtomicInteger fConnections = new AtomicInteger();
+
+	/** second (since epoch) of the current quota-window */
+	private final AtomicLong fWindowSecond = new AtomicLong();
+
+	/** number of messages in the current quota-window */
+	private final AtomicLong fWindowMessages = new AtomicLong();
+
+	/** handling-time in nanoseconds in the current quota-window (including the carry-over) */
+	private final AtomicLong fWindowNanos = new AtomicLong();
+
+	/** number of rejected connects */
+	private final AtomicLong fRejectedConnects = new AtomicLong();
+
+	/** number of throttled messages */
+	private final AtomicLong fThrottledMessages = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param name name of the tenant
+	 * @param statisticKeys keys of the statistics
+	 */
+	WrsTenant(final String name, final String[] statisticKeys) {
+		fName = name;
+		for (final String statKey : statisticKeys) {
+			fMapStatistics.put(statKey, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Gets a tenant, a new tenant is created.
+	 * @param name name of the tenant
+	 * @return tenant
+	 */
+	static WrsTenant get(final String name) {
+		WrsTenant tenant = MAP_TENANTS.get(name);
+		if (tenant == null) {
+			tenant = MAP_TENANTS.computeIfAbsent(name, k -> {
+				LOGGER.info("New tenant: " + k);
+				return new WrsTenant(k, WebSocketWrs.STATISTIC_KEYS);
+			});
+		}
+		return tenant;
+	}
+
+	/**
+	 * Gets the default-tenant.
+	 * @return tenant
+	 */
+	static WrsTenant getDefault() {
+		return get(DEFAULT);
+	}
+
+	/**
+	 * Gets the known tenants.
+	 * @return unmodifiable collection of tenants
+	 */
+	static Collection<WrsTenant> getTenants() {
+		return Collections.unmodifiableCollection(MAP_TENANTS.values());
+	}
+
+	/**
+	 * Resolves the tenant of a connection.
+	 * @param config current configuration
+	 * @param host host-name of the request
+	 * @param path path of the websocket after /WebSocketServlet or <code>null</code>
+	 * @return tenant, the default-tenant if there is no matching host or path
+	 */
+	static WrsTenant resolve(final WrsConfiguration config, final String host, final String path) {
+		final String hostLower = (host != null) ? host.toLowerCase(Locale.ROOT) : "";
+		for (final Entry<String, String> entry : config.getTenants().entrySet()) {
+			final String key = entry.getKey();
+			final boolean isMatch = key.startsWith("/")
+					? path != null && (path.equals(key) || path.startsWith(key + "/"))
+					: hostLower.equals(key);
+			if (isMatch) {
+				return get(entry.getValue());
+			}
+		}
+		return getDefault();
+	}
+
+	/**
+	 * Reserves a connection at the upgrade, a rejected connect is counted.
+	 * The connection is counted before the check, so concurrent upgrades can't exceed the quota.
+	 * A reservation is released by {@link #disconnected()}.
+	 * @param config current configuration
+	 * @return <code>true</code> if the connection has been reserved, the tenant was below its quota of connections
+	 */
+	boolean reserveConnect(final WrsConfiguration config) {
+		final int maxConnections = config.getTenantMaxConnections(fName);
+		final int connections = fConnections.incrementAndGet();
+		if (maxConnections > 0 && connections > maxConnections) {
+			fConnections.decrementAndGet();
+			fRejectedConnects.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts an opened connection which hasn't been reserved at an upgrade.
+	 */
+	void connected() {
+		fConnections.incrementAndGet();
+	}
+
+	/**
+	 * Counts a closed connection or releases a reservation.
+	 */
+	void disconnected() {
+		fConnections.decrementAndGet();
+	}
+
+	/**
+	 * Checks if a message is admitted, the message is counted.
+	 * @param config current configuration
+	 * @return <code>true</code> if the tenant is below its quotas of messages and handling-time
+	 */
+	boolean admitMessage(final WrsConfiguration config) {
+		final int maxMessages = config.getTenantMaxMessages(fName);
+		final int maxCpuMillis = config.getTenantMaxCpu(fName);
+		if (maxMessages == 0 && maxCpuMillis == 0) {
+			return true;
+		}
+		final long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+		final long windowSecond = fWindowSecond.get();
+		if (windowSecond != second && fWindowSecond.compareAndSet(windowSecond, second)) {
+			// New window: The handling-time over the quota is carried over.
+			fWindowMessages.set(0);
+			final long budgetNanos = TimeUnit.MILLISECONDS.toNanos(maxCpuMillis) * Math.max(1, second - windowSecond);
+			fWindowNanos.getAndUpdate(nanos -> Math.max(0, nanos - budgetNanos));
+		}
+		final boolean isAdmitted = (maxMessages == 0 || fWindowMessages.incrementAndGet() <= maxMessages)
+				&& (maxCpuMillis == 0 || fWindowNanos.get() < TimeUnit.MILLISECONDS.toNanos(maxCpuMillis));
+		if (!isAdmitted) {
+			fThrottledMessages.incrementAndGet();
+		}
+		return isAdmitted;
+	}
+
+	/**
+	 * Records the handling-time of a message.
+	 * @param handlingNanos handling-time in nanoseconds
+	 */
+	void recordHandling(final long handlingNanos) {
+		fWindowNanos.addAndGet(handlingNanos);
+	}
+
+	/**
+	 * Increments a statistics-field.
+	 * @param key key of the field
+	 */
+	void updateStatistics(final String key) {
+		if (key != null) {
+			final AtomicLong counter = fMapStatistics.get(key);
+			if (counter != null) {
+				counter.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Gets a statistics-field.
+	 * @param key key of the field
+	 * @return counter or <code>null</code>
+	 */
+	AtomicLong getStatistics(final String key) {
+		return fMapStatistics.get(key);
+	}
+
+	/**
+	 * Gets the registered users (stress-test).
+	 * @return unmodifiable view from user#session-id to WRS-session
+	 */
+	Map<String, WrsWebsocketSession> getWebsocketSessions() {
+		return Collections.unmodifiableMap(fMapWebsocketSessions);
+	}
+
+	/**
+	 * Gets the sessions (rooms) and their members (stress-test).
+	 * @return unmodifiable view from session-id to session
+	 */
+	Map<String, WrsSession> getSessions() {
+		return Collections.unmodifiableMap(fMapSessions);
+	}
+
+	/**
+	 * Gets the name of the tenant.
+	 * @return name
+	 */
+	public String getName() {
+		return fName;
+	}
+
+	/**
+	 * Gets the number of open connections.
+	 * @return number of connections
+	 */
+	public int getConnections() {
+		return fConnections.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return String.format("%s: #sessions=%d, #webSocketSessions=%d, #connections=%d, #rejectedConnects=%d, #throttledMessages=%d",
+				fName, Integer.valueOf(fMapSessions.size()), Integer.valueOf(fMapWebsocketSessions.size()),
+				Integer.valueOf(fConnections.get()), Long.valueOf(fRejectedConnects.get()), Long.valueOf(fThrottledMessages.get()));
+	}
+}
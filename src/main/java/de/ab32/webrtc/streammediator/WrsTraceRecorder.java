@@ -0,0 +1,258 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recorder of the inbound signaling-traffic into rotating binary trace-files.
+ * The files are memory-mapped, a record is written without a system-call.
+ *
+ * <p>Format of a file: magic "WRST" (int), version (short), records, end-marker (byte 0).
+ * Format of a record: kind (byte), time in microseconds since epoch (long),
+ * anonymous connection-id (int), length (int), payload.</p>
+ *
+ * <p>The files are named &lt;prefix&gt;.&lt;n&gt;.wrstrace, n = 0 .. #files - 1.
+ * They are replayed by {@link WrsTraceReplay}.</p>
+ */
+public class WrsTraceRecorder {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(WrsTraceRecorder.class.getName());
+
+	/** magic of a trace-file ("WRST") */
+	static final int MAGIC = 0x57525354;
+
+	/** version of the file-format */
+	static final short VERSION = 1;
+
+	/** length of the file-header */
+	static final int HEADER_LENGTH = 6;
+
+	/** length of the record-header */
+	static final int RECORD_HEADER_LENGTH = 17;
+
+	/** suffix of trace-files */
+	static final String SUFFIX = ".wrstrace";
+
+	/** kind: end of file */
+	static final byte KIND_END = 0;
+	/** kind: connect, payload is the accepted subprotocol */
+	static final byte KIND_CONNECT = 1;
+	/** kind: text-message */
+	static final byte KIND_TEXT = 2;
+	/** kind: binary message */
+	static final byte KIND_BINARY = 3;
+	/** kind: close */
+	static final byte KIND_CLOSE = 4;
+
+	/** current recorder (null if disabled) */
+	private static WrsTraceRecorder INSTANCE;
+
+	/** <code>true</code> if the configuration has been read */
+	private static boolean IS_INITIALIZED;
+
+	/** counter of anonymous connection-ids */
+	private static final AtomicInteger CONNECTION_COUNTER = new AtomicInteger();
+
+	/** prefix of the trace-files */
+	private final String fPrefix;
+
+	/** size of a trace-file */
+	private final int fFileSize;
+
+	/** number of trace-files */
+	private final int fNumFiles;
+
+	/** start in microseconds since epoch */
+	private final long fStartMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+	/** start as in {@link System#nanoTime()} */
+	private final long fStartNanos = System.nanoTime();
+
+	/** index of the current file */
+	private int fFileIndex = -1;
+
+	/** mapped buffer of the current file */
+	private MappedByteBuffer fBuffer;
+
+	/** <code>true</code> after an I/O-error or close */
+	private boolean fIsStopped;
+
+	/**
+	 * Constructor
+	 * @param prefix prefix of the trace-files
+	 * @param fileSize size of a trace-file in bytes
+	 * @param numFiles number of trace-files
+	 */
+	WrsTraceRecorder(final String prefix, final int fileSize, final int numFiles) {
+		fPrefix = prefix;
+		fFileSize = Math.max(fileSize, 64 * 1024);
+		fNumFiles = Math.max(numFiles, 1);
+	}
+
+	/**
+	 * Gets the current recorder.
+	 * @return recorder or <code>null</code> if recording is disabled
+	 */
+	public static synchronized WrsTraceRecorder getInstance() {
+		if (!IS_INITIALIZED) {
+			IS_INITIALIZED = true;
+			final WrsConfiguration config = WrsConfiguration.getInstance();
+			final String prefix = config.getTraceFile();
+			if (prefix != null && !prefix.isEmpty()) {
+				INSTANCE = new WrsTraceRecorder(prefix, config.getTraceFileSize(), config.getTraceFiles());
+				LOGGER.info(String.format("Trace-recorder: prefix=%s, fileSize=%d, #files=%d",
+						prefix, Integer.valueOf(INSTANCE.fFileSize), Integer.valueOf(INSTANCE.fNumFiles)));
+			}
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Flushes and closes the current recorder.
+	 */
+	public static synchronized void shutdown() {
+		if (INSTANCE != null) {
+			INSTANCE.close();
+			INSTANCE = null;
+		}
+		IS_INITIALIZED = false;
+	}
+
+	/**
+	 * Gets a new anonymous connection-id.
+	 * @return connection-id
+	 */
+	public static int nextConnectionId() {
+		return CONNECTION_COUNTER.incrementAndGet();
+	}
+
+	/**
+	 * Records a connect.
+	 * @param connectionId anonymous connection-id
+	 * @param subProtocol accepted subprotocol or <code>null</code>
+	 */
+	public void recordConnect(final int connectionId, final String subProtocol) {
+		final byte[] payload = (subProtocol != null) ? subProtocol.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		record(KIND_CONNECT, connectionId, payload, 0, payload.length);
+	}
+
+	/**
+	 * Records a text-message.
+	 * @param connectionId anonymous connection-id
+	 * @param msg message
+	 */
+	public void recordText(final int connectionId, final String msg) {
+		final byte[] payload = msg.getBytes(StandardCharsets.UTF_8);
+		record(KIND_TEXT, connectionId, payload, 0, payload.length);
+	}
+
+	/**
+	 * Records a binary message.
+	 * @param connectionId anonymous connection-id
+	 * @param buf buffer
+	 * @param offset offset of the message
+	 * @param length length of the message
+	 */
+	public void recordBinary(final int connectionId, final byte[] buf, final int offset, final int length) {
+		record(KIND_BINARY, connectionId, buf, offset, length);
+	}
+
+	/**
+	 * Records a close.
+	 * @param connectionId anonymous connection-id
+	 */
+	public void recordClose(final int connectionId) {
+		record(KIND_CLOSE, connectionId, null, 0, 0);
+	}
+
+	/**
+	 * Writes a record into the mapped file.
+	 * @param kind kind of record
+	 * @param connectionId anonymous connection-id
+	 * @param buf payload
+	 * @param offset offset of the payload
+	 * @param length length of the payload
+	 */
+	private synchronized void record(final byte kind, final int connectionId,
+			final byte[] buf, final int offset, final int length) {
+		if (fIsStopped) {
+			return;
+		}
+		final long tsMicros = fStartMicros + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - fStartNanos);
+		final int recordLength = RECORD_HEADER_LENGTH + length;
+		if (recordLength + 1 > fFileSize - HEADER_LENGTH) {
+			LOGGER.warning(String.format("Trace-record too large: %d bytes", Integer.valueOf(length)));
+			return;
+		}
+		try {
+			if (fBuffer == null || fBuffer.remaining() < recordLength + 1) {
+				rotate();
+			}
+			fBuffer.put(kind);
+			fBuffer.putLong(tsMicros);
+			fBuffer.putInt(connectionId);
+			fBuffer.putInt(length);
+			if (length > 0) {
+				fBuffer.put(buf, offset, length);
+			}
+			// The end-marker is overwritten by the next record.
+			fBuffer.put(fBuffer.position(), KIND_END);
+		}
+		catch (IOException | RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Error while writing a trace-record, the recorder is stopped", e);
+			fBuffer = null;
+			fIsStopped = true;
+		}
+	}
+
+	/**
+	 * Switches to the next trace-file.
+	 * @throws IOException in case of an I/O-error
+	 */
+	private void rotate() throws IOException {
+		if (fBuffer != null) {
+			fBuffer.force();
+		}
+		fFileIndex = (fFileIndex + 1) % fNumFiles;
+		final Path path = getPath(fPrefix, fFileIndex);
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			// The mapping stays valid after closing the channel.
+			fBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fFileSize);
+		}
+		fBuffer.putInt(MAGIC);
+		fBuffer.putShort(VERSION);
+		fBuffer.put(fBuffer.position(), KIND_END);
+		LOGGER.info("Trace-recorder: file " + path);
+	}
+
+	/**
+	 * Flushes the current file.
+	 */
+	private synchronized void close() {
+		fIsStopped = true;
+		if (fBuffer != null) {
+			fBuffer.force();
+			fBuffer = null;
+		}
+	}
+
+	/**
+	 * Gets the path of a trace-file.
+	 * @param prefix prefix
+	 * @param index index of the file
+	 * @return path
+	 */
+	static Path getPath(final String prefix, final int index) {
+		return Paths.get(prefix + "." + index + SUFFIX);
+	}
+}
@@ -0,0 +1,314 @@
+package de.ab32.webrtc.streammediator;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.UpgradeResponse;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * Replays trace-files of {@link WrsTraceRecorder} into the handler {@link WebSocketWrs}.
+ * Each recorded connection gets a simulated websocket-session, messages sent by the server are counted only.
+ *
+ * <p>Usage: <code>java -cp ... de.ab32.webrtc.streammediator.WrsTraceReplay [--speed=&lt;factor&gt;] &lt;trace-file&gt;...</code></p>
+ *
+ * <p>A speed of 1 replays with the recorded timing, 10 is ten times faster, 0 is as fast as possible.
+ * The messages are handled in the calling thread (dispatch-mode inline) unless
+ * the system-property wrs.dispatch_mode is given.</p>
+ */
+public class WrsTraceReplay {
+
+	/** number of messages sent by the server */
+	private final AtomicLong fNumSent = new AtomicLong();
+
+	/** number of bytes sent by the server */
+	private final AtomicLong fBytesSent = new AtomicLong();
+
+	/** simulated connections by connection-id */
+	private final Map<Integer, ReplayConnection> fConnections = new HashMap<>();
+
+	/** speed-factor (0 is as fast as possible) */
+	private final double fSpeed;
+
+	/**
+	 * Constructor
+	 * @param speed speed-factor
+	 */
+	WrsTraceReplay(final double speed) {
+		fSpeed = speed;
+	}
+
+	/**
+	 * Entry-point of the replay-tool.
+	 * @param args [--speed=factor] trace-files
+	 * @throws Exception in case of an error
+	 */
+	public static void main(final String[] args) throws Exception {
+		double speed = 1.0;
+		final List<Path> listFiles = new ArrayList<>();
+		for (final String arg : args) {
+			if (arg.startsWith("--speed=")) {
+				speed = Double.parseDouble(arg.substring(8));
+			}
+			else {
+				listFiles.add(Paths.get(arg));
+			}
+		}
+		if (listFiles.isEmpty()) {
+			System.err.println("Usage: WrsTraceReplay [--speed=<factor>] <trace-file>...");
+			System.exit(1);
+		}
+		// The configuration is read at the first access.
+		if (System.getProperty("wrs.dispatch_mode") == null) {
+			System.setProperty("wrs.dispatch_mode", WrsDispatcher.MODE_INLINE);
+		}
+		System.clearProperty("wrs.trace_file");
+
+		final List<ByteBuffer> listTraces = new ArrayList<>();
+		for (final Path file : listFiles) {
+			final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.BIG_ENDIAN);
+			if (buf.remaining() < WrsTraceRecorder.HEADER_LENGTH || buf.getInt() != WrsTraceRecorder.MAGIC) {
+				throw new IOException("Not a trace-file: " + file);
+			}
+			final short version = buf.getShort();
+			if (version != WrsTraceRecorder.VERSION) {
+				throw new IOException(String.format("Unsupported version %d of %s", Integer.valueOf(version), file));
+			}
+			listTraces.add(buf);
+		}
+		// Rotated files are replayed in the order of their first record.
+		listTraces.sort(Comparator.comparingLong(WrsTraceReplay::getFirstTimestamp));
+
+		final WrsTraceReplay replay = new WrsTraceReplay(speed);
+		final long tsStart = System.nanoTime();
+		long numRecords = 0;
+		for (final ByteBuffer buf : listTraces) {
+			numRecords += replay.replay(buf);
+		}
+		replay.awaitQuiescence();
+		final long durationNanos = System.nanoTime() - tsStart;
+		WrsDispatcher.shutdown();
+
+		final double durationSecs = durationNanos / 1e9;
+		System.out.println(String.format("records=%d, connections=%d, duration=%.3f s, records/s=%.1f, sent=%d, sentBytes=%d",
+				Long.valueOf(numRecords), Integer.valueOf(replay.fConnections.size()), Double.valueOf(durationSecs),
+				Double.valueOf(numRecords / Math.max(durationSecs, 1e-9)),
+				Long.valueOf(replay.fNumSent.get()), Long.valueOf(replay.fBytesSent.get())));
+	}
+
+	/**
+	 * Gets the timestamp of the first record of a trace.
+	 * @param buf trace positioned behind the header
+	 * @return timestamp in microseconds or {@link Long#MAX_VALUE} if the trace is empty
+	 */
+	private static long getFirstTimestamp(final ByteBuffer buf) {
+		final int pos = buf.position();
+		return (buf.remaining() >= WrsTraceRecorder.RECORD_HEADER_LENGTH && buf.get(pos) != WrsTraceRecorder.KIND_END)
+				? buf.getLong(pos + 1) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Replays the records of a trace.
+	 * @param buf trace positioned behind the header
+	 * @return number of records
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	long replay(final ByteBuffer buf) throws InterruptedException {
+		long numRecords = 0;
+		long tsFirstMicros = -1;
+		final long tsStartNanos = System.nanoTime();
+		while (buf.remaining() >= WrsTraceRecorder.RECORD_HEADER_LENGTH) {
+			final byte kind = buf.get();
+			if (kind == WrsTraceRecorder.KIND_END) {
+				break;
+			}
+			final long tsMicros = buf.getLong();
+			final Integer connectionId = Integer.valueOf(buf.getInt());
+			final int length = buf.getInt();
+			final byte[] payload = new byte[length];
+			buf.get(payload);
+			if (tsFirstMicros < 0) {
+				tsFirstMicros = tsMicros;
+			}
+			if (fSpeed > 0) {
+				final long dueNanos = tsStartNanos + (long) (TimeUnit.MICROSECONDS.toNanos(tsMicros - tsFirstMicros) / fSpeed);
+				final long waitNanos = dueNanos - System.nanoTime();
+				if (waitNanos > 0) {
+					TimeUnit.NANOSECONDS.sleep(waitNanos);
+				}
+			}
+			replayRecord(kind, connectionId, payload);
+			numRecords++;
+		}
+		return numRecords;
+	}
+
+	/**
+	 * Feeds a record into the handler.
+	 * @param kind kind of record
+	 * @param connectionId connection-id
+	 * @param payload payload
+	 */
+	private void replayRecord(final byte kind, final Integer connectionId, final byte[] payload) {
+		ReplayConnection connection = fConnections.get(connectionId);
+		if (kind == WrsTraceRecorder.KIND_CONNECT || connection == null) {
+			// A trace may start in the middle of a connection.
+			final String subProtocol = (kind == WrsTraceRecorder.KIND_CONNECT && payload.length > 0)
+					? new String(payload, StandardCharsets.UTF_8) : null;
+			connection = new ReplayConnection(connectionId.intValue(), subProtocol, this::countSent);
+			fConnections.put(connectionId, connection);
+			connection.fHandler.onConnect(connection.fSession);
+		}
+		switch (kind) {
+		case WrsTraceRecorder.KIND_TEXT:
+			connection.fHandler.onMessage(connection.fSession, new String(payload, StandardCharsets.UTF_8));
+			break;
+		case WrsTraceRecorder.KIND_BINARY:
+			connection.fHandler.onMessage(connection.fSession, payload, 0, payload.length);
+			break;
+		case WrsTraceRecorder.KIND_CLOSE:
+			connection.fIsOpen = false;
+			connection.fHandler.onClose(connection.fSession, StatusCode.NORMAL, "replay");
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Waits until the dispatcher hasn't sent messages for a second (dispatch-modes other than inline).
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private void awaitQuiescence() throws InterruptedException {
+		if (WrsDispatcher.MODE_INLINE.equals(WrsDispatcher.getInstance().getMode())) {
+			return;
+		}
+		long numSent = -1;
+		while (numSent != fNumSent.get()) {
+			numSent = fNumSent.get();
+			TimeUnit.SECONDS.sleep(1);
+		}
+	}
+
+	/**
+	 * Counts a message sent by the server.
+	 * @param payload message (String or ByteBuffer)
+	 */
+	private void countSent(final Object payload) {
+		fNumSent.incrementAndGet();
+		fBytesSent.addAndGet((payload instanceof String) ? ((String) payload).length() : ((ByteBuffer) payload).remaining());
+	}
+
+	/**
+	 * Simulated connection: handler and websocket-session.
+	 * The messages sent by the server are passed to a sink (replay, stress-test).
+	 */
+	static class ReplayConnection implements InvocationHandler {
+		/** handler of the connection */
+		final WebSocketWrs fHandler = new WebSocketWrs();
+		/** simulated websocket-session */
+		final Session fSession;
+		/** simulated remote-endpoint */
+		final RemoteEndpoint fRemote;
+		/** simulated upgrade-response */
+		final UpgradeResponse fUpgradeResponse;
+		/** simulated address of the client */
+		final InetSocketAddress fAddress;
+		/** accepted subprotocol */
+		final String fSubProtocol;
+		/** receiver of the messages sent by the server (String or ByteBuffer) */
+		final Consumer<Object> fSink;
+		/** state of the session */
+		volatile boolean fIsOpen = true;
+
+		/**
+		 * Constructor
+		 * @param connectionId connection-id
+		 * @param subProtocol accepted subprotocol or <code>null</code>
+		 * @param sink receiver of the messages sent by the server
+		 */
+		ReplayConnection(final int connectionId, final String subProtocol, final Consumer<Object> sink) {
+			fSubProtocol = subProtocol;
+			fSink = sink;
+			fAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 1024 + (connectionId & 0xffff) % 64000);
+			final ClassLoader cl = WrsTraceReplay.class.getClassLoader();
+			fSession = (Session) Proxy.newProxyInstance(cl, new Class<?>[] { Session.class }, this);
+			fRemote = (RemoteEndpoint) Proxy.newProxyInstance(cl, new Class<?>[] { RemoteEndpoint.class }, this);
+			fUpgradeResponse = (UpgradeResponse) Proxy.newProxyInstance(cl, new Class<?>[] { UpgradeResponse.class }, this);
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) {
+			switch (method.getName()) {
+			case "isOpen":
+				return Boolean.valueOf(fIsOpen);
+			case "getRemote":
+				return fRemote;
+			case "getUpgradeResponse":
+				return fUpgradeResponse;
+			case "getAcceptedSubProtocol":
+				return fSubProtocol;
+			case "getRemoteAddress":
+			case "getLocalAddress":
+				return fAddress;
+			case "close":
+			case "disconnect":
+				fIsOpen = false;
+				return null;
+			case "sendStringByFuture":
+			case "sendBytesByFuture":
+				fSink.accept(args[0]);
+				return CompletableFuture.completedFuture(null);
+			case "sendString":
+			case "sendBytes":
+				fSink.accept(args[0]);
+				if (args.length > 1 && args[1] instanceof WriteCallback) {
+					((WriteCallback) args[1]).writeSuccess();
+				}
+				return null;
+			case "hashCode":
+				return Integer.valueOf(System.identityHashCode(proxy));
+			case "equals":
+				return Boolean.valueOf(proxy == args[0]);
+			case "toString":
+				return "ReplaySession" + fAddress;
+			default:
+				return getDefaultValue(method.getReturnType());
+			}
+		}
+	}
+
+	/**
+	 * Gets the default-value of a return-type.
+	 * @param type return-type
+	 * @return default-value
+	 */
+	static Object getDefaultValue(final Class<?> type) {
+		// The element of a new primitive array is the default-value.
+		return (type.isPrimitive() && type != void.class) ? Array.get(Array.newInstance(type, 1), 0) : null;
+	}
+}
@@ -1,27 +1,82 @@
 package de.ab32.webrtc.streammediator;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.json.JsonObject;
 
 import org.eclipse.jetty.websocket.api.Session;
 
 /**
- * Start-time and websocket-session.
+ * Start-time, websocket-session, resume-token and mailbox of a user.
  */
 public class WrsWebsocketSession {
 
+	/** generator of resume-tokens */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** number of random bytes of a resume-token */
+	private static final int TOKEN_BYTES = 18;
+
 	/** start-time of the session */
 	private final Instant fTsStart;
 
-	/** websocket-session */
-	private final Session fSession;
+	/** key of the user in its room (lower-case name) */
+	private final String fUserKey;
+
+	/** session-id of the room of the user */
+	private final String fRoomId;
+
+	/** websocket-session, replaced at a resume */
+	private volatile Session fSession;
+
+	/** opaque resume-token, known to the user only */
+	private final String fResumeToken;
+
+	/** sequence-numbers received in the current websocket-session */
+	private volatile WrsSeqWindow fSeqWindow;
+
+	/** maximal number of remembered candidates of a pair of video-boxes */
+	private static final int MAX_CANDIDATES_PER_PAIR = 64;
+
+	/** messages routed to the user while its websocket-session is closed, guarded by itself */
+	private final ArrayDeque<PendingMessage> fPending = new ArrayDeque<>(4);
+
+	/** time when the websocket-session has been found closed, <code>null</code> if connected */
+	private volatile Instant fTsDisconnected;
+
+	/** <code>true</code> if the client has closed the websocket-session on purpose, it doesn't reconnect */
+	private volatile boolean fIsClosedByClient;
+
+	/** Map from pair of video-boxes (peer#localNr#peerNr) to candidates sent by this user */
+	private final ConcurrentMap<String, Set<String>> fCandidates = new ConcurrentHashMap<>(4);
 
 	/**
 	 * Constructor
+	 * @param userKey key of the user in its room
+	 * @param roomId session-id of the room of the user
 	 * @param fSession
+	 * @param seqWindow sequence-numbers received in the websocket-session
 	 */
-	public WrsWebsocketSession(Session fSession) {
+	public WrsWebsocketSession(final String userKey, final String roomId, Session fSession, final WrsSeqWindow seqWindow) {
 		this.fTsStart = Instant.now();
+		this.fUserKey = userKey;
+		this.fRoomId = roomId;
 		this.fSession = fSession;
+		this.fSeqWindow = seqWindow;
+		final byte[] bufToken = new byte[TOKEN_BYTES];
+		RANDOM.nextBytes(bufToken);
+		this.fResumeToken = Base64.getUrlEncoder().withoutPadding().encodeToString(bufToken);
 	}
 
 	/**
@@ -32,6 +87,22 @@ public class WrsWebsocketSession {
 		return fTsStart;
 	}
 	
+	/**
+	 * Gets the key of the user in its room.
+	 * @return lower-case name
+	 */
+	public String getUserKey() {
+		return fUserKey;
+	}
+
+	/**
+	 * Gets the session-id of the room of the user.
+	 * @return session-id
+	 */
+	public String getRoomId() {
+		return fRoomId;
+	}
+
 	/**
 	 * Gets the websocket-session.
 	 * @return websocket-session
@@ -40,4 +111,186 @@ public class WrsWebsocketSession {
 		return fSession;
 	}
 
+	/**
+	 * Remembers a candidate sent to a peer.
+	 * @param pairKey key of the pair of video-boxes
+	 * @param candidate candidate-line
+	 * @return <code>false</code> if the candidate has already been sent
+	 */
+	public boolean addCandidate(final String pairKey, final String candidate) {
+		final Set<String> setCandidates = fCandidates.computeIfAbsent(pairKey, k -> ConcurrentHashMap.newKeySet());
+		if (setCandidates.size() >= MAX_CANDIDATES_PER_PAIR) {
+			// We don't remember an unlimited number of candidates.
+			return !setCandidates.contains(candidate);
+		}
+		return setCandidates.add(candidate);
+	}
+
+	/**
+	 * Forgets the candidates of a pair of video-boxes, e.g. at a new call.
+	 * @param pairKey key of the pair of video-boxes
+	 */
+	public void clearCandidates(final String pairKey) {
+		fCandidates.remove(pairKey);
+	}
+
+	/**
+	 * Gets the resume-token of the user.
+	 * @return resume-token
+	 */
+	public String getResumeToken() {
+		return fResumeToken;
+	}
+
+	/**
+	 * Checks a resume-token presented by a client (constant time).
+	 * @param token token or <code>null</code>
+	 * @return <code>true</code> if the token is the resume-token of this user
+	 */
+	public boolean isResumeToken(final String token) {
+		return token != null && MessageDigest.isEqual(fResumeToken.getBytes(StandardCharsets.US_ASCII),
+				token.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Binds the state of the user to a new websocket-session (resume).
+	 * The candidates of the user are kept, the new websocket-session
+	 * takes over the sequence-numbers received in the previous one.
+	 * The websocket-session is replaced under the lock of the mailbox, so a message is either
+	 * kept before the rebind (and drained after it) or refused by {@link #offerPending(JsonObject, Session, Instant, Instant, int)}.
+	 * @param session new websocket-session
+	 * @param seqWindow sequence-numbers received in the new websocket-session
+	 * @return previous websocket-session
+	 */
+	public Session rebind(final Session session, final WrsSeqWindow seqWindow) {
+		synchronized (fPending) {
+			final Session sessionPrev = fSession;
+			final WrsSeqWindow seqWindowPrev = fSeqWindow;
+			if (seqWindowPrev != null && seqWindowPrev != seqWindow) {
+				seqWindow.adopt(seqWindowPrev);
+			}
+			fSession = session;
+			fSeqWindow = seqWindow;
+			fTsDisconnected = null;
+			fIsClosedByClient = false;
+			return sessionPrev;
+		}
+	}
+
+	/**
+	 * Gets the time when the websocket-session has been found closed.
+	 * @return time or <code>null</code> if the user is connected
+	 */
+	public Instant getTsDisconnected() {
+		return fTsDisconnected;
+	}
+
+	/**
+	 * Marks the user as closed by its client (clean close), no more messages are kept for it.
+	 * A user bound to an other websocket-session in between isn't marked.
+	 * @param session websocket-session closed by the client
+	 */
+	public void markClosedByClient(final Session session) {
+		synchronized (fPending) {
+			if (fSession == session) {
+				fIsClosedByClient = true;
+			}
+		}
+	}
+
+	/**
+	 * Checks if the client has closed the websocket-session on purpose.
+	 * @return <code>true</code> if the user doesn't reconnect
+	 */
+	public boolean isClosedByClient() {
+		return fIsClosedByClient;
+	}
+
+	/**
+	 * Marks the user as disconnected, the first time is kept.
+	 * @param tsNow current time
+	 * @return time of the disconnect
+	 */
+	public Instant markDisconnected(final Instant tsNow) {
+		Instant tsDisconnected = fTsDisconnected;
+		if (tsDisconnected == null) {
+			tsDisconnected = tsNow;
+			fTsDisconnected = tsNow;
+		}
+		return tsDisconnected;
+	}
+
+	/**
+	 * Keeps a message for the user until it reconnects.
+	 * Expired messages are removed first, a message is rejected if the mailbox is full, if the client has closed on purpose
+	 * or if the user has been bound to a new websocket-session in between (its mailbox may have been drained already).
+	 * @param json message
+	 * @param sessionClosed closed websocket-session seen by the sender
+	 * @param tsNow current time
+	 * @param tsExpire time when the message expires
+	 * @param maxMessages maximal number of kept messages
+	 * @return <code>true</code> if the message has been kept
+	 */
+	public boolean offerPending(final JsonObject json, final Session sessionClosed, final Instant tsNow,
+			final Instant tsExpire, final int maxMessages) {
+		synchronized (fPending) {
+			removeExpired(tsNow);
+			if (fSession != sessionClosed || fIsClosedByClient || fPending.size() >= maxMessages) {
+				return false;
+			}
+			fPending.addLast(new PendingMessage(json, tsExpire));
+			return true;
+		}
+	}
+
+	/**
+	 * Takes the unexpired messages out of the mailbox (resume).
+	 * @param tsNow current time
+	 * @return messages in the order of their arrival
+	 */
+	public List<JsonObject> drainPending(final Instant tsNow) {
+		synchronized (fPending) {
+			removeExpired(tsNow);
+			if (fPending.isEmpty()) {
+				return Collections.emptyList();
+			}
+			final List<JsonObject> listMessages = new ArrayList<>(fPending.size());
+			for (final PendingMessage msg : fPending) {
+				listMessages.add(msg.fJson);
+			}
+			fPending.clear();
+			return listMessages;
+		}
+	}
+
+	/**
+	 * Removes the expired messages at the head of the mailbox, guarded by fPending.
+	 * @param tsNow current time
+	 */
+	private void removeExpired(final Instant tsNow) {
+		while (!fPending.isEmpty() && fPending.peekFirst().fTsExpire.isBefore(tsNow)) {
+			fPending.removeFirst();
+		}
+	}
+
+	/**
+	 * Message in the mailbox.
+	 */
+	static class PendingMessage {
+		/** message */
+		final JsonObject fJson;
+		/** time when the message expires */
+		final Instant fTsExpire;
+
+		/**
+		 * Constructor
+		 * @param json message
+		 * @param tsExpire time when the message expires
+		 */
+		PendingMessage(final JsonObject json, final Instant tsExpire) {
+			fJson = json;
+			fTsExpire = tsExpire;
+		}
+	}
+
 }
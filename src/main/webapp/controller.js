@@ -18,6 +18,12 @@
 
 /** websocket-URL, e.g. wss://www.ab32.de/wrs/WebSocketServlet/ (page-URL https://www.ab32.de/wrs/) */
 const WEB_SOCKET_URL = document.URL.replace(/http(.*)\/[^\/]*$/, 'ws$1/WebSocketServlet');
+/** websocket-subprotocol of the binary encoding */
+const PROTOCOL_MSGPACK = 'wrs.msgpack';
+/** websocket-subprotocol of the JSON-encoding (fallback) */
+const PROTOCOL_JSON = 'wrs.json';
+/** encoder and decoder of binary messages */
+var msgPack = new MsgPackCodec();
 /** manager of websocket-connection */
 var wsManager = new WebSocketSessionManager(WEB_SOCKET_URL, handleMessage);
 
@@ -37,6 +43,18 @@ var mapPeerNameVideoBox = {};
 /** map from boxNr to VideoBox */
 var mapNrVideoBox = {};
 
+/** key of the resume-tokens in the sessionStorage of the tab */
+const STORAGE_RESUME_TOKENS = "wrsResumeTokens";
+
+/** Map from local user-name to resume-token of the server (reconnect), kept in the sessionStorage over a reload of the page */
+var mapResumeTokens = loadResumeTokens();
+
+/** ICE-servers of the RTC-connections, the server sends its configuration at connect */
+var iceServers = [ { urls: "stun:stun0.ab32.de:3478" }, { urls: "stun:stun1.ab32.de:3479" } ];
+
+/** Map from peer-key (peer-name.peer-nr) to call-id of the server (call-setup-latency) */
+var mapCallIds = {};
+
 // The different type of boxes are called video-boxes.
 
 /** global counter of video-boxes on our page */
@@ -64,6 +82,9 @@ const MSG_KEY_BOX_TYPE = 'keyBoxType';
 /** number of video-ox of local user */
 const NR_LOCAL_USER = 0;
 
+/** interval of the media-statistics sent to the server (ms) */
+const STATS_INTERVAL_MS = 30000;
+
 /**
  * Returns an element by selector.
  * 
@@ -876,16 +897,58 @@ function handleLogin(boxType, name, nr) {
 				boxType: boxType,
 				localNr: nr,
 				name: name,
-				session: session
+				session: session,
+				// After a reload of the page the server accepts the name of the previous connection.
+				resumeToken: mapResumeTokens[name]
 			});
 		}
 	}
 }
 
+/**
+ * Loads the resume-tokens of a previous page-load of this tab.
+ * 
+ * @returns map from local user-name to resume-token
+ */
+function loadResumeTokens() {
+	try {
+		return JSON.parse(sessionStorage.getItem(STORAGE_RESUME_TOKENS)) || {};
+	}
+	catch (e) {
+		// The sessionStorage may be disabled.
+		console.warn("Resume-tokens not loaded: %o", e);
+		return {};
+	}
+}
+
+/**
+ * Sets or removes the resume-token of a local user and stores the tokens in the sessionStorage.
+ * 
+ * @param name
+ *            local user-name
+ * @param resumeToken
+ *            resume-token of the server, undefined to remove the token
+ */
+function storeResumeToken(name, resumeToken) {
+	if (resumeToken) {
+		mapResumeTokens[name] = resumeToken;
+	}
+	else {
+		delete mapResumeTokens[name];
+	}
+	try {
+		sessionStorage.setItem(STORAGE_RESUME_TOKENS, JSON.stringify(mapResumeTokens));
+	}
+	catch (e) {
+		console.warn("Resume-tokens not stored: %o", e);
+	}
+}
+
 function handleLogout(videoBoxLocal) {
 	let session = $('#sessionId').value;
 	let name = videoBoxLocal.elUser.value;
 	if (name != '' && session != '') {
+		storeResumeToken(name, undefined);
 		wsManager.send({
 			type: "logout",
 			boxType: videoBoxLocal.boxType,
@@ -897,8 +960,19 @@ function handleLogout(videoBoxLocal) {
 }
 
 function handleMessage(message) {
-	console.log("Servernachricht: %s", message.data);
-	let data = JSON.parse(message.data);
+	let data;
+	if (typeof message.data === 'string') {
+		console.log("Servernachricht: %s", message.data);
+		data = JSON.parse(message.data);
+	}
+	else {
+		data = msgPack.decode(message.data);
+		console.log("Servernachricht (binär): %o", data);
+	}
+	if (data.callId) {
+		// We echo the call-id in the messages of the call-setup.
+		mapCallIds[data.name + '.' + data.localNr] = data.callId;
+	}
 	switch (data.type) {
 	case "connect":
 		if (data.success && data.session) {
@@ -906,13 +980,29 @@ function handleMessage(message) {
 				$('#sessionId').value = data.session;
 			}
 		}
+		if (data.success && Array.isArray(data.iceServers)) {
+			iceServers = data.iceServers.map(url => ({ urls: url }));
+		}
+		if (!data.success && data.retryAfter) {
+			// The server is overloaded.
+			wsManager.deferConnect(data.retryAfter);
+		}
 		// There are no i18n-translations directly after connect.
 		messages.showMessage(`${data.msg}`);
 		break;
 	case "login":
+		if (data.success && data.resumeToken) {
+			storeResumeToken(data.name, data.resumeToken);
+		}
 		onLogin(data.success, data.msg, data.boxType, data.name, data.localNr);
 		break;
+	case "ack":
+		console.log("Server ignored duplicate message: type=%s, seq=%s", data.ackType, data.seq);
+		break;
 	case "relogin":
+		if (data.success && data.resumeToken) {
+			storeResumeToken(data.name, data.resumeToken);
+		}
 		messages.showMessage($.i18n(data.msg));
 		break;
 	case "requestCall":
@@ -949,6 +1039,9 @@ function handleMessage(message) {
 	case "logout":
 		onLogout(data.name, data.msg);
 		break;
+	case "broadcast":
+		onBroadcast(data.success, data.name, data.data, data.msg);
+		break;
 	default:
 		messages.showMessage(`Unknown message of type ${data.type}`);
 		if (data.msg) {
@@ -1040,9 +1133,9 @@ function VideoBoxRTCPeerConnection(name, nr, peerName, peerNr, sessionId) {
 	delete this.videoBox.messages[MSG_KEY_BOX_TYPE];
 	this.videoBox.showVideoBoxMessages(false);
 
-	// STUN-Server of ab32.de in Helsinki.
+	// STUN-Server of the configuration of the server (default: ab32.de in Helsinki).
 	let configuration = {
-		"iceServers": [ { urls: "stun:stun0.ab32.de:3478" }, { urls: "stun:stun1.ab32.de:3479" }]
+		"iceServers": iceServers
 	};
 	console.log("ICE-Server: %o", configuration);
 	this.rtcConnection = new RTCPeerConnection(configuration);
@@ -1080,7 +1173,8 @@ function VideoBoxRTCPeerConnection(name, nr, peerName, peerNr, sessionId) {
 					localNr: nr,
 					peer: peerName,
 					peerNr: peerNr,
-					session: sessionId
+					session: sessionId,
+					callId: mapCallIds[peerKey]
 				});
 			}) 
 			.catch(function (err) {
@@ -1095,7 +1189,21 @@ function VideoBoxRTCPeerConnection(name, nr, peerName, peerNr, sessionId) {
 		console.log("VideoBox %s: ICE connection %s state changed to %s",
 				nr, peerName, this.rtcConnection.iceConnectionState);
 		switch(this.rtcConnection.iceConnectionState) {
+			case "connected":
 			case "completed":
+				if (!this.isConnectedReported) {
+					// The server measures the duration of the call-setup.
+					this.isConnectedReported = true;
+					wsManager.send({
+						type: "connected",
+						name: name,
+						localNr: nr,
+						peer: peerName,
+						peerNr: peerNr,
+						session: sessionId,
+						callId: mapCallIds[peerKey]
+					});
+				}
 				break;
 			case "closed":
 			case "failed":
@@ -1123,7 +1231,8 @@ function VideoBoxRTCPeerConnection(name, nr, peerName, peerNr, sessionId) {
 				localNr: nr,
 				peer: peerName,
 				peerNr: peerNr,
-				session: sessionId
+				session: sessionId,
+				callId: mapCallIds[peerKey]
 			});
 		}
 		else {
@@ -1223,26 +1332,36 @@ function DataChannel(videoBox, name, peerName, peerNr) {
 	};
 	this.channelOnMessage = function() {
 		let data = JSON.parse(event.data);
-		if (data.type == 'chat') {
-			let msg = `Nachricht von ${peerName}: ${data.msg}`;
-			console.log(msg);
-			let videoBoxChat = searchVideoBoxByType(BOX_TYPE_CHAT);
-			if (videoBoxChat) {
-				videoBoxChat.addChatMessage(data, peerName);
-			}
-			else {
-				messages.showMessage(msg);
-			}
-		}
-		else if (data.type == 'videoBoxStatus') {
-			let mapMsgs = videoBox.messages;
-			mapMsgs['videoBoxStatus'] = data.status;
-			videoBox.showVideoBoxMessages(false);
+		handleDataMessage(videoBox, peerName, data);
+	};
+}
+
+/**
+ * Handles a message sent by a peer via data-channel or server-broadcast.
+ * @param videoBox video-box of the peer
+ * @param peerName peer-name
+ * @param data JSON-data
+ */
+function handleDataMessage(videoBox, peerName, data) {
+	if (data.type == 'chat') {
+		let msg = `Nachricht von ${peerName}: ${data.msg}`;
+		console.log(msg);
+		let videoBoxChat = searchVideoBoxByType(BOX_TYPE_CHAT);
+		if (videoBoxChat) {
+			videoBoxChat.addChatMessage(data, peerName);
 		}
 		else {
-			console.log("Unknown data-message with type ${data.type}: ${event.data}");
+			messages.showMessage(msg);
 		}
-	};
+	}
+	else if (data.type == 'videoBoxStatus') {
+		let mapMsgs = videoBox.messages;
+		mapMsgs['videoBoxStatus'] = data.status;
+		videoBox.showVideoBoxMessages(false);
+	}
+	else {
+		console.log(`Unknown data-message with type ${data.type}: ${JSON.stringify(data)}`);
+	}
 }
 
 function onLogin(success, msg, boxType, name, nr) {
@@ -1410,7 +1529,8 @@ function onOffer(offer, name, localNr, peerName, peerNr) {
 			localNr: localNr,
 			peer: peerName,
 			peerNr: peerNr,
-			session: sessionId
+			session: sessionId,
+			callId: mapCallIds[peerName + '.' + peerNr]
 		});
 		console.log("createAnswer: answer has been sent");
 		messages.showMessage($.i18n("Video-Call von „$1“ wurde beantwortet.", peerName));
@@ -1465,6 +1585,32 @@ function onLeave(name, localNr, peerName, peerNr) {
 	}
 }
 
+/**
+ * A peer sent a broadcast via the server.
+ * Broadcasts of users without a video-box on our page are ignored.
+ * @param success success-flag
+ * @param name name of the sender
+ * @param data JSON-data of the broadcast
+ * @param msg optional error-message
+ */
+function onBroadcast(success, name, data, msg) {
+	if (!success) {
+		console.log("onBroadcast: %s", msg);
+		return;
+	}
+	for (let nr in mapNrVideoBox) {
+		let videoBox = mapNrVideoBox[nr];
+		if (!videoBox.isLocalStream && videoBox.peerName
+				&& simplifyName(videoBox.peerName) == simplifyName(name)) {
+			handleDataMessage(videoBox, name, data);
+			if (data.type == 'chat') {
+				// A chat-message is displayed once only.
+				break;
+			}
+		}
+	}
+}
+
 function onLogout(name) {
 	let videoBox = searchVideoBoxByName(name);
 	if (videoBox) {
@@ -1526,6 +1672,10 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 	
 	this.tsConnectionInit = null;
 	this.connection = null;
+	/** last sequence-number, a message sent again after a reconnect keeps its number */
+	this.lastSeq = 0;
+	/** earliest time of a new connect after a rejection by the overloaded server */
+	this.tsRetryAfter = 0;
 
 	this.close = function() {
 		if (this.connection && this.connection.readyState == WebSocket.OPEN) {
@@ -1546,6 +1696,15 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 		messages.showMessage(`Can't open web-socket connection: ${event}`);
 		console.log(`WebSocket: error ${event}`);
 	};
+	/**
+	 * Defers the next connect (retry-after-hint of the server).
+	 * @param retryAfterSecs seconds
+	 */
+	this.deferConnect = function(retryAfterSecs) {
+		console.log('WebSocket: server overloaded, retry after %d s', retryAfterSecs);
+		this.tsRetryAfter = Date.now() + 1000 * retryAfterSecs;
+	};
+
 	this.handleClose = function() {
 		console.log('WebSocketConnection %s closed', this.connection);
 		let activeVideoBox = null;
@@ -1557,7 +1716,12 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 		}
 		if (activeVideoBox) {
 			let connectionAge = new Date() - this.tsConnectionInit;
-			if (connectionAge > 15000) {
+			let millisDeferred = this.tsRetryAfter - Date.now();
+			if (millisDeferred > 0) {
+				console.log("Server überlastet, Neuaufbau in %d ms", millisDeferred);
+				setTimeout(() => this.initWebSocket(() => this.sendRelogin(activeVideoBox)), millisDeferred);
+			}
+			else if (connectionAge > 15000) {
 				console.log("Baue WebSocket-Session neu auf");
 				var thisVideoBox = this;
 				this.initWebSocket(function() {
@@ -1577,7 +1741,9 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 		}
 		
 		this.tsConnectionInit = new Date();
-		this.connection = new WebSocket(webSocketUrl);
+		// The server chooses the binary protocol or JSON-text.
+		this.connection = new WebSocket(webSocketUrl, [PROTOCOL_MSGPACK, PROTOCOL_JSON]);
+		this.connection.binaryType = 'arraybuffer';
 		this.connection.addEventListener('open', ev => this.handleOpen(onOpenFunction));
 		this.connection.addEventListener('error', ev => this.handleError(ev));
 		this.connection.addEventListener('close', ev => this.handleClose());
@@ -1588,6 +1754,9 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 	});
 
 	this.sendChecked = function(message) {
+		if (message.seq === undefined) {
+			message.seq = ++this.lastSeq;
+		}
 		if (message.session != $('#sessionId').value) {
 			console.error("Session-Id != '%s': %o", $('#sessionId').value, message);
 			message.session = $('#sessionId').value;
@@ -1596,7 +1765,12 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 				message.type, message.name, message.localNr,
 				message.peer, message.peerNr,
 				message.session, message.lang);
-		this.connection.send(JSON.stringify(message)); 
+		if (this.connection.protocol == PROTOCOL_MSGPACK) {
+			this.connection.send(msgPack.encode(message));
+		}
+		else {
+			this.connection.send(JSON.stringify(message));
+		}
 	};
 
 	this.send = function(message) {
@@ -1605,12 +1779,15 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 		}
 		else {
 			let connectionAge = new Date() - this.tsConnectionInit;
-			if (connectionAge > 5000) {
+			let millisDeferred = this.tsRetryAfter - Date.now();
+			if (millisDeferred > 0) {
+				messages.showMessage($.i18n("Der Server ist derzeitig überlastet. Neuer Versuch in $1 Sekunden.", Math.ceil(millisDeferred / 1000)));
+				setTimeout(() => this.send(message), millisDeferred);
+			}
+			else if (connectionAge > 5000) {
 				console.log('send reconnection: msg.type=%s, age=%d ms', message.type, connectionAge);
 				messages.showMessage($.i18n("Neuaufbau der Verbindung zum Server ..."));
-				this.initWebSocket(function() {
-					sendChecked(message);
-				});
+				this.initWebSocket(() => this.sendChecked(message));
 			}
 			else {
 				messages.showMessage($.i18n("Nachricht vom Typ \"$1\" kann wegen fehlender Server-Verbindung nicht gesendet werden.", message.type));
@@ -1632,51 +1809,223 @@ function WebSocketSessionManager(webSocketUrl, handleMessageFunction) {
 			this.send({
 				type: "relogin",
 				name: name,
-				session: session
+				session: session,
+				resumeToken: mapResumeTokens[name]
 			});
 		}
 	}
 }
 
 /**
- * Sends a broadcast to the peers of the video-boxes having the given localName
+ * Encoder and decoder of the binary protocol (subset of MessagePack).
+ * Objects are converted like in JSON.stringify (toJSON, undefined and functions are skipped).
+ */
+function MsgPackCodec() {
+	const textEncoder = new TextEncoder();
+	const textDecoder = new TextDecoder();
+
+	/**
+	 * Encodes a message.
+	 * @param value message
+	 * @returns Uint8Array
+	 */
+	this.encode = function(value) {
+		let bytes = [];
+		writeValue(bytes, value);
+		return new Uint8Array(bytes);
+	}
+
+	/**
+	 * Decodes a message.
+	 * @param buffer ArrayBuffer
+	 * @returns message
+	 */
+	this.decode = function(buffer) {
+		let reader = { view: new DataView(buffer), pos: 0 };
+		let value = readValue(reader);
+		if (reader.pos != buffer.byteLength) {
+			throw `MsgPack: unexpected trailing bytes (${buffer.byteLength - reader.pos})`;
+		}
+		return value;
+	}
+
+	function writeHeader(bytes, size, fixPrefix, prefix16, prefix32) {
+		if (size <= 15) {
+			bytes.push(fixPrefix | size);
+		}
+		else if (size <= 0xffff) {
+			bytes.push(prefix16, size >>> 8, size & 0xff);
+		}
+		else {
+			bytes.push(prefix32, size >>> 24, (size >>> 16) & 0xff, (size >>> 8) & 0xff, size & 0xff);
+		}
+	}
+
+	function writeValue(bytes, value) {
+		if (value && typeof value.toJSON === 'function') {
+			value = value.toJSON();
+		}
+		if (value === null || value === undefined) {
+			bytes.push(0xc0);
+		}
+		else if (typeof value === 'boolean') {
+			bytes.push(value ? 0xc3 : 0xc2);
+		}
+		else if (typeof value === 'number') {
+			if (Number.isInteger(value) && value >= 0 && value <= 0x7f) {
+				bytes.push(value);
+			}
+			else if (Number.isInteger(value) && value < 0 && value >= -32) {
+				bytes.push(value & 0xff);
+			}
+			else if (Number.isInteger(value) && value >= -0x80000000 && value <= 0x7fffffff) {
+				bytes.push(0xd2, (value >>> 24) & 0xff, (value >>> 16) & 0xff, (value >>> 8) & 0xff, value & 0xff);
+			}
+			else {
+				let view = new DataView(new ArrayBuffer(8));
+				view.setFloat64(0, value);
+				bytes.push(0xcb);
+				for (let i = 0; i < 8; i++) {
+					bytes.push(view.getUint8(i));
+				}
+			}
+		}
+		else if (typeof value === 'string') {
+			let utf8 = textEncoder.encode(value);
+			let len = utf8.length;
+			if (len <= 31) {
+				bytes.push(0xa0 | len);
+			}
+			else if (len <= 0xff) {
+				bytes.push(0xd9, len);
+			}
+			else if (len <= 0xffff) {
+				bytes.push(0xda, len >>> 8, len & 0xff);
+			}
+			else {
+				bytes.push(0xdb, len >>> 24, (len >>> 16) & 0xff, (len >>> 8) & 0xff, len & 0xff);
+			}
+			for (let i = 0; i < len; i++) {
+				bytes.push(utf8[i]);
+			}
+		}
+		else if (Array.isArray(value)) {
+			writeHeader(bytes, value.length, 0x90, 0xdc, 0xdd);
+			for (let element of value) {
+				writeValue(bytes, (typeof element === 'function') ? null : element);
+			}
+		}
+		else if (typeof value === 'object') {
+			let keys = Object.keys(value).filter(key => value[key] !== undefined && typeof value[key] !== 'function');
+			writeHeader(bytes, keys.length, 0x80, 0xde, 0xdf);
+			for (let key of keys) {
+				writeValue(bytes, key);
+				writeValue(bytes, value[key]);
+			}
+		}
+		else {
+			throw `MsgPack: unsupported type ${typeof value}`;
+		}
+	}
+
+	function readString(reader, len) {
+		let view = reader.view;
+		let s = textDecoder.decode(new Uint8Array(view.buffer, view.byteOffset + reader.pos, len));
+		reader.pos += len;
+		return s;
+	}
+
+	function readArray(reader, size) {
+		let array = [];
+		for (let i = 0; i < size; i++) {
+			array.push(readValue(reader));
+		}
+		return array;
+	}
+
+	function readMap(reader, size) {
+		let map = {};
+		for (let i = 0; i < size; i++) {
+			let key = readValue(reader);
+			map[key] = readValue(reader);
+		}
+		return map;
+	}
+
+	function readValue(reader) {
+		let view = reader.view;
+		let b = view.getUint8(reader.pos++);
+		if (b <= 0x7f) {
+			return b;
+		}
+		else if (b >= 0xe0) {
+			return b - 0x100;
+		}
+		else if ((b & 0xe0) == 0xa0) {
+			return readString(reader, b & 0x1f);
+		}
+		else if ((b & 0xf0) == 0x90) {
+			return readArray(reader, b & 0x0f);
+		}
+		else if ((b & 0xf0) == 0x80) {
+			return readMap(reader, b & 0x0f);
+		}
+		let pos = reader.pos;
+		switch (b) {
+		case 0xc0: return null;
+		case 0xc2: return false;
+		case 0xc3: return true;
+		case 0xcc: reader.pos += 1; return view.getUint8(pos);
+		case 0xcd: reader.pos += 2; return view.getUint16(pos);
+		case 0xce: reader.pos += 4; return view.getUint32(pos);
+		case 0xd0: reader.pos += 1; return view.getInt8(pos);
+		case 0xd1: reader.pos += 2; return view.getInt16(pos);
+		case 0xd2: reader.pos += 4; return view.getInt32(pos);
+		case 0xd3: reader.pos += 8; return view.getInt32(pos) * 4294967296 + view.getUint32(pos + 4);
+		case 0xca: reader.pos += 4; return view.getFloat32(pos);
+		case 0xcb: reader.pos += 8; return view.getFloat64(pos);
+		case 0xd9: reader.pos += 1; return readString(reader, view.getUint8(pos));
+		case 0xda: reader.pos += 2; return readString(reader, view.getUint16(pos));
+		case 0xdb: reader.pos += 4; return readString(reader, view.getUint32(pos));
+		case 0xdc: reader.pos += 2; return readArray(reader, view.getUint16(pos));
+		case 0xdd: reader.pos += 4; return readArray(reader, view.getUint32(pos));
+		case 0xde: reader.pos += 2; return readMap(reader, view.getUint16(pos));
+		case 0xdf: reader.pos += 4; return readMap(reader, view.getUint32(pos));
+		default:
+			throw `MsgPack: unsupported type ${b} at position ${pos - 1}`;
+		}
+	}
+}
+
+/**
+ * Sends a broadcast to the other members of the session.
+ * The server fans out the message, the receivers ignore messages of unknown peers.
  * @param localName local name
  * @param data JSON-Data
  */
 function sendDataBroadcast(localName, data) {
-	// Find the peer-keys of the video-boxes with given localName.
-	let sPeerKeys = "";
-	let setPeerKeys = {};
+	// Is there a video-box with given localName connected to a peer?
+	let hasPeers = false;
 	for (let nr in mapNrVideoBox) {
 		let videoBox = mapNrVideoBox[nr];
-		if (videoBox.localName
+		if (videoBox.localName && videoBox.peerName
 				&& (simplifyName(videoBox.localName) == simplifyName(localName))
 				&& !videoBox.isLocalStream) {
-			let peerKey = videoBox.peerName + '.' + videoBox.peerNr;
-			setPeerKeys[peerKey] = true;
-			if (sPeerKeys.length > 0) {
-				sPeerKeys += ', ';
-			}
-			sPeerKeys += peerKey;
+			hasPeers = true;
+			break;
 		}
 	}
-
-	// Send a broadcast to the corresponding peer-keys.
-	let sJsonData = JSON.stringify(data);
-	console.log('sendDataBrodcast: localName=%s, data=%s, peerKeys=%s', localName, sJsonData, sPeerKeys);
-
-	for (let peerKey in rtcChannels) {
-		if (setPeerKeys[peerKey]) {
-			let dataChannel = rtcChannels[peerKey];
-			if (dataChannel) {
-				console.log(`Sende Nachricht an "${peerKey}": ${data}`);
-				dataChannel.channel.send(sJsonData);
-			}
-			else {
-				console.log(`Der Data-Channel zu Peer "${peerKey}" ist nicht vorhanden.`);
-			}
-		}
+	if (!hasPeers) {
+		console.log('sendDataBroadcast: localName=%s without peers, type=%s', localName, data.type);
+		return;
 	}
+	console.log('sendDataBroadcast: localName=%s, type=%s', localName, data.type);
+	wsManager.send({
+		type: "broadcast",
+		name: localName,
+		data: data,
+		session: $('#sessionId').value
+	});
 }
 
 /**
@@ -2145,4 +2494,89 @@ function stopVideoRemote(peerName) {
 	}
 }
 
+/**
+ * Summarizes the statistics of a RTC-connection: RTT, packet-loss and received bitrate
+ * since the last summary and the type of the selected candidate-pair.
+ * 
+ * @param videoBoxRtcConnection
+ *            RTC-connection of a video-box
+ * @returns promise of the report
+ */
+function summarizeStats(videoBoxRtcConnection) {
+	return videoBoxRtcConnection.rtcConnection.getStats().then(function(stats) {
+		let pair = null;
+		let bytes = 0;
+		let lost = 0;
+		let received = 0;
+		stats.forEach(function(report) {
+			if (report.type == 'transport' && report.selectedCandidatePairId) {
+				pair = stats.get(report.selectedCandidatePairId);
+			}
+			else if (report.type == 'candidate-pair' && report.nominated && report.state == 'succeeded' && !pair) {
+				// Firefox has no transport-report.
+				pair = report;
+			}
+			else if (report.type == 'inbound-rtp') {
+				bytes += report.bytesReceived || 0;
+				lost += report.packetsLost || 0;
+				received += report.packetsReceived || 0;
+			}
+		});
+		let summary = {};
+		if (pair) {
+			if (pair.currentRoundTripTime !== undefined) {
+				summary.rtt = Math.round(pair.currentRoundTripTime * 1000);
+			}
+			let types = [pair.localCandidateId, pair.remoteCandidateId]
+				.map(id => stats.get(id))
+				.map(candidate => candidate ? candidate.candidateType : undefined);
+			if (types.includes('relay')) {
+				summary.pair = 'relay';
+			}
+			else if (types.includes('srflx') || types.includes('prflx')) {
+				summary.pair = 'srflx';
+			}
+			else if (types.includes('host')) {
+				summary.pair = 'host';
+			}
+		}
+		let now = Date.now();
+		let last = videoBoxRtcConnection.lastStats;
+		if (last && now > last.ts) {
+			summary.kbps = Math.round(Math.max(0, bytes - last.bytes) * 8 / (now - last.ts));
+			let packets = Math.max(0, lost - last.lost) + Math.max(0, received - last.received);
+			if (packets > 0) {
+				summary.loss = Math.round(Math.max(0, lost - last.lost) * 1000 / packets);
+			}
+		}
+		videoBoxRtcConnection.lastStats = { ts: now, bytes: bytes, lost: lost, received: received };
+		return summary;
+	});
+}
+
+/**
+ * Sends the summarized statistics of all RTC-connections in one message.
+ */
+function sendMediaStats() {
+	let connections = Object.values(rtcConnections).filter(conn => conn && conn.rtcConnection
+			&& conn.rtcConnection.connectionState != 'closed');
+	if (connections.length == 0 || !wsManager.connection || wsManager.connection.readyState != WebSocket.OPEN) {
+		return;
+	}
+	Promise.all(connections.map(conn => summarizeStats(conn).catch(err => null)))
+	.then(function(summaries) {
+		let reports = summaries.filter(summary => summary && Object.keys(summary).length > 0);
+		let localName = connections[0].videoBox ? connections[0].videoBox.localName : null;
+		if (reports.length > 0 && localName) {
+			wsManager.sendChecked({
+				type: "stats",
+				name: localName,
+				session: $('#sessionId').value,
+				reports: reports
+			});
+		}
+	});
+}
+
 document.addEventListener('DOMContentLoaded', initPage);
+setInterval(sendMediaStats, STATS_INTERVAL_MS);
@@ -0,0 +1,447 @@
+package de.ab32.webrtc.streammediator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Stress-test of the registries (users and rooms) of {@link WebSocketWrs}.
+ * Many threads connect, login, route, relogin, broadcast, logout and close while clean-ups run.
+ * The messages are handled inline in the calling thread, so the registries are the point of contention.
+ *
+ * <p>The throughput is measured for 1, 2, 4, ... threads. System-properties:
+ * <ul>
+ * <li>wrs.stress.threads: maximal number of threads (default is twice the number of processors, at most 64),</li>
+ * <li>wrs.stress.millis: duration of a measurement in milliseconds (default is 500),</li>
+ * <li>wrs.stress.min_efficiency: required speedup per used processor at the maximal number of threads,
+ * e.g. 0.8 on a node with 32 cores (default is 0.25, registries serialized by a global lock would reach 1/#processors only).</li>
+ * </ul>
+ */
+public class WebSocketWrsStressTest {
+
+	/** number of rooms shared by the threads */
+	private static final int ROOMS = 8;
+
+	/** logger of the package, the level is raised while the test runs */
+	private static final Logger LOGGER_PACKAGE = Logger.getLogger("de.ab32.webrtc.streammediator");
+
+	/** level of the logger of the package before the test */
+	private static Level sLevelBefore;
+
+	/** dispatch-mode before the test */
+	private static String sDispatchModeBefore;
+
+	/** maximal number of threads */
+	private static final int MAX_THREADS = Integer.getInteger("wrs.stress.threads",
+			Math.min(64, 2 * Runtime.getRuntime().availableProcessors())).intValue();
+
+	/** duration of a measurement */
+	private static final long MEASURE_MILLIS = Long.getLong("wrs.stress.millis", 500).longValue();
+
+	/** required speedup per used processor */
+	private static final double MIN_EFFICIENCY = Double.parseDouble(System.getProperty("wrs.stress.min_efficiency", "0.25"));
+
+	/** counter of the runs, the names of users are unique over all runs */
+	private static final AtomicInteger RUN_COUNTER = new AtomicInteger();
+
+	/**
+	 * The messages are handled inline, the logging of each message would dominate the measurement.
+	 */
+	@BeforeClass
+	public static void setUpClass() {
+		sDispatchModeBefore = System.setProperty("wrs.dispatch_mode", WrsDispatcher.MODE_INLINE);
+		sLevelBefore = LOGGER_PACKAGE.getLevel();
+		LOGGER_PACKAGE.setLevel(Level.WARNING);
+	}
+
+	/**
+	 * Restores the level of the logger and the dispatch-mode for the following tests.
+	 */
+	@AfterClass
+	public static void tearDownClass() {
+		LOGGER_PACKAGE.setLevel(sLevelBefore);
+		if (sDispatchModeBefore != null) {
+			System.setProperty("wrs.dispatch_mode", sDispatchModeBefore);
+		}
+		else {
+			System.clearProperty("wrs.dispatch_mode");
+		}
+	}
+
+	/**
+	 * Hammers login, route, relogin, broadcast, logout and close with an increasing number of threads.
+	 * No route may get lost, the registries have to be consistent and empty after each run.
+	 * @throws Exception in case of an error
+	 */
+	@Test
+	public void testRegistriesScale() throws Exception {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		// warm-up of the JIT
+		runWorkers(MAX_THREADS, 2 * MEASURE_MILLIS, () -> WebSocketWrs.cleanup(WrsTenant.getDefault(), config, Instant.now(), Instant.now()), false);
+
+		final int numProcessors = Runtime.getRuntime().availableProcessors();
+		double rateSingle = 0;
+		double efficiency = 1;
+		int numThreadsLast = 0;
+		System.out.println(String.format("%8s %12s %8s %10s", "#threads", "cycles/s", "speedup", "efficiency"));
+		for (int numThreads = 1; numThreads <= MAX_THREADS; numThreads *= 2) {
+			// Clean-ups without old entries run concurrently, they iterate over the registries.
+			final RunResult result = runWorkers(numThreads, MEASURE_MILLIS,
+					() -> WebSocketWrs.cleanup(WrsTenant.getDefault(), config, Instant.now(), Instant.now()), false);
+			assertEquals("lost routes", 0, result.fLostRoutes.get());
+			assertEquals("failed requests", 0, result.fFailures.get());
+			assertRegistriesConsistent();
+			assertTrue("users left in registry: " + WrsTenant.getDefault().getWebsocketSessions().keySet(),
+					WrsTenant.getDefault().getWebsocketSessions().isEmpty());
+
+			final double rate = result.fCycles.get() * 1000.0 / result.fMillis;
+			if (numThreads == 1) {
+				rateSingle = rate;
+			}
+			final double speedup = rate / Math.max(rateSingle, 1e-9);
+			efficiency = speedup / Math.min(numThreads, numProcessors);
+			numThreadsLast = numThreads;
+			System.out.println(String.format("%8d %12.0f %8.2f %10.2f",
+					Integer.valueOf(numThreads), Double.valueOf(rate), Double.valueOf(speedup), Double.valueOf(efficiency)));
+		}
+		assertTrue(String.format("efficiency %.2f at %d threads < %.2f", Double.valueOf(efficiency),
+				Integer.valueOf(numThreadsLast), Double.valueOf(MIN_EFFICIENCY)), efficiency >= MIN_EFFICIENCY);
+	}
+
+	/**
+	 * Clean-ups removing all entries race with logins and logouts:
+	 * Routes may fail, but the registries have to stay consistent.
+	 * @throws Exception in case of an error
+	 */
+	@Test
+	public void testCleanupRacingWithLogins() throws Exception {
+		final WrsConfiguration config = WrsConfiguration.getInstance();
+		// Each entry is older than the maximal age at the simulated time of the clean-up.
+		final Duration maxAge = Duration.from(config.getMaxAgeWebsocket());
+		final RunResult result = runWorkers(Math.max(4, MAX_THREADS), MEASURE_MILLIS,
+				() -> WebSocketWrs.cleanup(WrsTenant.getDefault(), config, Instant.now().plus(maxAge).plusSeconds(60), Instant.now()), true);
+		assertTrue("no cycles", result.fCycles.get() > 0);
+		assertRegistriesConsistent();
+
+		WebSocketWrs.cleanup(WrsTenant.getDefault(), config, Instant.now().plus(maxAge).plusSeconds(60), Instant.now());
+		assertTrue("users left in registry", WrsTenant.getDefault().getWebsocketSessions().isEmpty());
+		assertTrue("rooms left in registry", WrsTenant.getDefault().getSessions().isEmpty());
+	}
+
+	/**
+	 * Runs workers and a thread doing clean-ups.
+	 * @param numThreads number of workers
+	 * @param millis duration
+	 * @param cleanup clean-up, executed in a loop
+	 * @param isCleanupEvicting <code>true</code> if the clean-up removes current users (failed routes are tolerated)
+	 * @return result
+	 * @throws Exception in case of an error
+	 */
+	private static RunResult runWorkers(final int numThreads, final long millis, final Runnable cleanup,
+			final boolean isCleanupEvicting) throws Exception {
+		final int run = RUN_COUNTER.incrementAndGet();
+		final RunResult result = new RunResult();
+		final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+		final CountDownLatch latchStart = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			final int worker = i;
+			threads.add(new Thread(() -> {
+				try {
+					latchStart.await();
+					for (long iteration = 0; !result.fIsStopped; iteration++) {
+						runCycle(run, worker, iteration, result, isCleanupEvicting);
+						result.fCycles.incrementAndGet();
+					}
+				}
+				catch (Throwable e) {
+					errors.add(e);
+				}
+			}, "stress-" + i));
+		}
+		threads.add(new Thread(() -> {
+			try {
+				latchStart.await();
+				while (!result.fIsStopped) {
+					cleanup.run();
+					// The clean-up mustn't take a processor of the workers.
+					TimeUnit.MILLISECONDS.sleep(1);
+				}
+			}
+			catch (Throwable e) {
+				errors.add(e);
+			}
+		}, "stress-cleanup"));
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		final long tsStart = System.nanoTime();
+		latchStart.countDown();
+		TimeUnit.MILLISECONDS.sleep(millis);
+		result.fIsStopped = true;
+		for (final Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(60));
+			assertFalse("thread doesn't stop: " + thread.getName(), thread.isAlive());
+		}
+		result.fMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tsStart));
+		if (!errors.isEmpty()) {
+			throw new AssertionError("error in worker: " + errors.peek(), errors.peek());
+		}
+		return result;
+	}
+
+	/**
+	 * A cycle of a worker: Two users connect and login, A routes an offer to B,
+	 * B resumes on a new connection, A routes a candidate and a broadcast to B's new connection,
+	 * both logout and close.
+	 * @param run number of the run
+	 * @param worker number of the worker
+	 * @param iteration number of the cycle
+	 * @param result counters
+	 * @param isCleanupEvicting <code>true</code> if users may be removed by a concurrent clean-up
+	 */
+	private static void runCycle(final int run, final int worker, final long iteration, final RunResult result,
+			final boolean isCleanupEvicting) {
+		final String room = "stress" + (iteration % ROOMS);
+		final String nameA = String.format("a%d-%d-%d", Integer.valueOf(run), Integer.valueOf(worker), Long.valueOf(iteration));
+		final String nameB = String.format("b%d-%d-%d", Integer.valueOf(run), Integer.valueOf(worker), Long.valueOf(iteration));
+		final FakeConnection connA = new FakeConnection(worker);
+		final FakeConnection connB = new FakeConnection(worker);
+		final FakeConnection connB2 = new FakeConnection(worker);
+		try {
+			check(result, connA.connect());
+			check(result, connB.connect());
+			check(result, connA.request(String.format("{\"type\":\"login\",\"name\":\"%s\",\"session\":\"%s\",\"boxType\":1,\"localNr\":1}", nameA, room), "login"));
+			final JsonObject loginB = connB.request(String.format("{\"type\":\"login\",\"name\":\"%s\",\"session\":\"%s\",\"boxType\":1,\"localNr\":2}", nameB, room), "login");
+			check(result, loginB);
+
+			connA.send(String.format("{\"type\":\"offer\",\"name\":\"%s\",\"session\":\"%s\",\"peer\":\"%s\",\"localNr\":1,\"peerNr\":2,\"boxType\":1,"
+					+ "\"offer\":{\"type\":\"offer\",\"sdp\":\"v=0\\r\\n\"}}", nameA, room, nameB));
+			checkRoute(result, connB.take("offer", nameA), isCleanupEvicting);
+
+			check(result, connB2.connect());
+			final String resumeToken = (loginB != null) ? loginB.getString("resumeToken", null) : null;
+			final JsonObject relogin = connB2.request(String.format("{\"type\":\"relogin\",\"name\":\"%s\",\"session\":\"%s\",\"resumeToken\":\"%s\"}",
+					nameB, room, resumeToken), "relogin");
+			if (!isCleanupEvicting) {
+				check(result, relogin);
+				// The resumed connection is closed by the server.
+				assertFalse("previous connection of a resumed user is open", connB.fIsOpen);
+			}
+
+			connA.send(String.format("{\"type\":\"candidate\",\"name\":\"%s\",\"session\":\"%s\",\"peer\":\"%s\",\"localNr\":1,\"peerNr\":2,"
+					+ "\"candidate\":{\"candidate\":\"candidate:1 1 udp 2122260223 192.0.2.%d %d typ host\",\"sdpMid\":\"0\",\"sdpMLineIndex\":0}}",
+					nameA, room, nameB, Integer.valueOf(worker % 250 + 1), Long.valueOf(1024 + iteration % 60000)));
+			checkRoute(result, connB2.take("candidate", nameA), isCleanupEvicting);
+
+			connA.send(String.format("{\"type\":\"broadcast\",\"name\":\"%s\",\"session\":\"%s\",\"data\":{\"text\":\"hello\"}}", nameA, room));
+			checkRoute(result, connB2.take("broadcast", nameA), isCleanupEvicting);
+
+			connA.request(String.format("{\"type\":\"logout\",\"name\":\"%s\",\"session\":\"%s\"}", nameA, room), "logout");
+			connB2.request(String.format("{\"type\":\"logout\",\"name\":\"%s\",\"session\":\"%s\"}", nameB, room), "logout");
+			final Map<String, WrsWebsocketSession> mapUsers = WrsTenant.getDefault().getWebsocketSessions();
+			assertFalse("user registered after logout", mapUsers.containsKey(nameA + "#" + room));
+			assertFalse("user registered after logout", mapUsers.containsKey(nameB + "#" + room));
+			if (connA.fNumErrors.get() + connB.fNumErrors.get() + connB2.fNumErrors.get() > 0) {
+				result.fFailures.incrementAndGet();
+			}
+		}
+		finally {
+			connA.close();
+			connB.close();
+			connB2.close();
+		}
+	}
+
+	/**
+	 * Counts a failed or missing response.
+	 * @param result counters
+	 * @param response response or <code>null</code>
+	 */
+	private static void check(final RunResult result, final JsonObject response) {
+		if (response == null || !response.getBoolean("success", false)) {
+			result.fFailures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts a lost route.
+	 * @param result counters
+	 * @param routed message received by the peer or <code>null</code>
+	 * @param isCleanupEvicting <code>true</code> if a concurrent clean-up may have removed the peer
+	 */
+	private static void checkRoute(final RunResult result, final JsonObject routed, final boolean isCleanupEvicting) {
+		if (routed == null && !isCleanupEvicting) {
+			result.fLostRoutes.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Checks that each registered user is the member of its room and each member is registered.
+	 * To be called while no thread changes the registries.
+	 */
+	private static void assertRegistriesConsistent() {
+		final Map<String, WrsWebsocketSession> mapUsers = WrsTenant.getDefault().getWebsocketSessions();
+		final Map<String, WrsSession> mapRooms = WrsTenant.getDefault().getSessions();
+		final Set<WrsWebsocketSession> setUsers = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (final Entry<String, WrsWebsocketSession> entry : mapUsers.entrySet()) {
+			// The names of the test don't contain '#'.
+			final String room = entry.getKey().substring(entry.getKey().indexOf('#') + 1);
+			final WrsSession wrsSession = mapRooms.get(room);
+			assertNotNull("room of registered user is missing: " + entry.getKey(), wrsSession);
+			assertTrue("registered user isn't a member of its room: " + entry.getKey(),
+					wrsSession.getMembers().stream().anyMatch(member -> member == entry.getValue()));
+			setUsers.add(entry.getValue());
+		}
+		int numMembers = 0;
+		for (final Entry<String, WrsSession> entry : mapRooms.entrySet()) {
+			for (final WrsWebsocketSession member : entry.getValue().getMembers()) {
+				assertTrue("member of room isn't registered: " + entry.getKey(), setUsers.contains(member));
+				numMembers++;
+			}
+		}
+		assertEquals("number of members", mapUsers.size(), numMembers);
+	}
+
+	/**
+	 * Counters of a run.
+	 */
+	static class RunResult {
+		/** completed cycles */
+		final AtomicLong fCycles = new AtomicLong();
+		/** routed messages which didn't arrive */
+		final AtomicLong fLostRoutes = new AtomicLong();
+		/** failed or missing responses */
+		final AtomicLong fFailures = new AtomicLong();
+		/** duration in milliseconds */
+		long fMillis;
+		/** <code>true</code> if the workers have to stop */
+		volatile boolean fIsStopped;
+	}
+
+	/**
+	 * Simulated connection: handler and websocket-session, the messages sent by the server are kept.
+	 */
+	static class FakeConnection extends WrsTraceReplay.ReplayConnection {
+		/** messages sent by the server, they may be sent by threads of other connections */
+		final Queue<String> fReceived;
+		/** number of error-responses */
+		final AtomicInteger fNumErrors = new AtomicInteger();
+
+		/**
+		 * Constructor
+		 * @param worker number of the worker
+		 */
+		FakeConnection(final int worker) {
+			this(worker, new ConcurrentLinkedQueue<>());
+		}
+
+		/**
+		 * Constructor
+		 * @param worker number of the worker
+		 * @param received queue of the messages sent by the server
+		 */
+		private FakeConnection(final int worker, final Queue<String> received) {
+			super(worker, null, payload -> {
+				// The test uses the JSON-encoding only.
+				if (payload instanceof String) {
+					received.add((String) payload);
+				}
+			});
+			fReceived = received;
+		}
+
+		/**
+		 * Opens the connection.
+		 * @return response "connect" or <code>null</code>
+		 */
+		JsonObject connect() {
+			fHandler.onConnect(fSession);
+			return take("connect", null);
+		}
+
+		/**
+		 * Sends a message to the server.
+		 * @param msg JSON-message
+		 */
+		void send(final String msg) {
+			fHandler.onMessage(fSession, msg);
+		}
+
+		/**
+		 * Sends a request to the server.
+		 * @param msg JSON-message
+		 * @param type type of the response
+		 * @return response or <code>null</code>
+		 */
+		JsonObject request(final String msg, final String type) {
+			send(msg);
+			return take(type, null);
+		}
+
+		/**
+		 * Closes the connection.
+		 */
+		void close() {
+			if (fIsOpen) {
+				fIsOpen = false;
+				fHandler.onClose(fSession, StatusCode.NORMAL, "stress");
+			}
+		}
+
+		/**
+		 * Takes the first received message of a type, the messages before it are discarded.
+		 * The messages are handled inline, a response has been received when the request returns.
+		 * @param type type of the message
+		 * @param name name of the sender or <code>null</code>
+		 * @return message or <code>null</code>
+		 */
+		JsonObject take(final String type, final String name) {
+			for (final Iterator<String> it = fReceived.iterator(); it.hasNext(); ) {
+				final String msg = it.next();
+				it.remove();
+				final JsonObject json;
+				try (final JsonReader reader = Json.createReader(new StringReader(msg))) {
+					json = reader.readObject();
+				}
+				if ("error".equals(json.getString("type", null))) {
+					fNumErrors.incrementAndGet();
+				}
+				if (type.equals(json.getString("type", null)) && (name == null || name.equals(json.getString("name", null)))) {
+					return json;
+				}
+			}
+			return null;
+		}
+	}
+}